@@ -0,0 +1,138 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy;
+
+import com.thoughtworks.xstream.converters.reflection.PureJavaReflectionProvider;
+import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmrs.Location;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.location;
+
+/**
+ * Compares {@link ObjectUtils#overwrite(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)} using
+ * cached copy plans with the XStream reflection provider visitor which it replaced. The copied location doesn't
+ * reference other objects, so neither implementation updates back references.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyPlanBenchmark {
+
+	private static final PureJavaReflectionProvider reflector = new PureJavaReflectionProvider();
+
+	private static final Set<String> EXCLUDE_FIELDS = Collections.singleton("locationId");
+
+	private Location source;
+
+	private Location target;
+
+	@Setup
+	public void setup() {
+		source = location("Source", "Source location", "source-location-uuid");
+		source.setAddress1("Address 1");
+		source.setCityVillage("City");
+		source.setStateProvince("State");
+		source.setCountry("Country");
+		source.setPostalCode("12345");
+
+		target = location("Target", "Target location", "target-location-uuid");
+	}
+
+	@Benchmark
+	public Location copyPlan() {
+		ObjectUtils.overwrite(source, target, EXCLUDE_FIELDS);
+		return target;
+	}
+
+	@Benchmark
+	public Location xstreamVisitor() {
+		visitorOverwrite(source, target, EXCLUDE_FIELDS);
+		return target;
+	}
+
+	/**
+	 * The previous implementation of overwrite, which visits fields through XStream's reflection provider
+	 * @param source the source object
+	 * @param target the target object
+	 * @param excludeFields the names of fields to be excluded
+	 */
+	protected static void visitorOverwrite(final Object source, final Object target, final Set<String> excludeFields) {
+		reflector.visitSerializableFields(source, new ReflectionProvider.Visitor() {
+			@Override
+			public void visit(String fieldName, Class type, Class definedIn, Object value) {
+				if (excludeFields != null && excludeFields.contains(fieldName)) {
+					return;
+				}
+
+				if (Collection.class.isAssignableFrom(type)) {
+					Collection sourceCollection = (Collection) value;
+					Collection targetCollection = (Collection) readField(target, fieldName, definedIn);
+
+					if (targetCollection != null) {
+						targetCollection.clear();
+
+						if (sourceCollection != null) {
+							targetCollection.addAll(sourceCollection);
+						}
+					}
+					else {
+						reflector.writeField(target, fieldName, value, definedIn);
+					}
+				}
+				else {
+					reflector.writeField(target, fieldName, value, definedIn);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reads a field as the previous implementation did, looking it up and making it accessible on every read
+	 * @param object the object
+	 * @param fieldName the field name
+	 * @param definedIn the declaring class
+	 * @return the field value
+	 */
+	protected static Object readField(Object object, String fieldName, Class<?> definedIn) {
+		Field field = reflector.getField(definedIn, fieldName);
+		field.setAccessible(true);
+		try {
+			return field.get(object);
+		}
+		catch (IllegalAccessException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openmrs.Location;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares fetching all objects from a large CSV resource directly with fetching them through a
+ * {@link PipelinedObjectSource}. Each fetched object is given to a simulated installation step which burns a
+ * configurable amount of CPU, as pipelining can only pay off when parsing overlaps with other work. Scores are in rows
+ * per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelinedObjectSourceBenchmark {
+
+	private static final String RESOURCE = "benchmark-location-source.csv";
+
+	private static final int ROWS = 100000;
+
+	/**
+	 * CPU tokens consumed by the simulated installation of each object
+	 */
+	@Param({ "0", "200", "1000" })
+	public int installTokens;
+
+	@Param({ "1000" })
+	public int capacity;
+
+	/**
+	 * Generates the CSV resource next to the test resources, so that it can be loaded like any other resource
+	 * @throws Exception if the resource can't be written
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		URL testResource = getClass().getClassLoader().getResource("test-location-source.csv");
+		File csvFile = new File(new File(testResource.toURI()).getParentFile(), RESOURCE);
+		if (csvFile.exists()) {
+			return;
+		}
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), "UTF-8");
+		try {
+			writer.write("Name,Description,UUID\n");
+			for (int r = 0; r < ROWS; ++r) {
+				writer.write("\"Location #" + r + "\",\"Location, number " + r + "\"," + UUID.randomUUID() + "\n");
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void direct(Blackhole blackhole) throws Exception {
+		install(new LocationCsvSource(), blackhole);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ROWS)
+	public void pipelined(Blackhole blackhole) throws Exception {
+		PipelinedObjectSource<Location> source = new PipelinedObjectSource<Location>(new LocationCsvSource(), capacity);
+		try {
+			install(source, blackhole);
+		}
+		finally {
+			source.close();
+		}
+	}
+
+	/**
+	 * Fetches all objects from a source, simulating the installation of each
+	 * @param source the source
+	 * @param blackhole the blackhole
+	 * @throws Exception if an error occurs
+	 */
+	protected void install(ObjectSource<Location> source, Blackhole blackhole) throws Exception {
+		Location location;
+		while ((location = source.fetchNext()) != null) {
+			blackhole.consume(location);
+			Blackhole.consumeCPU(installTokens);
+		}
+	}
+
+	/**
+	 * Source of locations from the generated resource
+	 */
+	public static class LocationCsvSource extends AbstractCsvResourceSource<Location> {
+
+		public LocationCsvSource() throws IOException {
+			super(RESOURCE, true);
+		}
+
+		@Override
+		protected Location parseLine(String[] line) {
+			Location location = new Location();
+			location.setName(line[0]);
+			location.setDescription(line[1]);
+			location.setUuid(line[2]);
+			return location;
+		}
+	}
+}
@@ -0,0 +1,229 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy;
+
+import com.thoughtworks.xstream.converters.reflection.ObjectAccessException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The fields of a class which are copied by {@link ObjectUtils#overwrite(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)}.
+ * These are the same fields visited by XStream's reflection provider, i.e. all non-static, non-transient fields
+ * including inherited fields. Plans are built once for each class and set of excluded fields, and then cached until
+ * {@link #clearCache()} is called.
+ */
+public class CopyPlan {
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<Set<String>, CopyPlan>> plans = new ConcurrentHashMap<Class<?>, ConcurrentMap<Set<String>, CopyPlan>>();
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, CopyPlan>> referencePlans = new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, CopyPlan>>();
+
+	private final Field[] fields;
+
+	private final boolean[] collections;
+
+	/**
+	 * Clears all cached plans. Plans reference the fields of their classes, so this must be called when other modules may
+	 * have been stopped or this module is stopped, as it would otherwise keep their classloaders in memory.
+	 */
+	public static void clearCache() {
+		plans.clear();
+		referencePlans.clear();
+	}
+
+	/**
+	 * Gets the copy plan for the given class
+	 * @param clazz the class
+	 * @param excludeFields the names of fields to be excluded (may be null)
+	 * @return the copy plan
+	 */
+	public static CopyPlan forClass(Class<?> clazz, Set<String> excludeFields) {
+		Set<String> key = excludeFields != null ? excludeFields : Collections.<String>emptySet();
+
+		ConcurrentMap<Set<String>, CopyPlan> classPlans = plans.get(clazz);
+		if (classPlans == null) {
+			classPlans = new ConcurrentHashMap<Set<String>, CopyPlan>();
+			ConcurrentMap<Set<String>, CopyPlan> existing = plans.putIfAbsent(clazz, classPlans);
+			if (existing != null) {
+				classPlans = existing;
+			}
+		}
+
+		CopyPlan plan = classPlans.get(key);
+		if (plan == null) {
+			// Copy the key in case the caller modifies their set later
+			plan = new CopyPlan(clazz, key);
+			CopyPlan existing = classPlans.putIfAbsent(new HashSet<String>(key), plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Gets the plan containing only the fields of the given class which could reference an object of another class,
+	 * e.g. the owner field of an attribute class
+	 * @param clazz the class
+	 * @param referencedClass the class of the referenced object
+	 * @return the plan, which will be empty if there are no such fields
+	 */
+	public static CopyPlan forReferences(Class<?> clazz, Class<?> referencedClass) {
+		ConcurrentMap<Class<?>, CopyPlan> classPlans = referencePlans.get(clazz);
+		if (classPlans == null) {
+			classPlans = new ConcurrentHashMap<Class<?>, CopyPlan>();
+			ConcurrentMap<Class<?>, CopyPlan> existing = referencePlans.putIfAbsent(clazz, classPlans);
+			if (existing != null) {
+				classPlans = existing;
+			}
+		}
+
+		CopyPlan plan = classPlans.get(referencedClass);
+		if (plan == null) {
+			CopyPlan all = forClass(clazz, null);
+			List<Field> referencing = new ArrayList<Field>();
+			for (Field field : all.fields) {
+				if (field.getType().isAssignableFrom(referencedClass)) {
+					referencing.add(field);
+				}
+			}
+
+			plan = new CopyPlan(referencing.toArray(new Field[referencing.size()]));
+			CopyPlan existing = classPlans.putIfAbsent(referencedClass, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Builds a new copy plan
+	 * @param clazz the class
+	 * @param excludeFields the names of fields to be excluded
+	 */
+	protected CopyPlan(Class<?> clazz, Set<String> excludeFields) {
+		// Superclass fields come first
+		LinkedList<Class<?>> hierarchy = new LinkedList<Class<?>>();
+		for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+			hierarchy.addFirst(c);
+		}
+
+		List<Field> included = new ArrayList<Field>();
+		for (Class<?> c : hierarchy) {
+			for (Field field : c.getDeclaredFields()) {
+				int modifiers = field.getModifiers();
+				if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || excludeFields.contains(field.getName())) {
+					continue;
+				}
+
+				field.setAccessible(true);
+				included.add(field);
+			}
+		}
+
+		this.fields = included.toArray(new Field[included.size()]);
+		this.collections = classifyCollections(fields);
+	}
+
+	/**
+	 * Builds a new copy plan from fields which have already been made accessible
+	 * @param fields the fields
+	 */
+	protected CopyPlan(Field[] fields) {
+		this.fields = fields;
+		this.collections = classifyCollections(fields);
+	}
+
+	/**
+	 * Determines which of the given fields hold collections
+	 * @param fields the fields
+	 * @return the array of flags for each field
+	 */
+	private static boolean[] classifyCollections(Field[] fields) {
+		boolean[] collections = new boolean[fields.length];
+		for (int f = 0; f < fields.length; ++f) {
+			collections[f] = Collection.class.isAssignableFrom(fields[f].getType());
+		}
+		return collections;
+	}
+
+	/**
+	 * Gets the number of fields in this plan
+	 * @return the number of fields
+	 */
+	public int size() {
+		return fields.length;
+	}
+
+	/**
+	 * Gets the field at the given index
+	 * @param index the field index
+	 * @return the field
+	 */
+	public Field getField(int index) {
+		return fields[index];
+	}
+
+	/**
+	 * Gets whether the field at the given index holds a collection
+	 * @param index the field index
+	 * @return true if field is a collection
+	 */
+	public boolean isCollection(int index) {
+		return collections[index];
+	}
+
+	/**
+	 * Reads the value of a field from the given object
+	 * @param index the field index
+	 * @param obj the object
+	 * @return the field value
+	 */
+	public Object read(int index, Object obj) {
+		try {
+			return fields[index].get(obj);
+		}
+		catch (IllegalAccessException ex) {
+			throw new ObjectAccessException("Cannot access field " + obj.getClass().getName() + "." + fields[index].getName(), ex);
+		}
+	}
+
+	/**
+	 * Writes the value of a field to the given object
+	 * @param index the field index
+	 * @param obj the object
+	 * @param value the field value
+	 */
+	public void write(int index, Object obj, Object value) {
+		try {
+			fields[index].set(obj, value);
+		}
+		catch (IllegalAccessException ex) {
+			throw new ObjectAccessException("Cannot access field " + obj.getClass().getName() + "." + fields[index].getName(), ex);
+		}
+	}
+}
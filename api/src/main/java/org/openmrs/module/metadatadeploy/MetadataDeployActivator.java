@@ -36,6 +36,9 @@ public class MetadataDeployActivator implements ModuleActivator {
 	 * @see ModuleActivator#contextRefreshed()
 	 */
 	public void contextRefreshed() {
+		// Modules may have been stopped, so drop any copy plans for their classes
+		CopyPlan.clearCache();
+
 		log.info("MetadataDeploy refreshed");
 	}
 	
@@ -64,6 +67,8 @@ public class MetadataDeployActivator implements ModuleActivator {
 	 * @see ModuleActivator#stopped()
 	 */
 	public void stopped() {
+		CopyPlan.clearCache();
+
 		log.info("MetadataDeploy stopped");
 	}
 }
\ No newline at end of file
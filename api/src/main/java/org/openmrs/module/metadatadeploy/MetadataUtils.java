@@ -51,7 +51,7 @@ public class MetadataUtils {
 	 * @throws org.openmrs.module.metadatadeploy.MissingMetadataException if object doesn't exist
 	 */
 	public static <T extends OpenmrsObject> T existing(Class<T> clazz, String identifier) {
-		T ret = Context.getService(MetadataDeployService.class).fetchObject(clazz, identifier);
+		T ret = fetch(clazz, identifier);
 		if (ret == null) {
 			throw new MissingMetadataException(clazz, identifier);
 		}
@@ -65,7 +65,23 @@ public class MetadataUtils {
 	 * @return the object or null
 	 */
 	public static <T extends OpenmrsObject> T possible(Class<T> clazz, String identifier) {
-		return Context.getService(MetadataDeployService.class).fetchObject(clazz, identifier);
+		return fetch(clazz, identifier);
+	}
+
+	/**
+	 * Fetches an object, trying the metadata cache first as that doesn't need a transaction
+	 * @param clazz the object class
+	 * @param identifier the object identifier
+	 * @return the object or null
+	 */
+	protected static <T extends OpenmrsObject> T fetch(Class<T> clazz, String identifier) {
+		MetadataDeployService deployService = Context.getService(MetadataDeployService.class);
+
+		T ret = deployService.fetchCachedObject(clazz, identifier);
+		if (ret == null) {
+			ret = deployService.fetchObject(clazz, identifier);
+		}
+		return ret;
 	}
 
 	/**
@@ -80,7 +96,7 @@ public class MetadataUtils {
 
 		if (identifier.contains(":")) {
 			String[] tokens = identifier.split(":");
-			concept = Context.getConceptService().getConceptByMapping(tokens[1].trim(), tokens[0].trim());
+			concept = Context.getService(MetadataDeployService.class).fetchConceptByMapping(tokens[0].trim(), tokens[1].trim());
 		}
 		else {
 			// Assume it's a UUID
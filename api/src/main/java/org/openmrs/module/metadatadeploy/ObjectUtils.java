@@ -14,25 +14,44 @@
 
 package org.openmrs.module.metadatadeploy;
 
-import com.thoughtworks.xstream.converters.reflection.ObjectAccessException;
-import com.thoughtworks.xstream.converters.reflection.PureJavaReflectionProvider;
-import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
-import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
 import org.openmrs.OpenmrsObject;
 
-import java.lang.reflect.Field;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * Utility methods for OpenmrsObjects
  */
 public class ObjectUtils {
 
-	final static PureJavaReflectionProvider reflector = new PureJavaReflectionProvider();
+	/**
+	 * Audit fields which are set when an object is saved, and so are never compared
+	 */
+	protected final static Set<String> AUDIT_FIELDS = new HashSet<String>(Arrays.asList("creator", "dateCreated", "changedBy", "dateChanged"));
 
 	/**
-	 * Copies an object into another of the same class
+	 * The names of the fields which hold the database identifier of each class. Classes are weakly referenced so that
+	 * they can be unloaded with their module.
+	 */
+	private static final Map<Class<?>, Set<String>> identifierFields = Collections.synchronizedMap(new WeakHashMap<Class<?>, Set<String>>());
+
+	/**
+	 * Copies an object into another of the same class. If the target is a Hibernate proxy then its fields are written to
+	 * the underlying object, but other proxies and lazy collections are only initialized if their values are needed.
 	 * @param source the source object
 	 * @param target the target object
 	 * @param excludeFields the names of fields to be excluded
@@ -40,53 +59,421 @@ public class ObjectUtils {
 	 */
 	public static <T extends OpenmrsObject> void overwrite(final T source, final T target, final Set<String> excludeFields) {
 
-		ensureInitialized(target); // TODO figure out if this is necessary
-
-		reflector.visitSerializableFields(source, new ReflectionProvider.Visitor() {
+		Object targetImpl = implementation(target);
 
-			/**
-			 * @see ReflectionProvider#visitSerializableFields(Object, com.thoughtworks.xstream.converters.reflection.ReflectionProvider.Visitor)
-			 */
-			@Override
-			public void visit(String fieldName, Class type, Class definedIn, Object value) {
+		CopyPlan plan = CopyPlan.forClass(source.getClass(), excludeFields);
 
-				// Check if field should be excluded from operation
-				if (excludeFields != null && excludeFields.contains(fieldName)) {
-					return;
-				}
+		for (int f = 0; f < plan.size(); ++f) {
+			Object value = plan.read(f, source);
 
-				if (Collection.class.isAssignableFrom(type)) {
-					Collection sourceCollection = (Collection) value;
-					Collection targetCollection = (Collection) readField(target, fieldName, definedIn);
+			if (plan.isCollection(f)) {
+				Collection sourceCollection = (Collection) value;
+				Collection targetCollection = (Collection) plan.read(f, targetImpl);
 
-					if (sourceCollection != null) {
-						for (Object itemInSourceCollection : sourceCollection) {
-							if (itemInSourceCollection instanceof OpenmrsObject) {
-								updateBackReferences(itemInSourceCollection, source, target);
-							}
+				if (sourceCollection != null) {
+					for (Object itemInSourceCollection : sourceCollection) {
+						if (itemInSourceCollection instanceof OpenmrsObject) {
+							updateBackReferences(itemInSourceCollection, source, target);
 						}
 					}
+				}
 
-					// This collection might be Hibernate managed in which case we can't just replace it
-					if (targetCollection != null) {
-						targetCollection.clear();
+				// This collection might be Hibernate managed in which case we can't just replace it
+				if (targetCollection != null) {
+					mergeCollection(sourceCollection, targetCollection);
+				}
+				else {
+					plan.write(f, targetImpl, value);
+				}
+			} else {
+				if (value instanceof OpenmrsObject) {
+					updateBackReferences(value, source, target);
+				}
 
-						if (sourceCollection != null) {
-							targetCollection.addAll(sourceCollection);
-						}
-					}
-					else {
-						reflector.writeField(target, fieldName, value, definedIn);
-					}
-				} else {
-					if (value instanceof OpenmrsObject) {
-						updateBackReferences(value, source, target);
+				plan.write(f, targetImpl, value);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether copying an object into another of the same class would change the other object. Fields are
+	 * visited in the same way as {@link #overwrite(OpenmrsObject, OpenmrsObject, Set)} but audit fields are ignored.
+	 * @param source the source object
+	 * @param target the target object
+	 * @param excludeFields the names of fields to be excluded
+	 * @param <T> the class of both objects
+	 * @return true if any field value differs
+	 */
+	public static <T extends OpenmrsObject> boolean differs(final T source, final T target, final Set<String> excludeFields) {
+		return differs(source, target, excludeFields, new IdentityHashMap<Object, Object>());
+	}
+
+	/**
+	 * Checks whether copying an object into another would change the other object
+	 * @param source the source object
+	 * @param target the target object
+	 * @param excludeFields the names of fields to be excluded
+	 * @param comparing the identity map of source objects currently being compared, which are treated as equal so
+	 *                  that cyclic references between collection items don't recurse forever
+	 * @return true if any field value differs
+	 */
+	protected static boolean differs(Object source, Object target, Set<String> excludeFields, Map<Object, Object> comparing) {
+		if (comparing.put(source, source) != null) {
+			return false;
+		}
+
+		try {
+			Object targetImpl = implementation(target);
+
+			CopyPlan plan = CopyPlan.forClass(source.getClass(), excludeFields);
+
+			for (int f = 0; f < plan.size(); ++f) {
+				if (AUDIT_FIELDS.contains(plan.getField(f).getName())) {
+					continue;
+				}
+
+				Object value = plan.read(f, source);
+				Object targetValue = plan.read(f, targetImpl);
+
+				if (plan.isCollection(f)) {
+					if (!collectionsEqual((Collection) value, (Collection) targetValue, comparing)) {
+						return true;
 					}
+				} else if (!valuesEqual(value, targetValue)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+		finally {
+			comparing.remove(source);
+		}
+	}
+
+	/**
+	 * Gets the names of the fields which hold the database identifier of objects of the given class. These are found by
+	 * setting the id of a new instance, so that objects being compared are never modified.
+	 * @param clazz the class
+	 * @return the field names, which will be empty if the class doesn't use the standard id property or can't be
+	 *         instantiated
+	 */
+	public static Set<String> getIdentifierFields(Class<?> clazz) {
+		Set<String> names = identifierFields.get(clazz);
+		if (names == null) {
+			names = Collections.unmodifiableSet(findIdentifierFields(clazz));
+			identifierFields.put(clazz, names);
+		}
+		return names;
+	}
+
+	/**
+	 * Adds the identifier fields of the given class to a set of excluded fields
+	 * @param clazz the class
+	 * @param excludeFields the names of fields to be excluded (may be null)
+	 * @return the names of fields to be excluded including the identifier fields
+	 */
+	public static Set<String> excludingIdentifier(Class<?> clazz, Set<String> excludeFields) {
+		Set<String> idFields = getIdentifierFields(clazz);
+		if (idFields.isEmpty()) {
+			return excludeFields;
+		}
+
+		Set<String> excluded = new HashSet<String>(idFields);
+		if (excludeFields != null) {
+			excluded.addAll(excludeFields);
+		}
+		return excluded;
+	}
+
+	/**
+	 * Finds the fields which hold the database identifier of objects of the given class
+	 * @param clazz the class
+	 * @return the field names
+	 */
+	protected static Set<String> findIdentifierFields(Class<?> clazz) {
+		Set<String> names = new HashSet<String>();
+
+		if (!OpenmrsObject.class.isAssignableFrom(clazz)) {
+			return names;
+		}
+
+		OpenmrsObject probe;
+		try {
+			probe = (OpenmrsObject) clazz.newInstance();
+		}
+		catch (InstantiationException ex) {
+			return names;
+		}
+		catch (IllegalAccessException ex) {
+			return names;
+		}
+
+		// A new instance so that the fields it's written to can be found by identity
+		Integer probeId = new Integer(-1);
+		try {
+			probe.setId(probeId);
+		}
+		catch (UnsupportedOperationException ex) {
+			return names;
+		}
+
+		CopyPlan plan = CopyPlan.forClass(clazz, null);
+		for (int f = 0; f < plan.size(); ++f) {
+			if (plan.read(f, probe) == probeId) {
+				names.add(plan.getField(f).getName());
+			}
+		}
+		return names;
+	}
 
-					reflector.writeField(target, fieldName, value, definedIn);
+	/**
+	 * Merges a source collection into a target collection so that the target contains the same items, without
+	 * modifying the target if nothing has changed. Items of unordered collections are first matched by identity, so that
+	 * proxies aren't initialized unnecessarily, and then by their comparison key. Only items missing from the source are
+	 * removed and only new items are added. Ordered lists are replaced completely if they differ at all.
+	 * @param source the source collection (may be null)
+	 * @param target the target collection
+	 */
+	@SuppressWarnings("unchecked")
+	protected static void mergeCollection(Collection source, Collection target) {
+		if (source == target) {
+			return;
+		}
+		if (source == null || source.isEmpty()) {
+			if (!target.isEmpty()) {
+				target.clear();
+			}
+			return;
+		}
+
+		if (target instanceof List) {
+			if (!sameItems((List) target, source)) {
+				target.clear();
+				target.addAll(source);
+			}
+			return;
+		}
+
+		Map<Object, Object> unmatchedSource = new IdentityHashMap<Object, Object>();
+		for (Object sourceItem : source) {
+			unmatchedSource.put(sourceItem, sourceItem);
+		}
+
+		Map<Object, Object> unmatchedTarget = new IdentityHashMap<Object, Object>();
+		for (Object targetItem : target) {
+			if (unmatchedSource.remove(targetItem) == null) {
+				unmatchedTarget.put(targetItem, targetItem);
+			}
+		}
+
+		if (unmatchedSource.isEmpty() && unmatchedTarget.isEmpty()) {
+			return;
+		}
+
+		Map<Object, Object> toAdd = new LinkedHashMap<Object, Object>();
+		for (Object sourceItem : unmatchedSource.keySet()) {
+			toAdd.put(comparisonKey(sourceItem), sourceItem);
+		}
+
+		for (Iterator<?> i = target.iterator(); i.hasNext(); ) {
+			Object targetItem = i.next();
+			if (!unmatchedTarget.containsKey(targetItem)) {
+				continue;
+			}
+
+			Object key = comparisonKey(targetItem);
+			Object sourceItem = toAdd.get(key);
+
+			if (sourceItem != null && !(sourceItem instanceof OpenmrsObject)) {
+				// Equal value so keep the existing item
+				toAdd.remove(key);
+			}
+			else {
+				// Either missing from the source or to be replaced by a different instance
+				i.remove();
+			}
+		}
+
+		if (!toAdd.isEmpty()) {
+			target.addAll(toAdd.values());
+		}
+	}
+
+	/**
+	 * Checks whether a list contains the same items in the same order as a collection
+	 * @param list the list
+	 * @param collection the collection
+	 * @return true if items are the same instances or equal non-OpenmrsObjects
+	 */
+	protected static boolean sameItems(List<?> list, Collection<?> collection) {
+		if (list.size() != collection.size()) {
+			return false;
+		}
+
+		Iterator<?> listIterator = list.iterator();
+		for (Object item : collection) {
+			Object listItem = listIterator.next();
+			if (listItem != item && (item instanceof OpenmrsObject || item == null || !item.equals(listItem))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether two collection field values are equal. A null collection is considered equal to an empty one, as
+	 * overwriting would just clear the target collection. Items which aren't the same instance but have the same
+	 * comparison key are also compared field by field, ignoring their identifiers, as overwriting would replace them.
+	 * @param source the source collection
+	 * @param target the target collection
+	 * @param comparing the identity map of source objects already being compared
+	 * @return true if equal
+	 */
+	protected static boolean collectionsEqual(Collection<?> source, Collection<?> target, Map<Object, Object> comparing) {
+		int sourceSize = source != null ? source.size() : 0;
+		int targetSize = target != null ? target.size() : 0;
+
+		if (sourceSize != targetSize) {
+			return false;
+		}
+		if (sourceSize == 0) {
+			return true;
+		}
+
+		if (source instanceof List && target instanceof List) {
+			Iterator<?> targetIterator = target.iterator();
+			for (Object sourceItem : source) {
+				if (!itemsEqual(sourceItem, targetIterator.next(), comparing)) {
+					return false;
 				}
 			}
-		});
+			return true;
+		}
+
+		// Match by identity first so that only items which aren't the same instance need to be compared by key
+		Map<Object, Object> unmatched = new IdentityHashMap<Object, Object>();
+		for (Object targetItem : target) {
+			unmatched.put(targetItem, targetItem);
+		}
+
+		List<Object> unmatchedSource = new ArrayList<Object>();
+		for (Object sourceItem : source) {
+			if (unmatched.remove(sourceItem) == null) {
+				unmatchedSource.add(sourceItem);
+			}
+		}
+
+		if (unmatchedSource.isEmpty()) {
+			return true;
+		}
+
+		Map<Object, Object> targetsByKey = new HashMap<Object, Object>();
+		for (Object targetItem : unmatched.keySet()) {
+			targetsByKey.put(comparisonKey(targetItem), targetItem);
+		}
+		for (Object sourceItem : unmatchedSource) {
+			Object key = comparisonKey(sourceItem);
+			if (!targetsByKey.containsKey(key) || !itemsEqual(sourceItem, targetsByKey.remove(key), comparing)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks whether two collection items are equal. Different instances of OpenmrsObjects which are equal by
+	 * {@link #valuesEqual(Object, Object)} are also compared field by field, unless either is an uninitialized proxy.
+	 * @param source the source item
+	 * @param target the target item
+	 * @param comparing the identity map of source objects already being compared
+	 * @return true if equal
+	 */
+	protected static boolean itemsEqual(Object source, Object target, Map<Object, Object> comparing) {
+		if (!valuesEqual(source, target)) {
+			return false;
+		}
+		if (source == target || !(source instanceof OpenmrsObject) || !(target instanceof OpenmrsObject)) {
+			return true;
+		}
+		if (isUninitializedProxy(source) || isUninitializedProxy(target)) {
+			return true;
+		}
+
+		Object sourceImpl = implementation(source);
+		if (sourceImpl.getClass() != implementation(target).getClass()) {
+			return false;
+		}
+
+		return !differs(sourceImpl, target, excludingIdentifier(sourceImpl.getClass(), null), comparing);
+	}
+
+	/**
+	 * Checks whether two field values are equal. OpenmrsObjects are compared by UUID and dates by time. If either object
+	 * is an uninitialized Hibernate proxy, they are compared by database identifier so that it's not initialized.
+	 * @param source the source value
+	 * @param target the target value
+	 * @return true if equal
+	 */
+	protected static boolean valuesEqual(Object source, Object target) {
+		if (source == target) {
+			return true;
+		}
+		if (source == null || target == null) {
+			return false;
+		}
+		if (source instanceof OpenmrsObject && target instanceof OpenmrsObject) {
+			if ((isUninitializedProxy(source) || isUninitializedProxy(target)) && hasIdentifier(source) && hasIdentifier(target)) {
+				Serializable sourceId = identifier((OpenmrsObject) source);
+				return sourceId != null && sourceId.equals(identifier((OpenmrsObject) target));
+			}
+
+			String sourceUuid = ((OpenmrsObject) source).getUuid();
+			return sourceUuid != null && sourceUuid.equals(((OpenmrsObject) target).getUuid());
+		}
+		if (source instanceof Date && target instanceof Date) {
+			// Dates loaded from the database will be timestamps which aren't equal to regular dates
+			return ((Date) source).getTime() == ((Date) target).getTime();
+		}
+		return source.equals(target);
+	}
+
+	/**
+	 * Gets the key used to compare an item in an unordered collection
+	 * @param item the collection item
+	 * @return the UUID if item is an OpenmrsObject, the time if item is a date, else the item itself
+	 */
+	protected static Object comparisonKey(Object item) {
+		if (item instanceof OpenmrsObject) {
+			String uuid = ((OpenmrsObject) item).getUuid();
+			return uuid != null ? uuid : new IdentityKey(item);
+		}
+		if (item instanceof Date) {
+			return ((Date) item).getTime();
+		}
+		return item;
+	}
+
+	/**
+	 * Wraps an object so that it is compared by identity
+	 */
+	protected static class IdentityKey {
+
+		private final Object obj;
+
+		public IdentityKey(Object obj) {
+			this.obj = obj;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof IdentityKey && ((IdentityKey) other).obj == obj;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(obj);
+		}
 	}
 
 	/**
@@ -99,49 +486,64 @@ public class ObjectUtils {
 	 * @param <T> the source and target object class
 	 */
 	protected static <T extends OpenmrsObject> void updateBackReferences(final Object obj, final T source, final T target) {
-		ensureInitialized(obj);
-
-		reflector.visitSerializableFields(obj, new ReflectionProvider.Visitor() {
-			/**
-			 * @see ReflectionProvider#visitSerializableFields(Object, com.thoughtworks.xstream.converters.reflection.ReflectionProvider.Visitor)
-			 */
-			@Override
-			public void visit(String fieldName, Class type, Class definedIn, Object value) {
-				if (value != null && value == source) {
-					reflector.writeField(obj, fieldName, target, definedIn);
-				}
+		// An object which hasn't been loaded yet can't reference the source object
+		if (isUninitializedProxy(obj)) {
+			return;
+		}
+
+		Object objImpl = implementation(obj);
+
+		// Only fields which could hold the source object need to be checked
+		CopyPlan plan = CopyPlan.forReferences(objImpl.getClass(), source.getClass());
+
+		for (int f = 0; f < plan.size(); ++f) {
+			Object value = plan.read(f, objImpl);
+			if (value != null && value == source) {
+				plan.write(f, objImpl, target);
 			}
-		});
+		}
 	}
 
 	/**
-	 * Ensures that the given object is initialized if its a Hibernate proxy
+	 * Checks whether the given object is a Hibernate proxy which hasn't been initialized
 	 * @param obj the object
+	 * @return true if object is an uninitialized proxy
 	 */
-	protected static void ensureInitialized(Object obj) {
-		if (!Hibernate.isInitialized(obj)) {
-			Hibernate.initialize(obj);
-		}
+	protected static boolean isUninitializedProxy(Object obj) {
+		return obj instanceof HibernateProxy && ((HibernateProxy) obj).getHibernateLazyInitializer().isUninitialized();
 	}
 
 	/**
-	 * Reads the value of a field from the given object
-	 * @param object the object
-	 * @param fieldName the name of the field
-	 * @param definedIn the class in the objects hierarchy where the field was defined
-	 * @return the field value
+	 * Gets the underlying object if the given object is a Hibernate proxy, initializing it if necessary
+	 * @param obj the object
+	 * @return the underlying object or the object itself if it's not a proxy
 	 */
-	protected static Object readField(Object object, String fieldName, Class<?> definedIn) {
-		Field field = reflector.getField(definedIn, fieldName);
-		field.setAccessible(true);
-		Object result;
-		try {
-			result = field.get(object);
+	protected static Object implementation(Object obj) {
+		if (obj instanceof HibernateProxy) {
+			return ((HibernateProxy) obj).getHibernateLazyInitializer().getImplementation();
 		}
-		catch (IllegalAccessException e) {
-			throw new ObjectAccessException("Cannot access field " + object.getClass().getName() + "." + field.getName());
+		return obj;
+	}
+
+	/**
+	 * Checks whether the database identifier of an object can be determined without initializing it
+	 * @param obj the object
+	 * @return true if object is a Hibernate proxy or uses the standard id property
+	 */
+	protected static boolean hasIdentifier(Object obj) {
+		return obj instanceof HibernateProxy || (obj instanceof OpenmrsObject && usesId((OpenmrsObject) obj));
+	}
+
+	/**
+	 * Gets the database identifier of an object without initializing it if it's a Hibernate proxy
+	 * @param obj the object
+	 * @return the identifier or null if the object is not persistent or doesn't use the standard id property
+	 */
+	protected static Serializable identifier(OpenmrsObject obj) {
+		if (obj instanceof HibernateProxy) {
+			return ((HibernateProxy) obj).getHibernateLazyInitializer().getIdentifier();
 		}
-		return result;
+		return usesId(obj) ? obj.getId() : null;
 	}
 
 	/**
@@ -0,0 +1,467 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api;
+
+import org.openmrs.api.APIException;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide index of concept mappings by source and reference term code. Each source is loaded in a single query
+ * the first time it's used, and concepts which have changed since are reloaded the next time the index is used. The
+ * index records whether each concept is numeric so that it can be loaded as the right class.
+ *
+ * The index is notified of changes by the Hibernate interceptor, so it's given a DAO on each lookup rather than
+ * depending on the session factory itself. Loads and reloads run in the caller's transaction, so the index must only
+ * contain committed data: a transaction which has changed concepts or their mappings isn't allowed to use the index,
+ * and anything loaded while it flushed such changes is discarded.
+ *
+ * Sources are loaded without holding the index's lock, so that a large source doesn't block lookups in other sources.
+ * Concurrent lookups in a source which is being loaded wait for that load rather than repeating it.
+ */
+public class ConceptMappingIndex {
+
+	private static final String NUMERIC_DATATYPE = "NM";
+
+	private final ConcurrentMap<String, FutureTask<SourceIndex>> sources = new ConcurrentHashMap<String, FutureTask<SourceIndex>>();
+
+	private final Set<Integer> staleConcepts = new HashSet<Integer>();
+
+	private final Lock refreshLock = new ReentrantLock();
+
+	private final ThreadLocal<Boolean> uncommittedChanges = new ThreadLocal<Boolean>();
+
+	/**
+	 * Gets whether any sources have been loaded or are being loaded, and so whether changed concepts need to be reloaded
+	 * @return true if any sources have been loaded
+	 */
+	public boolean isLoaded() {
+		return !sources.isEmpty();
+	}
+
+	/**
+	 * Looks up the concept mapped to the given reference term. Like ConceptService.getConceptByMapping, a non-retired
+	 * concept is preferred over a retired one.
+	 * @param dao the data access object used to load sources and changed concepts
+	 * @param source the source name or HL7 code
+	 * @param code the reference term code
+	 * @return the mapping or null if none is indexed, or the current transaction can't use the index
+	 * @throws APIException if there are multiple non-retired concepts mapped to the reference term
+	 */
+	public Mapping lookup(MetadataDeployDAO dao, String source, String code) {
+		if (hasUncommittedChanges()) {
+			return null;
+		}
+
+		refreshStale(dao);
+
+		SourceIndex index = getSourceIndex(dao, source);
+		if (index == null) {
+			return null;
+		}
+
+		synchronized (this) {
+			List<Mapping> candidates = index.get(normalize(code));
+			if (candidates == null) {
+				return null;
+			}
+
+			Mapping found = null;
+			for (Mapping candidate : candidates) {
+				if (!candidate.retired) {
+					if (found != null && !found.retired) {
+						throw new APIException("Multiple non-retired concepts found for mapping " + code + " from source " + source);
+					}
+					found = candidate;
+				}
+				else if (found == null) {
+					found = candidate;
+				}
+			}
+			return found;
+		}
+	}
+
+	/**
+	 * Marks the given concepts as changed so that their mappings are reloaded the next time this index is used. Nothing
+	 * needs to be reloaded if no sources have been loaded yet, as they will be loaded with the committed changes.
+	 * @param conceptIds the concept ids
+	 */
+	public synchronized void markStale(Collection<Integer> conceptIds) {
+		if (isLoaded()) {
+			staleConcepts.addAll(conceptIds);
+		}
+	}
+
+	/**
+	 * Clears all loaded sources
+	 */
+	public synchronized void clear() {
+		sources.clear();
+		staleConcepts.clear();
+	}
+
+	/**
+	 * Gets the number of loaded sources
+	 * @return the number of sources
+	 */
+	public int getSourceCount() {
+		return sources.size();
+	}
+
+	/**
+	 * Records that the current thread's transaction has changed concepts or their mappings. Until that transaction
+	 * completes, it won't use the index, as the index could otherwise be loaded with changes which are then rolled back.
+	 */
+	public void recordUncommittedChange() {
+		uncommittedChanges.set(Boolean.TRUE);
+	}
+
+	/**
+	 * Records that the current thread's transaction has completed, whether or not it was committed
+	 */
+	public void transactionCompleted() {
+		uncommittedChanges.remove();
+	}
+
+	/**
+	 * Gets whether the current thread's transaction has changed concepts or their mappings
+	 * @return true if it has uncommitted changes
+	 */
+	protected boolean hasUncommittedChanges() {
+		return uncommittedChanges.get() != null;
+	}
+
+	/**
+	 * Gets the index of the given source, loading it if this is the first lookup in that source
+	 * @param dao the data access object
+	 * @param source the source name or HL7 code
+	 * @return the source index, or null if it had to be discarded
+	 */
+	protected SourceIndex getSourceIndex(final MetadataDeployDAO dao, final String source) {
+		final String sourceKey = normalize(source);
+
+		FutureTask<SourceIndex> future = sources.get(sourceKey);
+		if (future == null) {
+			FutureTask<SourceIndex> load = new FutureTask<SourceIndex>(new Callable<SourceIndex>() {
+				@Override
+				public SourceIndex call() throws Exception {
+					return loadSource(dao, source, sourceKey);
+				}
+			});
+
+			future = sources.putIfAbsent(sourceKey, load);
+			if (future == null) {
+				future = load;
+				load.run();
+			}
+		}
+
+		try {
+			SourceIndex index = future.get();
+			if (index == null) {
+				sources.remove(sourceKey, future);
+			}
+			return index;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new APIException("Interrupted while loading concept mappings from source " + source, ex);
+		}
+		catch (ExecutionException ex) {
+			sources.remove(sourceKey, future);
+			throw new APIException("Unable to load concept mappings from source " + source, ex.getCause());
+		}
+	}
+
+	/**
+	 * Loads the mappings of a source
+	 * @param dao the data access object
+	 * @param source the source name or HL7 code
+	 * @param sourceKey the normalized source name or HL7 code
+	 * @return the source index, or null if loading it flushed uncommitted changes
+	 */
+	protected SourceIndex loadSource(MetadataDeployDAO dao, String source, String sourceKey) {
+		SourceIndex index = new SourceIndex(sourceKey);
+		for (Object[] row : dao.getConceptMappings(source)) {
+			index.add(row);
+		}
+		return hasUncommittedChanges() ? null : index;
+	}
+
+	/**
+	 * Reloads the mappings of all changed concepts in the loaded sources. Reloads are made one at a time so that an
+	 * older reload can't overwrite a newer one.
+	 * @param dao the data access object
+	 */
+	protected void refreshStale(MetadataDeployDAO dao) {
+		synchronized (this) {
+			if (staleConcepts.isEmpty()) {
+				return;
+			}
+		}
+
+		refreshLock.lock();
+		try {
+			Set<Integer> concepts;
+			synchronized (this) {
+				if (staleConcepts.isEmpty()) {
+					return;
+				}
+				concepts = new HashSet<Integer>(staleConcepts);
+				staleConcepts.clear();
+			}
+
+			boolean refreshed = false;
+			try {
+				List<Object[]> rows = dao.getConceptMappings(concepts);
+				if (!hasUncommittedChanges()) {
+					refreshed = applyRefresh(concepts, rows);
+				}
+			}
+			finally {
+				if (!refreshed) {
+					markStale(concepts);
+				}
+			}
+		}
+		finally {
+			refreshLock.unlock();
+		}
+	}
+
+	/**
+	 * Replaces the mappings of the given concepts in all loaded sources
+	 * @param concepts the concept ids
+	 * @param rows the reloaded mapping rows of those concepts
+	 * @return false if some sources are still being loaded, so the concepts should be reloaded again after them
+	 */
+	protected synchronized boolean applyRefresh(Set<Integer> concepts, List<Object[]> rows) {
+		boolean complete = true;
+
+		for (FutureTask<SourceIndex> future : sources.values()) {
+			SourceIndex index = getLoaded(future);
+			if (index == null) {
+				// A source which is still being loaded may or may not include these changes
+				complete &= future.isDone();
+				continue;
+			}
+
+			index.removeConcepts(concepts);
+			for (Object[] row : rows) {
+				if (index.matches(row)) {
+					index.add(row);
+				}
+			}
+		}
+
+		return complete;
+	}
+
+	/**
+	 * Gets the index from a source load if it has completed successfully
+	 * @param future the source load
+	 * @return the source index or null
+	 */
+	protected static SourceIndex getLoaded(FutureTask<SourceIndex> future) {
+		if (!future.isDone()) {
+			return null;
+		}
+		try {
+			return future.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Normalizes a source name or code for case insensitive matching
+	 * @param value the value
+	 * @return the normalized value
+	 */
+	protected static String normalize(String value) {
+		return value != null ? value.trim().toUpperCase() : null;
+	}
+
+	/**
+	 * An indexed mapping to a concept
+	 */
+	public static class Mapping {
+
+		private final Integer conceptId;
+
+		private final boolean numeric;
+
+		private final boolean retired;
+
+		/**
+		 * Creates a new mapping
+		 * @param conceptId the concept id
+		 * @param numeric whether the concept is numeric
+		 * @param retired whether the concept is retired
+		 */
+		public Mapping(Integer conceptId, boolean numeric, boolean retired) {
+			this.conceptId = conceptId;
+			this.numeric = numeric;
+			this.retired = retired;
+		}
+
+		/**
+		 * Gets the concept id
+		 * @return the concept id
+		 */
+		public Integer getConceptId() {
+			return conceptId;
+		}
+
+		/**
+		 * Gets whether the concept is numeric, and so should be loaded as a ConceptNumeric
+		 * @return true if numeric
+		 */
+		public boolean isNumeric() {
+			return numeric;
+		}
+
+		/**
+		 * Gets whether the concept is retired
+		 * @return true if retired
+		 */
+		public boolean isRetired() {
+			return retired;
+		}
+	}
+
+	/**
+	 * Mappings to the reference terms of one source, keyed by normalized code
+	 */
+	protected static class SourceIndex {
+
+		private final String sourceKey;
+
+		private final Map<String, List<Mapping>> byCode = new HashMap<String, List<Mapping>>();
+
+		private final Map<Integer, List<String>> codesByConcept = new HashMap<Integer, List<String>>();
+
+		/**
+		 * Creates a new source index
+		 * @param sourceKey the normalized source name or HL7 code which was requested
+		 */
+		public SourceIndex(String sourceKey) {
+			this.sourceKey = sourceKey;
+		}
+
+		/**
+		 * Checks whether a mapping row belongs to this source
+		 * @param row the mapping row
+		 * @return true if the row's source name or HL7 code matches
+		 */
+		public boolean matches(Object[] row) {
+			return sourceKey.equals(normalize((String) row[0])) || sourceKey.equals(normalize((String) row[1]));
+		}
+
+		/**
+		 * Adds a mapping row
+		 * @param row the mapping row
+		 */
+		public void add(Object[] row) {
+			String code = normalize((String) row[2]);
+			Integer conceptId = (Integer) row[3];
+			boolean numeric = NUMERIC_DATATYPE.equals(row[4]);
+			boolean retired = Boolean.TRUE.equals(row[5]);
+
+			List<Mapping> candidates = byCode.get(code);
+			if (candidates == null) {
+				candidates = new ArrayList<Mapping>(1);
+				byCode.put(code, candidates);
+			}
+			else {
+				// A concept can be mapped to the same term more than once, e.g. with different map types
+				for (Mapping candidate : candidates) {
+					if (candidate.conceptId.equals(conceptId)) {
+						return;
+					}
+				}
+			}
+			candidates.add(new Mapping(conceptId, numeric, retired));
+
+			List<String> codes = codesByConcept.get(conceptId);
+			if (codes == null) {
+				codes = new ArrayList<String>(1);
+				codesByConcept.put(conceptId, codes);
+			}
+			codes.add(code);
+		}
+
+		/**
+		 * Gets the mappings to the given code
+		 * @param code the normalized code
+		 * @return the mappings or null
+		 */
+		public List<Mapping> get(String code) {
+			return byCode.get(code);
+		}
+
+		/**
+		 * Removes all mappings of the given concepts
+		 * @param conceptIds the concept ids
+		 */
+		public void removeConcepts(Collection<Integer> conceptIds) {
+			for (Integer conceptId : conceptIds) {
+				List<String> codes = codesByConcept.remove(conceptId);
+				if (codes == null) {
+					continue;
+				}
+
+				for (String code : codes) {
+					List<Mapping> candidates = byCode.get(code);
+					if (candidates == null) {
+						continue;
+					}
+
+					Iterator<Mapping> iterator = candidates.iterator();
+					while (iterator.hasNext()) {
+						if (iterator.next().conceptId.equals(conceptId)) {
+							iterator.remove();
+						}
+					}
+					if (candidates.isEmpty()) {
+						byCode.remove(code);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api;
+
+/**
+ * Policy for how often the Hibernate session is flushed, and optionally cleared, while a bundle is being installed.
+ * Flushing and clearing every N objects keeps the session small so that memory use stays flat and the cost of each
+ * flush doesn't grow with the number of objects already installed.
+ */
+public class FlushPolicy {
+
+	/**
+	 * Only flush the session at the end of each bundle
+	 */
+	public static final FlushPolicy END_OF_BUNDLE = new FlushPolicy(0, false);
+
+	private final int interval;
+
+	private final boolean clear;
+
+	/**
+	 * Creates a new policy
+	 * @param interval the number of installed objects between each flush, or zero to only flush at the end of each bundle
+	 * @param clear whether to also clear the session after each flush
+	 */
+	public FlushPolicy(int interval, boolean clear) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("Flush interval can't be negative");
+		}
+
+		this.interval = interval;
+		this.clear = clear;
+	}
+
+	/**
+	 * Creates a policy which flushes the session every N objects
+	 * @param interval the number of installed objects between each flush
+	 * @return the policy
+	 */
+	public static FlushPolicy flushEvery(int interval) {
+		return new FlushPolicy(interval, false);
+	}
+
+	/**
+	 * Creates a policy which flushes and clears the session every N objects
+	 * @param interval the number of installed objects between each flush
+	 * @return the policy
+	 */
+	public static FlushPolicy flushAndClearEvery(int interval) {
+		return new FlushPolicy(interval, true);
+	}
+
+	/**
+	 * Gets the number of installed objects between each flush
+	 * @return the interval, or zero if the session is only flushed at the end of each bundle
+	 */
+	public int getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Gets whether the session is also cleared after each flush
+	 * @return true if the session is cleared
+	 */
+	public boolean isClear() {
+		return clear;
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return interval > 0 ? ((clear ? "flush and clear every " : "flush every ") + interval) : "flush at end of bundle";
+	}
+}
@@ -0,0 +1,33 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api;
+
+import org.openmrs.OpenmrsObject;
+
+/**
+ * Callback which is notified as each object is installed from an object source
+ * @param <T> the object class
+ */
+public interface InstallCallback<T extends OpenmrsObject> {
+
+	/**
+	 * Called after an object has been installed. The installed object may be detached later if the session is cleared,
+	 * so callbacks shouldn't keep references to it.
+	 * @param installed the installed object (can be incoming or existing)
+	 * @param outcome the outcome
+	 */
+	void objectInstalled(T installed, InstallOutcome outcome);
+}
@@ -0,0 +1,88 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api;
+
+import org.openmrs.OpenmrsObject;
+
+/**
+ * Counts of the outcomes of installing objects from an object source
+ */
+public class InstallCounts implements InstallCallback<OpenmrsObject> {
+
+	private int created = 0;
+
+	private int updated = 0;
+
+	private int unchanged = 0;
+
+	/**
+	 * @see InstallCallback#objectInstalled(org.openmrs.OpenmrsObject, InstallOutcome)
+	 */
+	@Override
+	public void objectInstalled(OpenmrsObject installed, InstallOutcome outcome) {
+		switch (outcome) {
+			case CREATED:
+				++created;
+				break;
+			case UPDATED:
+				++updated;
+				break;
+			case UNCHANGED:
+				++unchanged;
+				break;
+		}
+	}
+
+	/**
+	 * Gets the number of objects which were created
+	 * @return the number of objects
+	 */
+	public int getCreated() {
+		return created;
+	}
+
+	/**
+	 * Gets the number of existing objects which were updated
+	 * @return the number of objects
+	 */
+	public int getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Gets the number of existing objects which were unchanged
+	 * @return the number of objects
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * Gets the total number of objects installed
+	 * @return the number of objects
+	 */
+	public int getTotal() {
+		return created + updated + unchanged;
+	}
+
+	/**
+	 * @see Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return created + " created, " + updated + " updated, " + unchanged + " unchanged";
+	}
+}
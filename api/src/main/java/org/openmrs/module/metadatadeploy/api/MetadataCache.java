@@ -0,0 +1,403 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api;
+
+import org.hibernate.proxy.HibernateProxy;
+import org.openmrs.OpenmrsObject;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide primary key lookup cache for metadata fetched by identifier. A cached fetch still loads the object by
+ * its primary key, but that replaces the handler's query by identifier: a load by primary key is answered from the
+ * session without any SQL if the object has already been loaded, is otherwise a single select by primary key, and
+ * never flushes the session as a query would. Only primary keys are cached, as objects belong to a session, and the
+ * object loaded by primary key should be checked against the identifier in case it has been changed outside of this
+ * module. The least recently used entries are evicted when the cache is full.
+ *
+ * Where the object is already in the session or in Hibernate's second-level cache, a cached key lets it be fetched
+ * without a transaction or any SQL at all, which is how MetadataUtils answers hits.
+ *
+ * Identifiers which couldn't be found are also remembered for a short time, as callers often check for metadata which
+ * doesn't exist, e.g. legacy identifiers to be uninstalled. These entries expire after the missing TTL, and are evicted
+ * as soon as an object with that identifier is installed through this module or created elsewhere.
+ */
+public class MetadataCache {
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	public static final long DEFAULT_MISSING_TTL = 60000l;
+
+	private final int maxSize;
+
+	private final Map<Key, Serializable> entries;
+
+	private final Map<Key, Long> missing;
+
+	private volatile long missingTtl = DEFAULT_MISSING_TTL;
+
+	private final Set<Class<?>> cachedClasses = new CopyOnWriteArraySet<Class<?>>();
+
+	private final ConcurrentMap<Class<?>, Boolean> coverage = new ConcurrentHashMap<Class<?>, Boolean>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong avoidedMisses = new AtomicLong();
+
+	/**
+	 * Creates a new cache with the default maximum size
+	 */
+	public MetadataCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new cache
+	 * @param maxSize the maximum number of entries
+	 */
+	public MetadataCache(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Maximum size must be at least 1");
+		}
+
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<Key, Serializable>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Serializable> eldest) {
+				return size() > maxSize;
+			}
+		};
+		this.missing = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Gets the primary key of the object with the given class and identifier
+	 * @param clazz the object class
+	 * @param identifier the object identifier
+	 * @return the primary key or null if not cached
+	 */
+	public Serializable get(Class<?> clazz, String identifier) {
+		synchronized (entries) {
+			return entries.get(new Key(clazz, identifier));
+		}
+	}
+
+	/**
+	 * Caches the primary key of the object with the given class and identifier
+	 * @param clazz the object class
+	 * @param identifier the object identifier
+	 * @param primaryKey the primary key
+	 */
+	public void put(Class<?> clazz, String identifier, Serializable primaryKey) {
+		addCachedClass(clazz);
+
+		synchronized (entries) {
+			entries.put(new Key(clazz, identifier), primaryKey);
+		}
+	}
+
+	/**
+	 * Checks whether the object with the given class and identifier was recently found not to exist
+	 * @param clazz the object class
+	 * @param identifier the object identifier
+	 * @return true if the object is known not to exist
+	 */
+	public boolean isMissing(Class<?> clazz, String identifier) {
+		Key key = new Key(clazz, identifier);
+		synchronized (missing) {
+			Long expiry = missing.get(key);
+			if (expiry == null) {
+				return false;
+			}
+			if (expiry < System.currentTimeMillis()) {
+				missing.remove(key);
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Remembers that the object with the given class and identifier doesn't exist, until the missing TTL has elapsed
+	 * @param clazz the object class
+	 * @param identifier the object identifier
+	 */
+	public void putMissing(Class<?> clazz, String identifier) {
+		if (missingTtl <= 0) {
+			return;
+		}
+
+		addCachedClass(clazz);
+
+		synchronized (missing) {
+			missing.put(new Key(clazz, identifier), System.currentTimeMillis() + missingTtl);
+		}
+	}
+
+	/**
+	 * Sets how long identifiers are remembered as missing. Zero disables caching of missing identifiers.
+	 * @param missingTtl the time in milliseconds
+	 */
+	public void setMissingTtl(long missingTtl) {
+		this.missingTtl = missingTtl;
+	}
+
+	/**
+	 * Gets how long identifiers are remembered as missing
+	 * @return the time in milliseconds
+	 */
+	public long getMissingTtl() {
+		return missingTtl;
+	}
+
+	/**
+	 * Checks whether objects of the given entity class might have entries in this cache. This is called for every
+	 * entity write so is answered from a map of previously checked classes.
+	 * @param entityClass the entity class
+	 * @return true if entries might exist for that class
+	 */
+	public boolean covers(Class<?> entityClass) {
+		Boolean covered = coverage.get(entityClass);
+		if (covered == null) {
+			covered = Boolean.FALSE;
+			for (Class<?> cachedClass : cachedClasses) {
+				if (cachedClass.isAssignableFrom(entityClass)) {
+					covered = Boolean.TRUE;
+					break;
+				}
+			}
+			coverage.put(entityClass, covered);
+		}
+		return covered;
+	}
+
+	/**
+	 * Evicts the entries for the given class and identifier, including those cached under a superclass
+	 * @param clazz the object class
+	 * @param identifier the object identifier
+	 */
+	public void evict(Class<?> clazz, String identifier) {
+		for (Class<?> cachedClass : cachedClasses) {
+			if (cachedClass.isAssignableFrom(clazz)) {
+				Key key = new Key(cachedClass, identifier);
+				synchronized (entries) {
+					entries.remove(key);
+				}
+				synchronized (missing) {
+					missing.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evicts the entry for the given object's class and identifier
+	 * @param obj the object
+	 * @param identifier the object identifier
+	 */
+	public void evict(OpenmrsObject obj, String identifier) {
+		evict(getEntityClass(obj), identifier);
+	}
+
+	/**
+	 * Evicts all entries for the object with the given entity class and primary key, regardless of the identifier they
+	 * were cached under
+	 * @param entityClass the entity class
+	 * @param primaryKey the primary key
+	 */
+	public void evictPrimaryKey(Class<?> entityClass, Serializable primaryKey) {
+		synchronized (entries) {
+			Iterator<Map.Entry<Key, Serializable>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Key, Serializable> entry = iterator.next();
+				if (primaryKey.equals(entry.getValue()) && entry.getKey().clazz.isAssignableFrom(entityClass)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evicts all missing entries for the given entity class, as an object of that class has been created or
+	 * updated and may now have one of their identifiers
+	 * @param entityClass the entity class
+	 */
+	public void evictMissing(Class<?> entityClass) {
+		synchronized (missing) {
+			Iterator<Key> iterator = missing.keySet().iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next().clazz.isAssignableFrom(entityClass)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evicts all entries
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+		synchronized (missing) {
+			missing.clear();
+		}
+	}
+
+	/**
+	 * Gets the current number of primary key entries
+	 * @return the number of entries
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Gets the maximum number of entries
+	 * @return the maximum number of entries
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Records a fetch where the object was loaded by its cached primary key instead of by the handler's query
+	 */
+	public void recordHit() {
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Records a fetch which had no cached primary key, so required the handler's query
+	 */
+	public void recordMiss() {
+		misses.incrementAndGet();
+	}
+
+	/**
+	 * Records a fetch which was answered by a missing entry rather than a query
+	 */
+	public void recordAvoidedMiss() {
+		avoidedMisses.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of fetches where the object was loaded by its cached primary key instead of by the handler's query
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Gets the number of fetches which had no cached primary key, so required the handler's query
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Gets the number of fetches which were answered by a missing entry rather than a query
+	 * @return the number of avoided misses
+	 */
+	public long getAvoidedMissCount() {
+		return avoidedMisses.get();
+	}
+
+	/**
+	 * Adds a class to the set of classes which have entries
+	 * @param clazz the class
+	 */
+	protected void addCachedClass(Class<?> clazz) {
+		if (cachedClasses.add(clazz)) {
+			coverage.clear();
+		}
+	}
+
+	/**
+	 * Gets the entity class of the given object, without initializing it if it's a proxy
+	 * @param obj the object
+	 * @return the entity class
+	 */
+	public static Class<?> getEntityClass(OpenmrsObject obj) {
+		if (obj instanceof HibernateProxy) {
+			return ((HibernateProxy) obj).getHibernateLazyInitializer().getPersistentClass();
+		}
+		return obj.getClass();
+	}
+
+	/**
+	 * Cache key of an object class and identifier
+	 */
+	protected static class Key {
+
+		private final Class<?> clazz;
+
+		private final String identifier;
+
+		/**
+		 * Creates a new key
+		 * @param clazz the object class
+		 * @param identifier the object identifier
+		 */
+		public Key(Class<?> clazz, String identifier) {
+			this.clazz = clazz;
+			this.identifier = identifier;
+		}
+
+		/**
+		 * @see Object#equals(Object)
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return clazz.equals(key.clazz) && identifier.equals(key.identifier);
+		}
+
+		/**
+		 * @see Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * clazz.hashCode() + identifier.hashCode();
+		}
+	}
+}
@@ -14,10 +14,12 @@
 
 package org.openmrs.module.metadatadeploy.api;
 
+import org.openmrs.Concept;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.api.APIException;
 import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
 import org.openmrs.module.metadatadeploy.source.ObjectSource;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collection;
@@ -36,6 +38,38 @@ public interface MetadataDeployService {
 	 */
 	void installBundles(Collection<MetadataBundle> bundles) throws APIException;
 
+	/**
+	 * Installs a collection of bundles on a pool of worker threads. Bundles which don't depend on each other are
+	 * installed concurrently, each in its own transaction, and a bundle is only started once all of its required
+	 * bundles have been committed. This method shouldn't be called from within an existing transaction. Each worker
+	 * thread has its own user context which assumes the identity of the calling user, so that user must be a super user.
+	 * @param bundles the bundles
+	 * @param threads the maximum number of worker threads
+	 * @throws APIException if an error occurs or the calling user isn't a super user
+	 */
+	@Transactional(propagation = Propagation.NOT_SUPPORTED)
+	void installBundles(Collection<MetadataBundle> bundles, int threads) throws APIException;
+
+	/**
+	 * Gets the cache of the primary keys of metadata fetched by identifier, e.g. to check its hit and miss counts
+	 * @return the cache
+	 */
+	@Transactional(readOnly = true)
+	MetadataCache getCache();
+
+	/**
+	 * Gets the global flush policy used when installing bundles which don't specify their own
+	 * @return the flush policy
+	 */
+	@Transactional(readOnly = true)
+	FlushPolicy getFlushPolicy();
+
+	/**
+	 * Sets the global flush policy used when installing bundles which don't specify their own
+	 * @param flushPolicy the flush policy (null to only flush at the end of each bundle)
+	 */
+	void setFlushPolicy(FlushPolicy flushPolicy);
+
 	/**
 	 * Installs a MDS package if it has not been installed yet or the installed version is out of date
 	 * @param filename the package filename
@@ -53,6 +87,14 @@ public interface MetadataDeployService {
 	 */
 	<T extends OpenmrsObject> T installObject(T incoming);
 
+	/**
+	 * Installs a collection of incoming objects. Existing objects are fetched for each class of object at once rather
+	 * than one at a time.
+	 * @param incoming the incoming objects
+	 * @return the installed objects (in the same order as the incoming objects)
+	 */
+	<T extends OpenmrsObject> List<T> installObjects(Collection<T> incoming);
+
 	/**
 	 * Installs all objects from the given source
 	 * @param source the object source
@@ -62,6 +104,17 @@ public interface MetadataDeployService {
 	 */
 	<T extends OpenmrsObject> List<T> installFromSource(ObjectSource<T> source) throws APIException;
 
+	/**
+	 * Installs all objects from the given source without keeping references to the installed objects, so that memory use
+	 * can be bounded by periodically clearing the session (see {@link FlushPolicy})
+	 * @param source the object source
+	 * @param callback the callback to notify as each object is installed (may be null)
+	 * @param <T> the object type
+	 * @return the counts of created, updated and unchanged objects
+	 * @throws APIException if an error occurs
+	 */
+	<T extends OpenmrsObject> InstallCounts installFromSource(ObjectSource<T> source, InstallCallback<? super T> callback) throws APIException;
+
 	/**
 	 * Uninstalls the given object
 	 * @param outgoing the outgoing object
@@ -77,6 +130,63 @@ public interface MetadataDeployService {
 	@Transactional(readOnly = true)
 	<T extends OpenmrsObject> T fetchObject(Class<T> clazz, String identifier);
 
+	/**
+	 * Fetches an existing object only if the metadata cache has its primary key and the object is already in the
+	 * current session or the second-level cache. This doesn't start a transaction or issue any SQL, so callers outside
+	 * of a transaction should try it before {@link #fetchObject(Class, String)}.
+	 * @param clazz the object's class
+	 * @param identifier the object's identifier
+	 * @return the object or null if it couldn't be fetched this way
+	 */
+	@Transactional(propagation = Propagation.SUPPORTS)
+	<T extends OpenmrsObject> T fetchCachedObject(Class<T> clazz, String identifier);
+
+	/**
+	 * Fetches an existing object by its primary key
+	 * @param clazz the object's class
+	 * @param id the object's primary key
+	 * @return the object or null
+	 */
+	@Transactional(readOnly = true)
+	<T extends OpenmrsObject> T fetchObjectById(Class<T> clazz, Integer id);
+
+	/**
+	 * Fetches the concept mapped to the given reference term, using the concept mapping index. Numeric concepts are
+	 * returned as ConceptNumeric.
+	 * @param source the source name or HL7 code
+	 * @param code the reference term code
+	 * @return the concept or null
+	 */
+	@Transactional(readOnly = true)
+	Concept fetchConceptByMapping(String source, String code);
+
+	/**
+	 * Fetches a page of property values of existing objects without loading the objects. Rows are ordered by primary
+	 * key, and each contains the primary key followed by the values of the given properties. To fetch the next page,
+	 * call again with the primary key of the last row.
+	 * @param clazz the object's class
+	 * @param properties the property paths
+	 * @param afterId only include objects with primary keys greater than this (null for the first page)
+	 * @param maxResults the maximum number of rows
+	 * @return the rows
+	 */
+	@Transactional(readOnly = true)
+	List<Object[]> fetchObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, Integer afterId, int maxResults);
+
+	/**
+	 * Fetches a page of property values of existing objects without loading the objects, ordered by the given property.
+	 * Objects where that property is null are excluded. Each row contains the primary key followed by the values of the
+	 * given properties. To fetch the next page, call again with the order property value of the last row.
+	 * @param clazz the object's class
+	 * @param properties the property paths
+	 * @param orderProperty the property path to order by
+	 * @param after only include objects whose order property value is greater than this (null for the first page)
+	 * @param maxResults the maximum number of rows
+	 * @return the rows
+	 */
+	@Transactional(readOnly = true)
+	List<Object[]> fetchObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, String orderProperty, Object after, int maxResults);
+
 	/**
 	 * Saves the given object
 	 * @param obj the object
@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.api.db;
+
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.metadatadeploy.bundle.InstalledBundle;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Data access object for the metadata deploy service
+ */
+public interface MetadataDeployDAO {
+
+	/**
+	 * Gets the ledger entry for the given bundle class
+	 * @param bundleClass the bundle class name
+	 * @return the ledger entry or null
+	 */
+	InstalledBundle getInstalledBundle(String bundleClass);
+
+	/**
+	 * Saves the given ledger entry
+	 * @param installed the ledger entry
+	 * @return the ledger entry
+	 */
+	InstalledBundle saveInstalledBundle(InstalledBundle installed);
+
+	/**
+	 * Gets all objects of the given class whose property value is one of the given values
+	 * @param clazz the object class
+	 * @param property the property name
+	 * @param values the property values
+	 * @return the objects
+	 */
+	<T extends OpenmrsObject> List<T> getObjectsByProperty(Class<T> clazz, String property, Collection<?> values);
+
+	/**
+	 * Gets an object by its primary key
+	 * @param clazz the object class
+	 * @param id the primary key
+	 * @return the object or null
+	 */
+	<T extends OpenmrsObject> T getObjectById(Class<T> clazz, Serializable id);
+
+	/**
+	 * Gets an object by its primary key, but only if it's already in the current session or in the second-level cache,
+	 * so that it can be returned without any SQL
+	 * @param clazz the object class
+	 * @param id the primary key
+	 * @return the object or null if it isn't cached
+	 */
+	<T extends OpenmrsObject> T getCachedObjectById(Class<T> clazz, Serializable id);
+
+	/**
+	 * Gets all concept mappings to reference terms in the given source, as rows of [source name, source HL7 code, term
+	 * code, concept id, concept datatype HL7 abbreviation, concept retired]
+	 * @param source the source name or HL7 code (case insensitive)
+	 * @return the mapping rows
+	 */
+	List<Object[]> getConceptMappings(String source);
+
+	/**
+	 * Gets all concept mappings of the given concepts, as rows of [source name, source HL7 code, term code, concept id,
+	 * concept datatype HL7 abbreviation, concept retired]
+	 * @param conceptIds the concept ids
+	 * @return the mapping rows
+	 */
+	List<Object[]> getConceptMappings(Collection<Integer> conceptIds);
+
+	/**
+	 * Gets the primary key of a persistent object, which for some classes isn't an integer
+	 * @param obj the object
+	 * @return the primary key or null if object isn't persistent
+	 */
+	Serializable getPrimaryKey(OpenmrsObject obj);
+
+	/**
+	 * Gets a page of property values of objects of the given class, without loading the objects themselves. Rows are
+	 * ordered by primary key, and each row contains the primary key followed by the values of the given properties.
+	 * @param clazz the object class
+	 * @param properties the property paths, e.g. "name" or "parentLocation.id"
+	 * @param afterId only include objects with primary keys greater than this (may be null)
+	 * @param maxResults the maximum number of rows
+	 * @return the rows
+	 */
+	List<Object[]> getObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, Integer afterId, int maxResults);
+
+	/**
+	 * Gets a page of property values of objects of the given class, without loading the objects themselves. Rows are
+	 * ordered by the given property, objects where that property is null are excluded, and each row contains the primary
+	 * key followed by the values of the given properties.
+	 * @param clazz the object class
+	 * @param properties the property paths
+	 * @param orderProperty the property path to order by
+	 * @param after only include objects whose order property value is greater than this (may be null)
+	 * @param maxResults the maximum number of rows
+	 * @return the rows
+	 */
+	List<Object[]> getObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, String orderProperty, Object after, int maxResults);
+
+	/**
+	 * Resolves a persistent object which may have been detached from the current session, e.g. by the session being
+	 * cleared. This doesn't query the database as a proxy is returned for detached objects.
+	 * @param obj the object
+	 * @return the object itself if it's attached, transient or not an entity, else the object from the current session
+	 */
+	<T> T resolve(T obj);
+
+	/**
+	 * Flushes the current session and then clears it, detaching all objects
+	 */
+	void flushAndClearSession();
+}
@@ -0,0 +1,270 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.api.db.hibernate;
+
+import org.hibernate.EntityMode;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
+import org.openmrs.module.metadatadeploy.bundle.InstalledBundle;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Hibernate implementation of the metadata deploy data access object
+ */
+public class HibernateMetadataDeployDAO implements MetadataDeployDAO {
+
+	/**
+	 * Maximum number of values in a single IN (...) clause, as some databases limit the number of parameters
+	 */
+	protected static final int MAX_IN_VALUES = 1000;
+
+	/**
+	 * Selects concept mappings as rows of [source name, source HL7 code, term code, concept id, datatype, retired]
+	 */
+	protected static final String CONCEPT_MAPPINGS_HQL = "select s.name, s.hl7Code, t.code, c.conceptId, d.hl7Abbreviation, c.retired"
+			+ " from ConceptMap m join m.conceptReferenceTerm t join t.conceptSource s join m.concept c join c.datatype d";
+
+	private SessionFactory sessionFactory;
+
+	/**
+	 * Sets the session factory
+	 * @param sessionFactory the session factory
+	 */
+	public void setSessionFactory(SessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getInstalledBundle(String)
+	 */
+	@Override
+	public InstalledBundle getInstalledBundle(String bundleClass) {
+		return (InstalledBundle) sessionFactory.getCurrentSession().createCriteria(InstalledBundle.class)
+				.add(Restrictions.eq("bundleClass", bundleClass))
+				.uniqueResult();
+	}
+
+	/**
+	 * @see MetadataDeployDAO#saveInstalledBundle(org.openmrs.module.metadatadeploy.bundle.InstalledBundle)
+	 */
+	@Override
+	public InstalledBundle saveInstalledBundle(InstalledBundle installed) {
+		sessionFactory.getCurrentSession().saveOrUpdate(installed);
+		return installed;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getObjectsByProperty(Class, String, java.util.Collection)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends OpenmrsObject> List<T> getObjectsByProperty(Class<T> clazz, String property, Collection<?> values) {
+		List<T> results = new ArrayList<T>();
+		List<Object> all = new ArrayList<Object>(values);
+
+		for (int from = 0; from < all.size(); from += MAX_IN_VALUES) {
+			List<Object> chunk = all.subList(from, Math.min(from + MAX_IN_VALUES, all.size()));
+
+			results.addAll(sessionFactory.getCurrentSession().createCriteria(clazz)
+					.add(Restrictions.in(property, chunk))
+					.list());
+		}
+
+		return results;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getObjectById(Class, java.io.Serializable)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends OpenmrsObject> T getObjectById(Class<T> clazz, Serializable id) {
+		return (T) sessionFactory.getCurrentSession().get(clazz, id);
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getCachedObjectById(Class, java.io.Serializable)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T extends OpenmrsObject> T getCachedObjectById(Class<T> clazz, Serializable id) {
+		ClassMetadata metadata = sessionFactory.getClassMetadata(clazz);
+		if (metadata == null) {
+			return null;
+		}
+
+		Session session = sessionFactory.getCurrentSession();
+		EntityPersister persister = ((SessionFactoryImplementor) sessionFactory).getEntityPersister(metadata.getEntityName());
+
+		Object loaded = ((SessionImplementor) session).getPersistenceContext().getEntity(new EntityKey(id, persister, EntityMode.POJO));
+		if (loaded != null) {
+			return clazz.isInstance(loaded) ? (T) loaded : null;
+		}
+
+		// A load of an entity in the second-level cache is answered from that cache
+		if (sessionFactory.getCache().containsEntity(clazz, id)) {
+			return (T) session.get(clazz, id);
+		}
+
+		return null;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getConceptMappings(String)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getConceptMappings(String source) {
+		String normalized = source.trim().toUpperCase();
+
+		return sessionFactory.getCurrentSession().createQuery(CONCEPT_MAPPINGS_HQL
+				+ " where upper(s.name) = :source or upper(s.hl7Code) = :source")
+				.setParameter("source", normalized)
+				.list();
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getConceptMappings(java.util.Collection)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getConceptMappings(Collection<Integer> conceptIds) {
+		List<Object[]> results = new ArrayList<Object[]>();
+		List<Integer> all = new ArrayList<Integer>(conceptIds);
+
+		for (int from = 0; from < all.size(); from += MAX_IN_VALUES) {
+			List<Integer> chunk = all.subList(from, Math.min(from + MAX_IN_VALUES, all.size()));
+
+			results.addAll(sessionFactory.getCurrentSession().createQuery(CONCEPT_MAPPINGS_HQL
+					+ " where c.conceptId in (:conceptIds)")
+					.setParameterList("conceptIds", chunk)
+					.list());
+		}
+
+		return results;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getPrimaryKey(org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public Serializable getPrimaryKey(OpenmrsObject obj) {
+		if (obj instanceof HibernateProxy) {
+			return ((HibernateProxy) obj).getHibernateLazyInitializer().getIdentifier();
+		}
+
+		ClassMetadata metadata = sessionFactory.getClassMetadata(obj.getClass());
+		return metadata != null ? metadata.getIdentifier(obj, EntityMode.POJO) : null;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getObjectProperties(Class, String[], Integer, int)
+	 */
+	@Override
+	public List<Object[]> getObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, Integer afterId, int maxResults) {
+		return getObjectProperties(clazz, properties, "id", afterId, maxResults);
+	}
+
+	/**
+	 * @see MetadataDeployDAO#getObjectProperties(Class, String[], String, Object, int)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, String orderProperty, Object after, int maxResults) {
+		StringBuilder hql = new StringBuilder("select o.id");
+		for (String property : properties) {
+			hql.append(", o.").append(property);
+		}
+		hql.append(" from ").append(clazz.getName()).append(" o");
+		hql.append(" where o.").append(orderProperty).append(" is not null");
+		if (after != null) {
+			hql.append(" and o.").append(orderProperty).append(" > :after");
+		}
+		hql.append(" order by o.").append(orderProperty);
+
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString());
+		if (after != null) {
+			query.setParameter("after", after);
+		}
+		if (maxResults > 0) {
+			query.setMaxResults(maxResults);
+		}
+
+		if (properties.length > 0) {
+			return query.list();
+		}
+
+		// Query only selects the primary key so results aren't arrays
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (Object id : query.list()) {
+			rows.add(new Object[] { id });
+		}
+		return rows;
+	}
+
+	/**
+	 * @see MetadataDeployDAO#resolve(Object)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T resolve(T obj) {
+		Session session = sessionFactory.getCurrentSession();
+
+		if (obj instanceof HibernateProxy) {
+			LazyInitializer initializer = ((HibernateProxy) obj).getHibernateLazyInitializer();
+			if (initializer.getSession() == session) {
+				return obj;
+			}
+			return (T) session.load(initializer.getEntityName(), initializer.getIdentifier());
+		}
+
+		ClassMetadata metadata = sessionFactory.getClassMetadata(obj.getClass());
+		if (metadata == null || session.contains(obj)) {
+			return obj;
+		}
+
+		Serializable id = metadata.getIdentifier(obj, EntityMode.POJO);
+		if (id == null) {
+			return obj;
+		}
+
+		return (T) session.load(metadata.getEntityName(), id);
+	}
+
+	/**
+	 * @see MetadataDeployDAO#flushAndClearSession()
+	 */
+	@Override
+	public void flushAndClearSession() {
+		Session session = sessionFactory.getCurrentSession();
+		session.flush();
+		session.clear();
+	}
+}
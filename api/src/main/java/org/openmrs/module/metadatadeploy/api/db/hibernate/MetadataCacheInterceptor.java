@@ -0,0 +1,271 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api.db.hibernate;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Concept;
+import org.openmrs.ConceptMap;
+import org.openmrs.ConceptReferenceTerm;
+import org.openmrs.ConceptSource;
+import org.openmrs.module.metadatadeploy.api.ConceptMappingIndex;
+import org.openmrs.module.metadatadeploy.api.MetadataCache;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hibernate interceptor which evicts entries from the metadata cache when the objects they refer to are updated or
+ * deleted by any session, e.g. through core services or the admin UI, and evicts missing entries when objects of that
+ * class are created or updated. Changes are only recorded for entity classes which the cache actually holds entries
+ * for, and are applied once the transaction has committed.
+ *
+ * Missing entries are also evicted as soon as the object is flushed, so that lookups later in the same transaction can
+ * find it. They are evicted again on commit, as other transactions may have recorded the object as missing before it
+ * was visible to them.
+ *
+ * Changes to concepts and their mappings are also passed on to the concept mapping index. These are recorded whether or
+ * not the index has been loaded yet, as it may be loaded by another transaction before this one commits, and that
+ * load can't see this transaction's changes. The index is also told which threads have uncommitted concept changes,
+ * so that it isn't loaded from or used by their transactions.
+ */
+public class MetadataCacheInterceptor extends EmptyInterceptor {
+
+	private static final long serialVersionUID = 1L;
+
+	private MetadataCache cache;
+
+	private ConceptMappingIndex conceptIndex;
+
+	private final ThreadLocal<Pending> pending = new ThreadLocal<Pending>();
+
+	/**
+	 * Sets the cache to evict entries from
+	 * @param cache the cache
+	 */
+	public void setCache(MetadataCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the concept mapping index to notify of concept changes
+	 * @param conceptIndex the concept mapping index
+	 */
+	public void setConceptIndex(ConceptMappingIndex conceptIndex) {
+		this.conceptIndex = conceptIndex;
+	}
+
+	/**
+	 * @see EmptyInterceptor#onSave(Object, java.io.Serializable, Object[], String[], org.hibernate.type.Type[])
+	 */
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		evictMissing(entity);
+		recordChange(entity, null);
+		return false;
+	}
+
+	/**
+	 * @see EmptyInterceptor#onFlushDirty(Object, java.io.Serializable, Object[], Object[], String[], org.hibernate.type.Type[])
+	 */
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
+		evictMissing(entity);
+		recordChange(entity, id);
+		return false;
+	}
+
+	/**
+	 * @see EmptyInterceptor#onDelete(Object, java.io.Serializable, Object[], String[], org.hibernate.type.Type[])
+	 */
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		recordChange(entity, id);
+	}
+
+	/**
+	 * @see EmptyInterceptor#afterTransactionCompletion(org.hibernate.Transaction)
+	 */
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		transactionCompleted(tx.wasCommitted());
+	}
+
+	/**
+	 * Evicts the missing entries for the class of an entity which is being created or updated, e.g. so that an object
+	 * created in the current transaction isn't still reported as missing by it
+	 * @param entity the entity
+	 */
+	protected void evictMissing(Object entity) {
+		if (cache != null && cache.covers(entity.getClass())) {
+			cache.evictMissing(entity.getClass());
+		}
+	}
+
+	/**
+	 * Records a change to an entity if the cache might hold an entry for it
+	 * @param entity the entity
+	 * @param id the entity primary key, or null if the entity is being created
+	 */
+	protected void recordChange(Object entity, Serializable id) {
+		if (cache != null && cache.covers(entity.getClass())) {
+			getPending().changes.add(new Change(entity.getClass(), id));
+		}
+
+		if (conceptIndex != null) {
+			recordConceptChange(entity);
+		}
+	}
+
+	/**
+	 * Records a change which might affect the concept mapping index
+	 * @param entity the entity
+	 */
+	protected void recordConceptChange(Object entity) {
+		Integer conceptId;
+		if (entity instanceof Concept) {
+			// A new concept can't have been indexed, and its mappings are recorded when saved
+			conceptId = ((Concept) entity).getConceptId();
+			if (conceptId == null) {
+				return;
+			}
+		}
+		else if (entity instanceof ConceptMap) {
+			Concept concept = ((ConceptMap) entity).getConcept();
+			conceptId = concept != null ? concept.getConceptId() : null;
+		}
+		else if (entity instanceof ConceptReferenceTerm || entity instanceof ConceptSource) {
+			conceptId = null;
+		}
+		else {
+			return;
+		}
+
+		conceptIndex.recordUncommittedChange();
+
+		Pending current = getPending();
+		if (conceptId != null) {
+			current.concepts.add(conceptId);
+		}
+		else {
+			// Can't tell which concepts are affected
+			current.allConcepts = true;
+		}
+	}
+
+	/**
+	 * Gets the changes recorded by this thread, creating them if necessary
+	 * @return the changes
+	 */
+	protected Pending getPending() {
+		Pending current = pending.get();
+		if (current == null) {
+			current = new Pending();
+			pending.set(current);
+		}
+		return current;
+	}
+
+	/**
+	 * Evicts the entries for all changes recorded by this thread if the transaction was committed, and forgets them
+	 * @param committed whether the transaction was committed
+	 */
+	protected void transactionCompleted(boolean committed) {
+		Pending current = pending.get();
+		if (current == null) {
+			return;
+		}
+
+		pending.remove();
+
+		if (conceptIndex != null) {
+			conceptIndex.transactionCompleted();
+		}
+
+		if (committed) {
+			if (current.allConcepts) {
+				conceptIndex.clear();
+			}
+			else if (!current.concepts.isEmpty()) {
+				conceptIndex.markStale(current.concepts);
+			}
+
+			for (Change change : current.changes) {
+				if (change.id != null) {
+					cache.evictPrimaryKey(change.entityClass, change.id);
+				}
+				cache.evictMissing(change.entityClass);
+			}
+		}
+	}
+
+	/**
+	 * Changes recorded during a transaction
+	 */
+	protected static class Pending {
+
+		private final Set<Change> changes = new HashSet<Change>();
+
+		private final Set<Integer> concepts = new HashSet<Integer>();
+
+		private boolean allConcepts;
+	}
+
+	/**
+	 * A change to an entity, or the creation of an entity of a class if there is no primary key
+	 */
+	protected static class Change {
+
+		private final Class<?> entityClass;
+
+		private final Serializable id;
+
+		/**
+		 * Creates a new change
+		 * @param entityClass the entity class
+		 * @param id the entity primary key, or null for a creation
+		 */
+		public Change(Class<?> entityClass, Serializable id) {
+			this.entityClass = entityClass;
+			this.id = id;
+		}
+
+		/**
+		 * @see Object#equals(Object)
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Change)) {
+				return false;
+			}
+			Change change = (Change) o;
+			return entityClass.equals(change.entityClass) && (id != null ? id.equals(change.id) : change.id == null);
+		}
+
+		/**
+		 * @see Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			return 31 * entityClass.hashCode() + (id != null ? id.hashCode() : 0);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.metadatadeploy.api.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the primary keys of existing objects of one class by their alternate key. Primary keys are stored rather
+ * than objects so that the index survives the session being cleared. An index is shared by all bundles installed
+ * together, which may be on different threads, so it's thread safe.
+ */
+public class AlternateKeyIndex {
+
+	private final boolean caseSensitive;
+
+	private final Map<List<Object>, Serializable> primaryKeys = new HashMap<List<Object>, Serializable>();
+
+	/**
+	 * Creates an empty index
+	 * @param caseSensitive whether string values are matched case sensitively
+	 */
+	public AlternateKeyIndex(boolean caseSensitive) {
+		this.caseSensitive = caseSensitive;
+	}
+
+	/**
+	 * Adds rows of primary keys followed by alternate key values. Where several objects have the same alternate key,
+	 * the first is indexed.
+	 * @param rows the rows
+	 */
+	public synchronized void addRows(List<Object[]> rows) {
+		for (Object[] row : rows) {
+			Object[] values = new Object[row.length - 1];
+			System.arraycopy(row, 1, values, 0, values.length);
+
+			List<Object> key = toKey(values);
+			if (key != null && !primaryKeys.containsKey(key)) {
+				primaryKeys.put(key, (Serializable) row[0]);
+			}
+		}
+	}
+
+	/**
+	 * Gets the primary key of the object with the given alternate key values
+	 * @param values the alternate key values
+	 * @return the primary key or null
+	 */
+	public synchronized Serializable get(Object[] values) {
+		List<Object> key = toKey(values);
+		return key != null ? primaryKeys.get(key) : null;
+	}
+
+	/**
+	 * Indexes the primary key of an object
+	 * @param values the alternate key values
+	 * @param primaryKey the primary key
+	 */
+	public synchronized void put(Object[] values, Serializable primaryKey) {
+		List<Object> key = toKey(values);
+		if (key != null) {
+			primaryKeys.put(key, primaryKey);
+		}
+	}
+
+	/**
+	 * Removes the given primary key if it's indexed under the given alternate key values
+	 * @param values the alternate key values
+	 * @param primaryKey the primary key
+	 */
+	public synchronized void remove(Object[] values, Serializable primaryKey) {
+		List<Object> key = toKey(values);
+		if (key != null && primaryKey.equals(primaryKeys.get(key))) {
+			primaryKeys.remove(key);
+		}
+	}
+
+	/**
+	 * Gets the number of indexed objects
+	 * @return the number of objects
+	 */
+	public synchronized int size() {
+		return primaryKeys.size();
+	}
+
+	/**
+	 * Checks whether two sets of alternate key values make the same key in this index
+	 * @param values1 the first values
+	 * @param values2 the second values
+	 * @return true if both are non-null keys which match
+	 */
+	public boolean sameKey(Object[] values1, Object[] values2) {
+		List<Object> key1 = toKey(values1);
+		return key1 != null && key1.equals(toKey(values2));
+	}
+
+	/**
+	 * Converts alternate key values to a map key, with strings upper cased if they're matched case insensitively
+	 * @param values the alternate key values
+	 * @return the map key or null if any value is null
+	 */
+	protected List<Object> toKey(Object[] values) {
+		List<Object> key = new ArrayList<Object>(values.length);
+		for (Object value : values) {
+			if (value == null) {
+				return null;
+			}
+			key.add(!caseSensitive && value instanceof String ? ((String) value).toUpperCase() : value);
+		}
+		return key;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.api.impl;
+
+import org.openmrs.api.APIException;
+import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
+import org.openmrs.module.metadatadeploy.bundle.Requires;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dependency graph of a collection of metadata bundles, built from their {@link Requires} annotations. The graph is
+ * validated on construction so that missing requirements and cycles are detected before anything is installed.
+ */
+public class BundleGraph {
+
+	private Map<MetadataBundle, List<MetadataBundle>> requirements = new LinkedHashMap<MetadataBundle, List<MetadataBundle>>();
+
+	private Map<MetadataBundle, List<MetadataBundle>> dependents = new HashMap<MetadataBundle, List<MetadataBundle>>();
+
+	private List<MetadataBundle> ordered = new ArrayList<MetadataBundle>();
+
+	/**
+	 * Builds the graph of the given bundles
+	 * @param bundles the bundles
+	 * @throws APIException if a required bundle is missing or if the requirements contain a cycle
+	 */
+	public BundleGraph(Collection<MetadataBundle> bundles) throws APIException {
+		// Organize into map by class
+		Map<Class<? extends MetadataBundle>, MetadataBundle> all = new HashMap<Class<? extends MetadataBundle>, MetadataBundle>();
+		for (MetadataBundle bundle : bundles) {
+			all.put(bundle.getClass(), bundle);
+		}
+
+		for (MetadataBundle bundle : bundles) {
+			dependents.put(bundle, new ArrayList<MetadataBundle>());
+		}
+
+		for (MetadataBundle bundle : bundles) {
+			if (requirements.containsKey(bundle)) {
+				continue;
+			}
+
+			List<MetadataBundle> required = new ArrayList<MetadataBundle>();
+
+			Requires requires = bundle.getClass().getAnnotation(Requires.class);
+			if (requires != null) {
+				for (Class<? extends MetadataBundle> requiredClass : requires.value()) {
+					MetadataBundle requiredBundle = all.get(requiredClass);
+
+					if (requiredBundle == null) {
+						throw new APIException("Can't find required bundle class " + requiredClass + " for " + bundle.getClass());
+					}
+
+					required.add(requiredBundle);
+					dependents.get(requiredBundle).add(bundle);
+				}
+			}
+
+			requirements.put(bundle, required);
+		}
+
+		// Sort so that every bundle comes after its requirements
+		Map<MetadataBundle, Boolean> visited = new HashMap<MetadataBundle, Boolean>();
+		for (MetadataBundle bundle : requirements.keySet()) {
+			visit(bundle, visited, new ArrayList<MetadataBundle>());
+		}
+	}
+
+	/**
+	 * Visits a bundle in depth-first order, adding it to the ordered list after its requirements
+	 * @param bundle the bundle
+	 * @param visited the map of visited bundles to whether their visit is complete
+	 * @param path the current path of bundles being visited
+	 * @throws APIException if a cycle is found
+	 */
+	protected void visit(MetadataBundle bundle, Map<MetadataBundle, Boolean> visited, List<MetadataBundle> path) throws APIException {
+		Boolean complete = visited.get(bundle);
+
+		if (Boolean.TRUE.equals(complete)) {
+			return;
+		}
+		else if (Boolean.FALSE.equals(complete)) {
+			List<MetadataBundle> cycle = path.subList(path.indexOf(bundle), path.size());
+
+			StringBuilder description = new StringBuilder();
+			for (MetadataBundle inCycle : cycle) {
+				description.append(inCycle.getClass().getSimpleName()).append(" -> ");
+			}
+			description.append(bundle.getClass().getSimpleName());
+
+			throw new APIException("Bundle requirements contain a cycle: " + description);
+		}
+
+		visited.put(bundle, false);
+		path.add(bundle);
+
+		for (MetadataBundle required : requirements.get(bundle)) {
+			visit(required, visited, path);
+		}
+
+		path.remove(path.size() - 1);
+		visited.put(bundle, true);
+
+		ordered.add(bundle);
+	}
+
+	/**
+	 * Gets all bundles, ordered so that each bundle comes after the bundles it requires
+	 * @return the ordered bundles
+	 */
+	public List<MetadataBundle> getBundles() {
+		return Collections.unmodifiableList(ordered);
+	}
+
+	/**
+	 * Gets the bundles directly required by the given bundle
+	 * @param bundle the bundle
+	 * @return the required bundles
+	 */
+	public List<MetadataBundle> getRequirements(MetadataBundle bundle) {
+		return Collections.unmodifiableList(requirements.get(bundle));
+	}
+
+	/**
+	 * Gets the bundles which directly require the given bundle
+	 * @param bundle the bundle
+	 * @return the dependent bundles
+	 */
+	public List<MetadataBundle> getDependents(MetadataBundle bundle) {
+		return Collections.unmodifiableList(dependents.get(bundle));
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api.impl;
+
+import org.openmrs.module.metadatadeploy.api.FlushPolicy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Tracks the state of the bundle installation running on the current thread
+ */
+public class InstallContext {
+
+	private static final ThreadLocal<InstallContext> current = new ThreadLocal<InstallContext>();
+
+	private final InstallContext previous;
+
+	private final FlushPolicy flushPolicy;
+
+	private long installedCount = 0;
+
+	private boolean cleared = false;
+
+	private final ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes;
+
+	/**
+	 * Creates a new context
+	 * @param previous the context which was previously current
+	 * @param flushPolicy the flush policy
+	 * @param alternateKeyIndexes the alternate key indexes shared by all bundles being installed together
+	 */
+	protected InstallContext(InstallContext previous, FlushPolicy flushPolicy, ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes) {
+		this.previous = previous;
+		this.flushPolicy = flushPolicy;
+		this.alternateKeyIndexes = alternateKeyIndexes;
+	}
+
+	/**
+	 * Begins a new context on the current thread, which shares the alternate key indexes of the previous context if
+	 * there is one
+	 * @param flushPolicy the flush policy
+	 * @return the context
+	 */
+	public static InstallContext begin(FlushPolicy flushPolicy) {
+		InstallContext previous = current.get();
+		return begin(flushPolicy, previous != null ? previous.alternateKeyIndexes : createAlternateKeyIndexes());
+	}
+
+	/**
+	 * Begins a new context on the current thread
+	 * @param flushPolicy the flush policy
+	 * @param alternateKeyIndexes the alternate key indexes shared by all bundles being installed together
+	 * @return the context
+	 */
+	public static InstallContext begin(FlushPolicy flushPolicy, ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes) {
+		InstallContext context = new InstallContext(current.get(), flushPolicy, alternateKeyIndexes);
+		current.set(context);
+		return context;
+	}
+
+	/**
+	 * Creates an empty map of alternate key indexes to be shared by bundles which are installed together, so that each
+	 * index is only built once per installation rather than once per bundle
+	 * @return the map
+	 */
+	public static ConcurrentMap<Class<?>, AlternateKeyIndex> createAlternateKeyIndexes() {
+		return new ConcurrentHashMap<Class<?>, AlternateKeyIndex>();
+	}
+
+	/**
+	 * Gets the context of the current thread
+	 * @return the context or null if no bundle is being installed
+	 */
+	public static InstallContext current() {
+		return current.get();
+	}
+
+	/**
+	 * Ends the current context, restoring whichever context was previously current
+	 */
+	public static void end() {
+		InstallContext context = current.get();
+		if (context != null && context.previous != null) {
+			current.set(context.previous);
+		}
+		else {
+			current.remove();
+		}
+	}
+
+	/**
+	 * Gets the flush policy
+	 * @return the flush policy
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * Records that objects have been installed
+	 * @param count the number of objects
+	 * @return true if the session should now be flushed according to the flush policy
+	 */
+	public boolean objectsInstalled(int count) {
+		int interval = flushPolicy.getInterval();
+		long before = installedCount;
+		installedCount += count;
+
+		return interval > 0 && (installedCount / interval) > (before / interval);
+	}
+
+	/**
+	 * Gets the number of objects installed so far
+	 * @return the number of objects
+	 */
+	public long getInstalledCount() {
+		return installedCount;
+	}
+
+	/**
+	 * Gets whether the session has been cleared during this installation, in which case objects loaded earlier will
+	 * have been detached
+	 * @return true if the session has been cleared
+	 */
+	public boolean isCleared() {
+		return cleared;
+	}
+
+	/**
+	 * Sets whether the session has been cleared during this installation
+	 * @param cleared true if the session has been cleared
+	 */
+	public void setCleared(boolean cleared) {
+		this.cleared = cleared;
+	}
+
+	/**
+	 * Gets the alternate key index for the given class
+	 * @param clazz the object class
+	 * @return the index or null if it hasn't been built during this installation
+	 */
+	public AlternateKeyIndex getAlternateKeyIndex(Class<?> clazz) {
+		return alternateKeyIndexes.get(clazz);
+	}
+
+	/**
+	 * Adds the alternate key index for the given class, unless another thread has already added one
+	 * @param clazz the object class
+	 * @param index the index
+	 * @return the index which is now held for the class
+	 */
+	public AlternateKeyIndex addAlternateKeyIndex(Class<?> clazz, AlternateKeyIndex index) {
+		AlternateKeyIndex existing = alternateKeyIndexes.putIfAbsent(clazz, index);
+		return existing != null ? existing : index;
+	}
+}
@@ -16,14 +16,32 @@ package org.openmrs.module.metadatadeploy.api.impl;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.proxy.HibernateProxy;
+import org.openmrs.Concept;
+import org.openmrs.ConceptNumeric;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
+import org.openmrs.module.metadatadeploy.CopyPlan;
+import org.openmrs.module.metadatadeploy.MetadataDeployConstants;
+import org.openmrs.module.metadatadeploy.ObjectUtils;
+import org.openmrs.module.metadatadeploy.api.ConceptMappingIndex;
+import org.openmrs.module.metadatadeploy.api.FlushPolicy;
+import org.openmrs.module.metadatadeploy.api.InstallCallback;
+import org.openmrs.module.metadatadeploy.api.InstallCounts;
+import org.openmrs.module.metadatadeploy.api.InstallOutcome;
+import org.openmrs.module.metadatadeploy.api.MetadataCache;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
+import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
+import org.openmrs.module.metadatadeploy.bundle.InstalledBundle;
 import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
-import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.openmrs.module.metadatadeploy.bundle.Version;
+import org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.ComparingObjectDeployHandler;
 import org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler;
 import org.openmrs.module.metadatadeploy.source.ObjectSource;
 import org.openmrs.module.metadatasharing.ImportConfig;
@@ -32,15 +50,31 @@ import org.openmrs.module.metadatasharing.ImportedPackage;
 import org.openmrs.module.metadatasharing.MetadataSharing;
 import org.openmrs.module.metadatasharing.api.MetadataSharingService;
 import org.openmrs.module.metadatasharing.wrapper.PackageImporter;
+import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -51,8 +85,79 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 
 	protected static final Log log = LogFactory.getLog(MetadataDeployServiceImpl.class);
 
+	/**
+	 * Number of rows loaded by each query when building an alternate key index
+	 */
+	public static final int ALTERNATE_KEY_PAGE_SIZE = 1000;
+
+	private MetadataDeployDAO dao;
+
+	private PlatformTransactionManager transactionManager;
+
 	private Map<Class<? extends OpenmrsObject>, ObjectDeployHandler> handlers;
 
+	private FlushPolicy flushPolicy = FlushPolicy.END_OF_BUNDLE;
+
+	private MetadataCache cache = new MetadataCache();
+
+	private ConceptMappingIndex conceptIndex;
+
+	/**
+	 * Sets the data access object
+	 * @param dao the data access object
+	 */
+	public void setDao(MetadataDeployDAO dao) {
+		this.dao = dao;
+	}
+
+	/**
+	 * Sets the transaction manager used to run parallel installs
+	 * @param transactionManager the transaction manager
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	/**
+	 * Sets the cache of metadata fetched by identifier
+	 * @param cache the cache
+	 */
+	public void setCache(MetadataCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets the index of concept mappings
+	 * @param conceptIndex the index
+	 */
+	public void setConceptIndex(ConceptMappingIndex conceptIndex) {
+		this.conceptIndex = conceptIndex;
+	}
+
+	/**
+	 * @see MetadataDeployService#getCache()
+	 */
+	@Override
+	public MetadataCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * @see MetadataDeployService#getFlushPolicy()
+	 */
+	@Override
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * @see MetadataDeployService#setFlushPolicy(org.openmrs.module.metadatadeploy.api.FlushPolicy)
+	 */
+	@Override
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy != null ? flushPolicy : FlushPolicy.END_OF_BUNDLE;
+	}
+
 	/**
 	 * Sets the object handlers, reorganising them into a map
 	 * @param handlers the handler components
@@ -81,54 +186,363 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	 */
 	@Override
 	public void installBundles(Collection<MetadataBundle> bundles) throws APIException {
-		// Organize into map by class
-		Map<Class<? extends MetadataBundle>, MetadataBundle> all = new HashMap<Class<? extends MetadataBundle>, MetadataBundle>();
-		for (MetadataBundle bundle : bundles) {
-			all.put(bundle.getClass(), bundle);
-		}
+		BundleGraph graph = new BundleGraph(bundles);
+		boolean forceReinstall = isForceBundleReinstall();
+		ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes = InstallContext.createAlternateKeyIndexes();
 
-		// Begin recursive processing
+		// Install in dependency order, re-installing any bundle whose requirements were re-installed
 		Set<MetadataBundle> installed = new HashSet<MetadataBundle>();
-		for (MetadataBundle bundle : bundles) {
-			installBundle(bundle, all, installed);
+		for (MetadataBundle bundle : graph.getBundles()) {
+			boolean requirementInstalled = !Collections.disjoint(graph.getRequirements(bundle), installed);
+
+			if (installBundle(bundle, forceReinstall || requirementInstalled, alternateKeyIndexes)) {
+				installed.add(bundle);
+			}
 		}
 	}
 
 	/**
-	 * Installs a metadata bundle by recursively installing it's required bundles
-	 * @param bundle the bundle
-	 * @param all the map of all bundles and their ids
-	 * @param installed the set of previously installed bundles
+	 * @see MetadataDeployService#installBundles(java.util.Collection, int)
 	 */
-	protected void installBundle(MetadataBundle bundle, Map<Class<? extends MetadataBundle>, MetadataBundle> all, Set<MetadataBundle> installed) throws APIException {
-		// Return immediately if bundle has already been installed
-		if (installed.contains(bundle)) {
-			return;
-		}
+	@Override
+	public void installBundles(Collection<MetadataBundle> bundles, int threads) throws APIException {
+		BundleGraph graph = new BundleGraph(bundles);
+
+		new ParallelBundleInstaller(this, transactionManager, threads).install(graph, isForceBundleReinstall());
+	}
 
+	/**
+	 * Installs a single metadata bundle. Its required bundles must have already been installed. A versioned bundle is
+	 * skipped if its ledger entry is up to date. Unversioned bundles are always installed, so they aren't fingerprinted
+	 * or recorded in the ledger.
+	 * @param bundle the bundle
+	 * @param forceReinstall whether to install the bundle regardless of the ledger
+	 * @param alternateKeyIndexes the alternate key indexes shared by all bundles being installed together
+	 * @return true if the bundle was installed, false if it was skipped
+	 * @throws APIException if the bundle fails to install
+	 */
+	protected boolean installBundle(MetadataBundle bundle, boolean forceReinstall, ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes) throws APIException {
+		InstallContext.begin(getFlushPolicy(bundle), alternateKeyIndexes);
 		try {
-			// Install required bundles first
-			Requires requires = bundle.getClass().getAnnotation(Requires.class);
-			if (requires != null) {
-				for (Class<? extends MetadataBundle> requiredClass : requires.value()) {
-					MetadataBundle required = all.get(requiredClass);
-
-					if (required == null) {
-						throw new RuntimeException("Can't find required bundle class " + requiredClass + " for " + bundle.getClass());
-					}
+			boolean versioned = bundle.getClass().isAnnotationPresent(Version.class);
+			String fingerprint = null;
+			InstalledBundle ledgerEntry = null;
 
-					installBundle(required, all, installed);
+			if (versioned) {
+				fingerprint = getBundleFingerprint(bundle);
+				ledgerEntry = dao.getInstalledBundle(bundle.getClass().getName());
+
+				if (!forceReinstall && isBundleUpToDate(bundle, ledgerEntry, fingerprint)) {
+					log.info("Skipping bundle " + bundle.getClass().getSimpleName() + " which is already installed");
+					return false;
 				}
 			}
 
 			bundle.install();
-			installed.add(bundle);
+
+			if (versioned) {
+				updateLedger(bundle, ledgerEntry, fingerprint);
+			}
 
 			Context.flushSession();
+			return true;
 		}
 		catch (Exception ex) {
 			throw new APIException("Unable to install bundle " + bundle.getClass().getSimpleName(), ex);
 		}
+		finally {
+			InstallContext.end();
+		}
+	}
+
+	/**
+	 * Gets the flush policy for the given bundle, which is the bundle's own policy if it has one, else the global policy
+	 * @param bundle the bundle
+	 * @return the flush policy
+	 */
+	protected FlushPolicy getFlushPolicy(MetadataBundle bundle) {
+		if (bundle instanceof AbstractMetadataBundle) {
+			FlushPolicy bundlePolicy = ((AbstractMetadataBundle) bundle).getFlushPolicy();
+			if (bundlePolicy != null) {
+				return bundlePolicy;
+			}
+		}
+		return flushPolicy;
+	}
+
+	/**
+	 * Records that objects have been installed, flushing and clearing the session if that's required by the flush
+	 * policy of the bundle being installed
+	 * @param count the number of objects
+	 */
+	protected void objectsInstalled(int count) {
+		InstallContext context = InstallContext.current();
+
+		if (context != null && context.objectsInstalled(count)) {
+			if (context.getFlushPolicy().isClear()) {
+				dao.flushAndClearSession();
+				context.setCleared(true);
+			}
+			else {
+				Context.flushSession();
+			}
+		}
+	}
+
+	/**
+	 * Prepares an incoming object for installation. If the session has been cleared during the current bundle
+	 * installation, then any references to objects which were detached are replaced by references to the same objects in
+	 * the current session.
+	 * @param incoming the incoming object
+	 */
+	protected void prepareIncoming(OpenmrsObject incoming) {
+		InstallContext context = InstallContext.current();
+
+		if (context != null && context.isCleared()) {
+			resolveReferences(incoming, new IdentityHashMap<Object, Object>());
+		}
+	}
+
+	/**
+	 * Resolves references held by the given object. Transient objects which are referenced, such as new attributes,
+	 * also have their references resolved.
+	 * @param obj the object
+	 * @param visited the objects which have already been visited
+	 */
+	@SuppressWarnings("unchecked")
+	protected void resolveReferences(Object obj, Map<Object, Object> visited) {
+		if (visited.put(obj, obj) != null) {
+			return;
+		}
+
+		CopyPlan plan = CopyPlan.forClass(obj.getClass(), null);
+
+		for (int f = 0; f < plan.size(); ++f) {
+			Object value = plan.read(f, obj);
+
+			if (value instanceof OpenmrsObject) {
+				Object resolved = resolveReference(value, visited);
+				if (resolved != value) {
+					plan.write(f, obj, resolved);
+				}
+			}
+			else if (value instanceof List) {
+				List<Object> items = (List<Object>) value;
+				for (int i = 0; i < items.size(); ++i) {
+					Object item = items.get(i);
+					Object resolved = item instanceof OpenmrsObject ? resolveReference(item, visited) : item;
+					if (resolved != item) {
+						items.set(i, resolved);
+					}
+				}
+			}
+			else if (value instanceof Collection) {
+				Collection<Object> items = (Collection<Object>) value;
+				List<Object> replaced = new ArrayList<Object>();
+				List<Object> replacements = new ArrayList<Object>();
+
+				for (Object item : items) {
+					Object resolved = item instanceof OpenmrsObject ? resolveReference(item, visited) : item;
+					if (resolved != item) {
+						replaced.add(item);
+						replacements.add(resolved);
+					}
+				}
+
+				if (!replaced.isEmpty()) {
+					items.removeAll(replaced);
+					items.addAll(replacements);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resolves a single reference
+	 * @param value the referenced object
+	 * @param visited the objects which have already been visited
+	 * @return the resolved object
+	 */
+	protected Object resolveReference(Object value, Map<Object, Object> visited) {
+		Object resolved = dao.resolve(value);
+
+		// A transient object like a new attribute may itself hold references to detached objects
+		OpenmrsObject obj = (OpenmrsObject) value;
+		if (resolved == value && !(value instanceof HibernateProxy) && ObjectUtils.usesId(obj) && obj.getId() == null) {
+			resolveReferences(value, visited);
+		}
+		return resolved;
+	}
+
+	/**
+	 * Checks whether a bundle's ledger entry matches its current version and fingerprint. Bundles which don't declare a
+	 * version are never considered up to date.
+	 * @param bundle the bundle
+	 * @param ledgerEntry the ledger entry (may be null)
+	 * @param fingerprint the current fingerprint
+	 * @return true if bundle is up to date
+	 */
+	protected boolean isBundleUpToDate(MetadataBundle bundle, InstalledBundle ledgerEntry, String fingerprint) {
+		Version version = bundle.getClass().getAnnotation(Version.class);
+
+		return version != null
+				&& ledgerEntry != null
+				&& OpenmrsUtil.nullSafeEquals(ledgerEntry.getVersion(), version.value())
+				&& fingerprint.equals(ledgerEntry.getFingerprint());
+	}
+
+	/**
+	 * Records the installation of the given versioned bundle in the ledger
+	 * @param bundle the bundle
+	 * @param ledgerEntry the existing ledger entry (may be null)
+	 * @param fingerprint the current fingerprint
+	 */
+	protected void updateLedger(MetadataBundle bundle, InstalledBundle ledgerEntry, String fingerprint) {
+		if (ledgerEntry == null) {
+			ledgerEntry = new InstalledBundle(bundle.getClass().getName());
+		}
+
+		ledgerEntry.setVersion(bundle.getClass().getAnnotation(Version.class).value());
+		ledgerEntry.setFingerprint(fingerprint);
+		ledgerEntry.setDateInstalled(new Date());
+
+		dao.saveInstalledBundle(ledgerEntry);
+	}
+
+	/**
+	 * Calculates the content fingerprint of a bundle, i.e. a SHA-1 digest of the class files of the bundle and its
+	 * superclasses (including their nested and anonymous classes), and of the classes and resources declared by its
+	 * version annotation
+	 * @param bundle the bundle
+	 * @return the fingerprint as a hex string
+	 * @throws IOException if a class file or declared resource can't be read
+	 */
+	protected String getBundleFingerprint(MetadataBundle bundle) throws IOException {
+		Class<?> bundleClass = bundle.getClass();
+
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new APIException("SHA-1 digest not supported", ex);
+		}
+
+		for (Class<?> clazz = bundleClass; clazz != null && clazz != AbstractMetadataBundle.class && clazz != Object.class; clazz = clazz.getSuperclass()) {
+			digestClass(digest, clazz);
+		}
+
+		Version version = bundleClass.getAnnotation(Version.class);
+		if (version != null) {
+			for (Class<?> clazz : version.classes()) {
+				digestClass(digest, clazz);
+			}
+			for (String resource : version.resources()) {
+				digestResource(digest, getClassLoader(bundleClass), resource, true);
+			}
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Updates a digest with the class file of the given class and those of its nested and anonymous classes
+	 * @param digest the digest
+	 * @param clazz the class
+	 * @throws IOException if the class file can't be read
+	 */
+	protected void digestClass(MessageDigest digest, Class<?> clazz) throws IOException {
+		ClassLoader loader = getClassLoader(clazz);
+
+		digestResource(digest, loader, getClassResource(clazz.getName()), true);
+
+		for (Class<?> nested : clazz.getDeclaredClasses()) {
+			digestClass(digest, nested);
+		}
+
+		digestAnonymousClasses(digest, loader, clazz.getName());
+	}
+
+	/**
+	 * Updates a digest with the class files of the anonymous classes of the given class, which aren't returned by
+	 * Class.getDeclaredClasses() but are compiled to consecutively numbered class files
+	 * @param digest the digest
+	 * @param loader the class loader
+	 * @param className the class name
+	 * @throws IOException if a class file can't be read
+	 */
+	protected void digestAnonymousClasses(MessageDigest digest, ClassLoader loader, String className) throws IOException {
+		for (int n = 1; ; ++n) {
+			String anonymousName = className + "$" + n;
+			if (!digestResource(digest, loader, getClassResource(anonymousName), false)) {
+				break;
+			}
+			digestAnonymousClasses(digest, loader, anonymousName);
+		}
+	}
+
+	/**
+	 * Updates a digest with the name and content of a classpath resource
+	 * @param digest the digest
+	 * @param loader the class loader
+	 * @param resource the resource path
+	 * @param required whether the resource must exist
+	 * @return true if the resource exists
+	 * @throws IOException if the resource is required and doesn't exist, or can't be read
+	 */
+	protected boolean digestResource(MessageDigest digest, ClassLoader loader, String resource, boolean required) throws IOException {
+		InputStream in = loader.getResourceAsStream(resource);
+		if (in == null) {
+			if (required) {
+				throw new IOException("Unable to read resource " + resource);
+			}
+			return false;
+		}
+
+		try {
+			digest.update(resource.getBytes("UTF-8"));
+
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+			return true;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Gets the class loader of the given class, or the system class loader for bootstrap classes
+	 * @param clazz the class
+	 * @return the class loader
+	 */
+	protected static ClassLoader getClassLoader(Class<?> clazz) {
+		return clazz.getClassLoader() != null ? clazz.getClassLoader() : ClassLoader.getSystemClassLoader();
+	}
+
+	/**
+	 * Gets the path of the class file of the given class
+	 * @param className the binary class name
+	 * @return the resource path
+	 */
+	protected static String getClassResource(String className) {
+		return className.replace('.', '/') + ".class";
+	}
+
+	/**
+	 * Checks the global property which forces re-installation of all bundles
+	 * @return true if bundles should be re-installed
+	 */
+	protected boolean isForceBundleReinstall() {
+		String value = Context.getAdministrationService().getGlobalProperty(MetadataDeployConstants.GP_FORCE_BUNDLE_REINSTALL);
+		return "true".equalsIgnoreCase(value);
 	}
 
 	/**
@@ -171,31 +585,392 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	 */
 	@Override
 	public <T extends OpenmrsObject> T installObject(T incoming) {
+		return installObject(incoming, null);
+	}
+
+	/**
+	 * Installs the incoming object, notifying the given callback of the outcome
+	 * @param incoming the incoming object
+	 * @param callback the callback (may be null)
+	 * @return the installed object (can be incoming or existing)
+	 */
+	protected <T extends OpenmrsObject> T installObject(T incoming, InstallCallback<? super T> callback) {
 		ObjectDeployHandler<T> handler = getHandler(incoming);
 
 		// Get globally unique identifier
-		String identifier = handler.getIdentifier(incoming);
+		String identifier = getIdentifier(handler, incoming);
 
-		if (identifier == null) {
-			throw new APIException("Can't install object with no identifier");
-		}
+		prepareIncoming(incoming);
 
 		// Look for existing by primary identifier (i.e. exact match)
 		T existing = handler.fetch(identifier);
 
+		T installed = installObject(handler, incoming, existing, callback);
+
+		objectsInstalled(1);
+
+		return installed;
+	}
+
+	/**
+	 * @see MetadataDeployService#installObjects(java.util.Collection)
+	 */
+	@Override
+	public <T extends OpenmrsObject> List<T> installObjects(Collection<T> incoming) {
+		// Group incoming objects by class so that each group has a single handler
+		Map<Class<?>, List<T>> groups = new LinkedHashMap<Class<?>, List<T>>();
+		for (T obj : incoming) {
+			List<T> group = groups.get(obj.getClass());
+			if (group == null) {
+				group = new ArrayList<T>();
+				groups.put(obj.getClass(), group);
+			}
+			group.add(obj);
+		}
+
+		Map<T, T> installed = new IdentityHashMap<T, T>();
+
+		for (List<T> group : groups.values()) {
+			installGroup(getHandler(group.get(0)), group, installed);
+
+			objectsInstalled(group.size());
+		}
+
+		// Return installed objects in the same order as the incoming objects
+		List<T> results = new ArrayList<T>(incoming.size());
+		for (T obj : incoming) {
+			results.add(installed.get(obj));
+		}
+		return results;
+	}
+
+	/**
+	 * Installs the incoming object given the existing object with the same identifier
+	 * @param handler the handler
+	 * @param incoming the incoming object
+	 * @param existing the existing object with the same identifier (may be null)
+	 * @param callback the callback to notify of the outcome (may be null)
+	 * @return the installed object (can be incoming or existing)
+	 */
+	protected <T extends OpenmrsObject> T installObject(ObjectDeployHandler<T> handler, T incoming, T existing, InstallCallback<? super T> callback) {
 		// If no exact match, look for another existing item that should be replaced
 		if (existing == null) {
-			existing = handler.findAlternateMatch(incoming);
+			existing = findAlternateMatch(handler, incoming);
 		}
 
+		T installed;
+		InstallOutcome outcome;
+
 		if (existing != null) {
-			handler.overwrite(incoming, existing);
+			// Nothing to do if the existing object is already the same as the incoming object
+			if (updateRequired(handler, incoming, existing)) {
+				evictCached(handler, existing);
+				handler.overwrite(incoming, existing);
+
+				installed = handler.save(existing);
+				outcome = InstallOutcome.UPDATED;
+			}
+			else {
+				installed = existing;
+				outcome = InstallOutcome.UNCHANGED;
+			}
+		}
+		else {
+			installed = handler.save(incoming);
+			outcome = InstallOutcome.CREATED;
+		}
+
+		if (outcome != InstallOutcome.UNCHANGED) {
+			evictCached(handler, installed);
+			indexAlternateKey(handler, installed);
+		}
+
+		if (callback != null) {
+			callback.objectInstalled(installed, outcome);
+		}
+
+		return installed;
+	}
+
+	/**
+	 * Installs a group of incoming objects of the same class. Existing objects, alternate matches and saving are each
+	 * done for the whole group at once.
+	 * @param handler the handler
+	 * @param group the incoming objects
+	 * @param installed the identity map of incoming objects to installed objects to be populated
+	 */
+	protected <T extends OpenmrsObject> void installGroup(ObjectDeployHandler<T> handler, List<T> group, Map<T, T> installed) {
+		Set<String> identifiers = new LinkedHashSet<String>();
+		for (T obj : group) {
+			identifiers.add(getIdentifier(handler, obj));
+
+			prepareIncoming(obj);
+		}
+
+		Map<String, T> existing = new TreeMap<String, T>(String.CASE_INSENSITIVE_ORDER);
+		existing.putAll(fetchExisting(handler, group, identifiers));
+
+		// Look for alternate matches for objects with no exact match (only the first of any repeated identifier)
+		Set<String> unmatchedIdentifiers = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+		List<T> unmatched = new ArrayList<T>();
+		for (T obj : group) {
+			String identifier = handler.getIdentifier(obj);
+			if (!existing.containsKey(identifier) && unmatchedIdentifiers.add(identifier)) {
+				unmatched.add(obj);
+			}
+		}
+
+		Map<T, T> alternates = unmatched.isEmpty() ? new IdentityHashMap<T, T>() : findAlternateMatches(handler, unmatched);
+
+		// Overwrite existing objects which have changed, remembering which object should be saved for each incoming object
+		Map<T, T> targets = new IdentityHashMap<T, T>();
+		Map<T, T> toSave = new IdentityHashMap<T, T>();
+		List<T> saveOrder = new ArrayList<T>();
+
+		for (T obj : group) {
+			String identifier = handler.getIdentifier(obj);
+			T target = existing.get(identifier);
+
+			if (target == null) {
+				target = alternates.get(obj);
+			}
+
+			boolean updateRequired = true;
+
+			if (target != null) {
+				updateRequired = updateRequired(handler, obj, target);
+				if (updateRequired) {
+					evictCached(handler, target);
+					handler.overwrite(obj, target);
+				}
+			}
+			else {
+				target = obj;
+			}
+
+			// Later objects in the same group may have the same identifier
+			existing.put(identifier, target);
+			targets.put(obj, target);
+
+			if (updateRequired && !toSave.containsKey(target)) {
+				toSave.put(target, target);
+				saveOrder.add(target);
+			}
+		}
+
+		List<T> saved = saveAll(handler, saveOrder);
+		for (int s = 0; s < saveOrder.size(); ++s) {
+			toSave.put(saveOrder.get(s), saved.get(s));
+			evictCached(handler, saved.get(s));
+			indexAlternateKey(handler, saved.get(s));
+		}
+
+		for (T obj : group) {
+			T target = targets.get(obj);
+			installed.put(obj, toSave.containsKey(target) ? toSave.get(target) : target);
+		}
+	}
+
+	/**
+	 * Checks whether overwriting the existing object would change it. Handlers which can't compare objects always
+	 * require an update.
+	 * @param handler the handler
+	 * @param incoming the incoming object
+	 * @param existing the existing object
+	 * @return true if the existing object should be overwritten and saved
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> boolean updateRequired(ObjectDeployHandler<T> handler, T incoming, T existing) {
+		if (handler instanceof ComparingObjectDeployHandler) {
+			return ((ComparingObjectDeployHandler<T>) handler).updateRequired(incoming, existing);
+		}
+		return true;
+	}
 
-			return handler.save(existing);
+	/**
+	 * Fetches the existing objects with the given identifiers. If the handler doesn't support batch operations and the
+	 * objects are identified by their UUIDs, these are fetched with a single query.
+	 * @param handler the handler
+	 * @param incoming the incoming objects (all of the same class)
+	 * @param identifiers the identifiers of the incoming objects
+	 * @return the map of identifiers to existing objects
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> Map<String, T> fetchExisting(ObjectDeployHandler<T> handler, List<T> incoming, Set<String> identifiers) {
+		if (handler instanceof BatchObjectDeployHandler) {
+			return ((BatchObjectDeployHandler<T>) handler).fetchAll(identifiers);
+		}
+
+		Map<String, T> existing = new HashMap<String, T>();
+
+		boolean identifiedByUuid = true;
+		for (T obj : incoming) {
+			if (!handler.getIdentifier(obj).equals(obj.getUuid())) {
+				identifiedByUuid = false;
+			}
+		}
+
+		if (identifiedByUuid) {
+			Class<T> clazz = (Class<T>) incoming.get(0).getClass();
+
+			for (T obj : dao.getObjectsByProperty(clazz, "uuid", identifiers)) {
+				existing.put(obj.getUuid(), obj);
+			}
 		}
 		else {
-			return handler.save(incoming);
+			for (String identifier : identifiers) {
+				T obj = handler.fetch(identifier);
+				if (obj != null) {
+					existing.put(identifier, obj);
+				}
+			}
+		}
+
+		return existing;
+	}
+
+	/**
+	 * Finds alternate matches for the given incoming objects
+	 * @param handler the handler
+	 * @param incoming the incoming objects
+	 * @return the identity map of incoming objects to existing objects
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> Map<T, T> findAlternateMatches(ObjectDeployHandler<T> handler, List<T> incoming) {
+		boolean indexed = getAlternateKeyIndex(handler, incoming.get(0)) != null;
+
+		if (!indexed && handler instanceof BatchObjectDeployHandler) {
+			return ((BatchObjectDeployHandler<T>) handler).findAlternateMatches(incoming);
+		}
+
+		Map<T, T> matches = new IdentityHashMap<T, T>();
+		for (T obj : incoming) {
+			T match = findAlternateMatch(handler, obj);
+			if (match != null) {
+				matches.put(obj, match);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Finds an alternate match for the given incoming object. If the handler matches on an alternate key and bundles are
+	 * being installed, the match is looked up in the alternate key index for the installation.
+	 * @param handler the handler
+	 * @param incoming the incoming object
+	 * @return the existing object or null
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> T findAlternateMatch(ObjectDeployHandler<T> handler, T incoming) {
+		AlternateKeyIndex index = getAlternateKeyIndex(handler, incoming);
+		if (index == null) {
+			return handler.findAlternateMatch(incoming);
+		}
+
+		Object[] values = ((AlternateKeyObjectDeployHandler<T>) handler).getAlternateKeyValues(incoming);
+		Serializable primaryKey = index.get(values);
+		if (primaryKey == null) {
+			return null;
 		}
+
+		T existing = dao.getObjectById((Class<T>) MetadataCache.getEntityClass(incoming), primaryKey);
+
+		// Object may have been deleted or not yet committed by a bundle on another thread, so it's left in the index
+		if (existing == null) {
+			return null;
+		}
+
+		// Object may have been changed since it was indexed
+		if (!index.sameKey(values, ((AlternateKeyObjectDeployHandler<T>) handler).getAlternateKeyValues(existing))) {
+			index.remove(values, primaryKey);
+			return null;
+		}
+		return existing;
+	}
+
+	/**
+	 * Updates the alternate key index of the current bundle installation, if there is one, with an installed object. The
+	 * index is built if necessary, as bundles on other threads may already be using one built before this object was
+	 * committed.
+	 * @param handler the handler
+	 * @param installed the installed object
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> void indexAlternateKey(ObjectDeployHandler<T> handler, T installed) {
+		AlternateKeyIndex index = getAlternateKeyIndex(handler, installed);
+		if (index != null) {
+			Serializable primaryKey = dao.getPrimaryKey(installed);
+			if (primaryKey != null) {
+				index.put(((AlternateKeyObjectDeployHandler<T>) handler).getAlternateKeyValues(installed), primaryKey);
+			}
+		}
+	}
+
+	/**
+	 * Gets the alternate key index of the current bundle installation for objects of the given object's class, building
+	 * it if it hasn't been built yet. The index is shared by all bundles which are being installed together.
+	 * @param handler the handler
+	 * @param obj the object
+	 * @return the index or null if the handler doesn't match on an alternate key or no bundle is being installed
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> AlternateKeyIndex getAlternateKeyIndex(ObjectDeployHandler<T> handler, T obj) {
+		InstallContext context = InstallContext.current();
+		if (context == null || !(handler instanceof AlternateKeyObjectDeployHandler)) {
+			return null;
+		}
+
+		Class<?> clazz = MetadataCache.getEntityClass(obj);
+		AlternateKeyIndex index = context.getAlternateKeyIndex(clazz);
+		if (index == null) {
+			AlternateKeyObjectDeployHandler<T> keyHandler = (AlternateKeyObjectDeployHandler<T>) handler;
+			index = context.addAlternateKeyIndex(clazz, buildAlternateKeyIndex((Class<? extends OpenmrsObject>) clazz, keyHandler));
+		}
+		return index;
+	}
+
+	/**
+	 * Builds an alternate key index of all existing objects of the given class, loading their keys a page at a time
+	 * @param clazz the object class
+	 * @param handler the handler
+	 * @return the index
+	 */
+	protected <T extends OpenmrsObject> AlternateKeyIndex buildAlternateKeyIndex(Class<? extends OpenmrsObject> clazz, AlternateKeyObjectDeployHandler<T> handler) {
+		String[] properties = handler.getAlternateKeyProperties();
+		AlternateKeyIndex index = new AlternateKeyIndex(handler.isAlternateKeyCaseSensitive());
+		Integer lastId = null;
+		List<Object[]> rows;
+
+		do {
+			rows = dao.getObjectProperties(clazz, properties, lastId, ALTERNATE_KEY_PAGE_SIZE);
+			index.addRows(rows);
+
+			if (!rows.isEmpty()) {
+				lastId = (Integer) rows.get(rows.size() - 1)[0];
+			}
+		}
+		while (rows.size() == ALTERNATE_KEY_PAGE_SIZE);
+
+		return index;
+	}
+
+	/**
+	 * Saves the given objects
+	 * @param handler the handler
+	 * @param objs the objects to save
+	 * @return the saved objects in the same order
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T extends OpenmrsObject> List<T> saveAll(ObjectDeployHandler<T> handler, List<T> objs) {
+		if (handler instanceof BatchObjectDeployHandler) {
+			return ((BatchObjectDeployHandler<T>) handler).saveAll(objs);
+		}
+
+		List<T> saved = new ArrayList<T>(objs.size());
+		for (T obj : objs) {
+			saved.add(handler.save(obj));
+		}
+		return saved;
 	}
 
 	/**
@@ -203,18 +978,61 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	 */
 	@Override
 	public <T extends OpenmrsObject> List<T> installFromSource(ObjectSource<T> source) throws APIException {
-		List<T> installed = new ArrayList<T>();
+		final List<T> installed = new ArrayList<T>();
+
+		installFromSource(source, new InstallCallback<T>() {
+			@Override
+			public void objectInstalled(T obj, InstallOutcome outcome) {
+				installed.add(obj);
+			}
+		});
+
+		return installed;
+	}
+
+	/**
+	 * @see MetadataDeployService#installFromSource(org.openmrs.module.metadatadeploy.source.ObjectSource, org.openmrs.module.metadatadeploy.api.InstallCallback)
+	 */
+	@Override
+	public <T extends OpenmrsObject> InstallCounts installFromSource(ObjectSource<T> source, final InstallCallback<? super T> callback) throws APIException {
+		final InstallCounts counts = new InstallCounts();
+
+		InstallCallback<T> countingCallback = new InstallCallback<T>() {
+			@Override
+			public void objectInstalled(T obj, InstallOutcome outcome) {
+				counts.objectInstalled(obj, outcome);
+
+				if (callback != null) {
+					callback.objectInstalled(obj, outcome);
+				}
+			}
+		};
+
 		T incoming;
 
 		try {
 			while ((incoming = source.fetchNext()) != null) {
-				installed.add(installObject(incoming));
+				installObject(incoming, countingCallback);
 			}
-			return installed;
 		}
 		catch (Exception ex) {
-			throw new APIException("Unable to install objects from " + source.getClass().getSimpleName());
+			throw new APIException("Unable to install objects from " + source.getClass().getSimpleName(), ex);
 		}
+		finally {
+			// Sources like pipelined sources need to be closed if they weren't read to the end
+			if (source instanceof Closeable) {
+				try {
+					((Closeable) source).close();
+				}
+				catch (IOException ex) {
+					log.warn("Unable to close " + source.getClass().getSimpleName(), ex);
+				}
+			}
+		}
+
+		log.info("Installed objects from " + source.getClass().getSimpleName() + " (" + counts + ")");
+
+		return counts;
 	}
 
 	/**
@@ -224,6 +1042,7 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	public <T extends OpenmrsObject> void uninstallObject(T outgoing, String reason) {
 		ObjectDeployHandler<T> handler = getHandler(outgoing);
 
+		evictCached(handler, outgoing);
 		handler.uninstall(outgoing, reason);
 	}
 
@@ -233,7 +1052,109 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	@Override
 	public <T extends OpenmrsObject> T fetchObject(Class<T> clazz, String identifier) {
 		ObjectDeployHandler<T> handler = getHandler(clazz);
-		return handler.fetch(identifier);
+
+		Serializable primaryKey = cache.get(clazz, identifier);
+		if (primaryKey != null) {
+			// Answered from the session if already loaded, and unlike the handler's query never flushes the session
+			T obj = dao.getObjectById(clazz, primaryKey);
+
+			// Object may have been deleted or changed outside of this module
+			if (obj != null && identifier.equalsIgnoreCase(handler.getIdentifier(obj))) {
+				cache.recordHit();
+				return obj;
+			}
+
+			cache.evict(clazz, identifier);
+		}
+		else if (cache.isMissing(clazz, identifier)) {
+			cache.recordAvoidedMiss();
+			return null;
+		}
+
+		cache.recordMiss();
+
+		T obj = handler.fetch(identifier);
+		if (obj != null) {
+			primaryKey = dao.getPrimaryKey(obj);
+			if (primaryKey != null) {
+				cache.put(clazz, identifier, primaryKey);
+			}
+		}
+		else {
+			cache.putMissing(clazz, identifier);
+		}
+		return obj;
+	}
+
+	/**
+	 * @see MetadataDeployService#fetchCachedObject(Class, String)
+	 */
+	@Override
+	public <T extends OpenmrsObject> T fetchCachedObject(Class<T> clazz, String identifier) {
+		Serializable primaryKey = cache.get(clazz, identifier);
+		if (primaryKey == null) {
+			return null;
+		}
+
+		T obj = dao.getCachedObjectById(clazz, primaryKey);
+
+		// Anything else, including a changed identifier, is left to fetchObject which will also evict the entry
+		if (obj != null && identifier.equalsIgnoreCase(getHandler(clazz).getIdentifier(obj))) {
+			cache.recordHit();
+			return obj;
+		}
+		return null;
+	}
+
+	/**
+	 * @see MetadataDeployService#fetchObjectById(Class, Integer)
+	 */
+	@Override
+	public <T extends OpenmrsObject> T fetchObjectById(Class<T> clazz, Integer id) {
+		return dao.getObjectById(clazz, id);
+	}
+
+	/**
+	 * @see MetadataDeployService#fetchConceptByMapping(String, String)
+	 */
+	@Override
+	public Concept fetchConceptByMapping(String source, String code) {
+		ConceptMappingIndex.Mapping mapping = conceptIndex.lookup(dao, source, code);
+		if (mapping != null) {
+			Concept concept = null;
+			if (mapping.isNumeric()) {
+				concept = dao.getObjectById(ConceptNumeric.class, mapping.getConceptId());
+			}
+			if (concept == null) {
+				concept = dao.getObjectById(Concept.class, mapping.getConceptId());
+			}
+			if (concept != null) {
+				return concept;
+			}
+
+			// Index refers to a concept which no longer exists
+			conceptIndex.markStale(Collections.singleton(mapping.getConceptId()));
+		}
+
+		// Mapping might have been created in this transaction so won't be indexed until it's committed, and the index
+		// isn't used at all by transactions which have changed concepts
+		return Context.getConceptService().getConceptByMapping(code, source);
+	}
+
+	/**
+	 * @see MetadataDeployService#fetchObjectProperties(Class, String[], Integer, int)
+	 */
+	@Override
+	public List<Object[]> fetchObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, Integer afterId, int maxResults) {
+		return dao.getObjectProperties(clazz, properties, afterId, maxResults);
+	}
+
+	/**
+	 * @see MetadataDeployService#fetchObjectProperties(Class, String[], String, Object, int)
+	 */
+	@Override
+	public List<Object[]> fetchObjectProperties(Class<? extends OpenmrsObject> clazz, String[] properties, String orderProperty, Object after, int maxResults) {
+		return dao.getObjectProperties(clazz, properties, orderProperty, after, maxResults);
 	}
 
 	/**
@@ -242,7 +1163,10 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	@Override
 	public <T extends OpenmrsObject> T saveObject(T obj) {
 		ObjectDeployHandler<T> handler = getHandler(obj);
-		return handler.save(obj);
+
+		T saved = handler.save(obj);
+		evictCached(handler, saved);
+		return saved;
 	}
 
 	/**
@@ -252,8 +1176,39 @@ public class MetadataDeployServiceImpl extends BaseOpenmrsService implements Met
 	public <T extends OpenmrsObject> void overwriteObject(T source, T target) {
 		ObjectDeployHandler<T> handler = getHandler(source);
 
+		evictCached(handler, target);
 		handler.overwrite(source, target);
 		handler.save(target);
+		evictCached(handler, target);
+	}
+
+	/**
+	 * Evicts the cached primary key of the given object, e.g. because it's about to be changed
+	 * @param handler the handler
+	 * @param obj the object
+	 */
+	protected <T extends OpenmrsObject> void evictCached(ObjectDeployHandler<T> handler, T obj) {
+		String identifier = handler.getIdentifier(obj);
+		if (identifier != null) {
+			cache.evict(obj, identifier);
+		}
+	}
+
+	/**
+	 * Convenience method to get the identifier of an object which is to be installed
+	 * @param handler the handler
+	 * @param obj the object
+	 * @return the identifier
+	 * @throws APIException if object has no identifier
+	 */
+	protected <T extends OpenmrsObject> String getIdentifier(ObjectDeployHandler<T> handler, T obj) throws APIException {
+		String identifier = handler.getIdentifier(obj);
+
+		if (identifier == null) {
+			throw new APIException("Can't install object with no identifier");
+		}
+
+		return identifier;
 	}
 
 	/**
@@ -0,0 +1,259 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.api.impl;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Installs the bundles of a bundle graph on a bounded pool of worker threads. Each bundle is installed in its own
+ * session and transaction, and is only started once all of its required bundles have been committed.
+ *
+ * User contexts aren't thread safe, so each task runs with its own user context which assumes the identity of the
+ * calling user. That requires the calling user to be a super user.
+ */
+public class ParallelBundleInstaller {
+
+	protected static final Log log = LogFactory.getLog(ParallelBundleInstaller.class);
+
+	private MetadataDeployServiceImpl service;
+
+	private PlatformTransactionManager transactionManager;
+
+	private int threads;
+
+	/**
+	 * Creates a new parallel installer
+	 * @param service the deploy service implementation which installs each bundle
+	 * @param transactionManager the transaction manager
+	 * @param threads the maximum number of worker threads
+	 */
+	public ParallelBundleInstaller(MetadataDeployServiceImpl service, PlatformTransactionManager transactionManager, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Number of threads must be at least 1");
+		}
+
+		this.service = service;
+		this.transactionManager = transactionManager;
+		this.threads = threads;
+	}
+
+	/**
+	 * Installs all bundles in the given graph
+	 * @param graph the bundle graph
+	 * @param forceReinstall whether to install bundles regardless of the ledger
+	 * @throws APIException if any bundle fails to install
+	 */
+	public void install(BundleGraph graph, boolean forceReinstall) throws APIException {
+		UserContext userContext = Context.getUserContext();
+
+		User user = userContext.getAuthenticatedUser();
+		if (user == null || !user.isSuperUser()) {
+			throw new APIException("Parallel installation of bundles requires an authenticated super user");
+		}
+
+		// Number of uncommitted requirements of each bundle
+		Map<MetadataBundle, Integer> pending = new HashMap<MetadataBundle, Integer>();
+		for (MetadataBundle bundle : graph.getBundles()) {
+			pending.put(bundle, graph.getRequirements(bundle).size());
+		}
+
+		Set<MetadataBundle> installed = new HashSet<MetadataBundle>();
+
+		// Alternate key indexes are built once and shared by all workers
+		ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes = InstallContext.createAlternateKeyIndexes();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+		CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+		Map<Future<Boolean>, MetadataBundle> running = new HashMap<Future<Boolean>, MetadataBundle>();
+
+		Throwable failure = null;
+		MetadataBundle failed = null;
+
+		try {
+			for (MetadataBundle bundle : graph.getBundles()) {
+				if (pending.get(bundle) == 0) {
+					running.put(completion.submit(new BundleTask(bundle, forceReinstall, userContext, alternateKeyIndexes)), bundle);
+				}
+			}
+
+			while (!running.isEmpty()) {
+				Future<Boolean> future = completion.take();
+				MetadataBundle bundle = running.remove(future);
+
+				try {
+					if (future.get()) {
+						installed.add(bundle);
+					}
+				}
+				catch (ExecutionException ex) {
+					// Let running bundles finish but don't start any more
+					if (failure == null) {
+						failure = ex.getCause();
+						failed = bundle;
+					}
+					continue;
+				}
+
+				if (failure != null) {
+					continue;
+				}
+
+				for (MetadataBundle dependent : graph.getDependents(bundle)) {
+					int remaining = pending.get(dependent) - 1;
+					pending.put(dependent, remaining);
+
+					if (remaining == 0) {
+						boolean requirementInstalled = false;
+						for (MetadataBundle required : graph.getRequirements(dependent)) {
+							if (installed.contains(required)) {
+								requirementInstalled = true;
+							}
+						}
+
+						running.put(completion.submit(new BundleTask(dependent, forceReinstall || requirementInstalled, userContext, alternateKeyIndexes)), dependent);
+					}
+				}
+			}
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new APIException("Interrupted whilst installing bundles", ex);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		if (failure != null) {
+			if (failure instanceof APIException) {
+				throw (APIException) failure;
+			}
+			throw new APIException("Unable to install bundle " + failed.getClass().getSimpleName(), failure);
+		}
+	}
+
+	/**
+	 * Task which installs a single bundle in its own session and transaction
+	 */
+	protected class BundleTask implements Callable<Boolean> {
+
+		private MetadataBundle bundle;
+
+		private boolean forceReinstall;
+
+		private UserContext userContext;
+
+		private ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes;
+
+		/**
+		 * Creates a new task
+		 * @param bundle the bundle
+		 * @param forceReinstall whether to install the bundle regardless of the ledger
+		 * @param userContext the user context of the calling thread, which is only read
+		 * @param alternateKeyIndexes the alternate key indexes shared by all tasks
+		 */
+		public BundleTask(MetadataBundle bundle, boolean forceReinstall, UserContext userContext, ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes) {
+			this.bundle = bundle;
+			this.forceReinstall = forceReinstall;
+			this.userContext = userContext;
+			this.alternateKeyIndexes = alternateKeyIndexes;
+		}
+
+		/**
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public Boolean call() throws Exception {
+			Context.openSession();
+			try {
+				Context.setUserContext(createWorkerContext());
+
+				log.debug("Installing bundle " + bundle.getClass().getSimpleName() + " on " + Thread.currentThread().getName());
+
+				return new TransactionTemplate(transactionManager).execute(new TransactionCallback<Boolean>() {
+					@Override
+					public Boolean doInTransaction(TransactionStatus status) {
+						return service.installBundle(bundle, forceReinstall, alternateKeyIndexes);
+					}
+				});
+			}
+			finally {
+				Context.closeSession();
+			}
+		}
+
+		/**
+		 * Creates a user context for this thread with the same user and location as the calling thread
+		 * @return the user context
+		 */
+		protected UserContext createWorkerContext() {
+			UserContext workerContext = new UserContext();
+
+			// Becoming another user is checked against the current user context, so the caller's is used briefly
+			Context.setUserContext(userContext);
+			try {
+				workerContext.becomeUser(userContext.getAuthenticatedUser().getSystemId());
+				workerContext.setLocation(userContext.getLocation());
+			}
+			finally {
+				Context.clearUserContext();
+			}
+
+			return workerContext;
+		}
+	}
+
+	/**
+	 * Creates named daemon worker threads
+	 */
+	protected static class WorkerThreadFactory implements ThreadFactory {
+
+		private AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * @see java.util.concurrent.ThreadFactory#newThread(Runnable)
+		 */
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "metadatadeploy-bundle-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -17,6 +17,9 @@ package org.openmrs.module.metadatadeploy.bundle;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.module.metadatadeploy.MissingMetadataException;
+import org.openmrs.module.metadatadeploy.api.FlushPolicy;
+import org.openmrs.module.metadatadeploy.api.InstallCallback;
+import org.openmrs.module.metadatadeploy.api.InstallCounts;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
 import org.openmrs.module.metadatadeploy.source.ObjectSource;
 import org.openmrs.module.metadatadeploy.sync.MetadataSynchronizationRunner;
@@ -24,6 +27,7 @@ import org.openmrs.module.metadatadeploy.sync.ObjectSynchronization;
 import org.openmrs.module.metadatadeploy.sync.SyncResult;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -34,6 +38,25 @@ public abstract class AbstractMetadataBundle implements MetadataBundle {
 	@Autowired
 	protected MetadataDeployService deployService;
 
+	private FlushPolicy flushPolicy;
+
+	/**
+	 * Gets the flush policy used when installing this bundle
+	 * @return the flush policy or null if the global policy is used
+	 */
+	public FlushPolicy getFlushPolicy() {
+		return flushPolicy;
+	}
+
+	/**
+	 * Sets the flush policy used when installing this bundle. Bundles which install large numbers of objects can use this
+	 * to periodically flush and clear the session.
+	 * @param flushPolicy the flush policy or null to use the global policy
+	 */
+	public void setFlushPolicy(FlushPolicy flushPolicy) {
+		this.flushPolicy = flushPolicy;
+	}
+
 	/**
 	 * Installs the given metadata package
 	 * @param pkg the incoming package
@@ -54,6 +77,15 @@ public abstract class AbstractMetadataBundle implements MetadataBundle {
 		return deployService.installObject(incoming);
 	}
 
+	/**
+	 * Installs the given objects
+	 * @param incoming the incoming objects
+	 * @return the installed objects
+	 */
+	protected <T extends OpenmrsObject> List<T> install(Collection<T> incoming) {
+		return deployService.installObjects(incoming);
+	}
+
 	/**
 	 * Installs all objects from the given source
 	 * @param source the object source
@@ -63,6 +95,17 @@ public abstract class AbstractMetadataBundle implements MetadataBundle {
 		return deployService.installFromSource(source);
 	}
 
+	/**
+	 * Installs all objects from the given source without keeping references to the installed objects. This should be
+	 * preferred for large sources, particularly in combination with a flush policy which clears the session.
+	 * @param source the object source
+	 * @param callback the callback to notify as each object is installed (may be null)
+	 * @return the counts of created, updated and unchanged objects
+	 */
+	protected <T extends OpenmrsObject> InstallCounts install(ObjectSource<T> source, InstallCallback<? super T> callback) {
+		return deployService.installFromSource(source, callback);
+	}
+
 	/**
 	 * Uninstalls the given object. The object can be null in which case the method does nothing.
 	 * @param outgoing the outgoing object
@@ -86,6 +129,20 @@ public abstract class AbstractMetadataBundle implements MetadataBundle {
 		return runner.run();
 	}
 
+	/**
+	 * Performs the given synchronization operation, notifying the given result of each created, updated and retired
+	 * object, e.g. a {@link org.openmrs.module.metadatadeploy.sync.CountingSyncResult} to avoid keeping every object
+	 * @param source the object source
+	 * @param sync the synchronization operation
+	 * @param result the synchronization result
+	 * @return the synchronization result
+	 */
+	protected <T extends OpenmrsMetadata> SyncResult<T> sync(ObjectSource<T> source, ObjectSynchronization<T> sync, SyncResult<T> result) {
+		MetadataSynchronizationRunner<T> runner = new MetadataSynchronizationRunner<T>(source, sync);
+		runner.setResult(result);
+		return runner.run();
+	}
+
 	/**
 	 * Fetches a possibly existing object (non fail-fast)
 	 * @param clazz the object's class
@@ -0,0 +1,127 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.bundle;
+
+import java.util.Date;
+
+/**
+ * Ledger entry for a metadata bundle which has been installed
+ */
+public class InstalledBundle {
+
+	private Integer id;
+
+	private String bundleClass;
+
+	private Integer version;
+
+	private String fingerprint;
+
+	private Date dateInstalled;
+
+	/**
+	 * Default constructor (used by Hibernate)
+	 */
+	public InstalledBundle() {
+	}
+
+	/**
+	 * Constructs a ledger entry for the given bundle class
+	 * @param bundleClass the bundle class name
+	 */
+	public InstalledBundle(String bundleClass) {
+		this.bundleClass = bundleClass;
+	}
+
+	/**
+	 * Gets the id
+	 * @return the id
+	 */
+	public Integer getId() {
+		return id;
+	}
+
+	/**
+	 * Sets the id
+	 * @param id the id
+	 */
+	public void setId(Integer id) {
+		this.id = id;
+	}
+
+	/**
+	 * Gets the bundle class name
+	 * @return the class name
+	 */
+	public String getBundleClass() {
+		return bundleClass;
+	}
+
+	/**
+	 * Sets the bundle class name
+	 * @param bundleClass the class name
+	 */
+	public void setBundleClass(String bundleClass) {
+		this.bundleClass = bundleClass;
+	}
+
+	/**
+	 * Gets the installed version
+	 * @return the version or null if bundle was not versioned
+	 */
+	public Integer getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the installed version
+	 * @param version the version
+	 */
+	public void setVersion(Integer version) {
+		this.version = version;
+	}
+
+	/**
+	 * Gets the content fingerprint of the installed bundle
+	 * @return the fingerprint
+	 */
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Sets the content fingerprint of the installed bundle
+	 * @param fingerprint the fingerprint
+	 */
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Gets the date of the last install
+	 * @return the date
+	 */
+	public Date getDateInstalled() {
+		return dateInstalled;
+	}
+
+	/**
+	 * Sets the date of the last install
+	 * @param dateInstalled the date
+	 */
+	public void setDateInstalled(Date dateInstalled) {
+		this.dateInstalled = dateInstalled;
+	}
+}
@@ -0,0 +1,49 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.bundle;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation for metadata bundles to declare a version. Versioned bundles are recorded in the installed bundle ledger
+ * and are skipped on subsequent installs as long as their version, their content and their requirements are unchanged.
+ *
+ * The content fingerprint covers the class files of the bundle, its superclasses and their nested and anonymous
+ * classes, plus any other classes and resources declared here. Changes to anything else the bundle uses, e.g. constants
+ * in a shared class which aren't inlined, are only picked up if that is declared or the version is incremented.
+ */
+@Target(value = {ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Version {
+
+	/**
+	 * The bundle version
+	 */
+	int value();
+
+	/**
+	 * Other classes whose content should be included in the fingerprint, e.g. a class of shared constants
+	 */
+	Class<?>[] classes() default {};
+
+	/**
+	 * Classpath resources which the bundle installs from, e.g. CSV files or metadata sharing packages, whose content
+	 * should be included in the fingerprint
+	 */
+	String[] resources() default {};
+}
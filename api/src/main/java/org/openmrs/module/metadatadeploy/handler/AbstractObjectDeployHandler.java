@@ -17,10 +17,19 @@ package org.openmrs.module.metadatadeploy.handler;
 import org.openmrs.OpenmrsObject;
 import org.openmrs.module.metadatadeploy.ObjectUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
 /**
- * Abstract base class for object deploy handlers
+ * Abstract base class for object deploy handlers. This also provides per-object implementations of the methods of
+ * {@link BatchObjectDeployHandler} for subclasses which implement that interface.
  */
-public abstract class AbstractObjectDeployHandler<T extends OpenmrsObject> implements ObjectDeployHandler<T> {
+public abstract class AbstractObjectDeployHandler<T extends OpenmrsObject> implements ComparingObjectDeployHandler<T> {
 
 	/**
 	 * Generally objects are identified by their UUID. Roles, Privileges and Global Properties are exceptions because
@@ -41,6 +50,68 @@ public abstract class AbstractObjectDeployHandler<T extends OpenmrsObject> imple
 		return null;
 	}
 
+	/**
+	 * Fetches each object individually
+	 * @see BatchObjectDeployHandler#fetchAll(java.util.Collection)
+	 */
+	public Map<String, T> fetchAll(Collection<String> identifiers) {
+		Map<String, T> existing = new TreeMap<String, T>(String.CASE_INSENSITIVE_ORDER);
+		for (String identifier : identifiers) {
+			T obj = fetch(identifier);
+			if (obj != null) {
+				existing.put(identifier, obj);
+			}
+		}
+		return existing;
+	}
+
+	/**
+	 * Finds each alternate match individually
+	 * @see BatchObjectDeployHandler#findAlternateMatches(java.util.Collection)
+	 */
+	public Map<T, T> findAlternateMatches(Collection<T> objs) {
+		Map<T, T> matches = new IdentityHashMap<T, T>();
+		for (T obj : objs) {
+			T match = findAlternateMatch(obj);
+			if (match != null) {
+				matches.put(obj, match);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Saves each object individually
+	 * @see BatchObjectDeployHandler#saveAll(java.util.Collection)
+	 */
+	public List<T> saveAll(Collection<T> objs) {
+		List<T> saved = new ArrayList<T>(objs.size());
+		for (T obj : objs) {
+			saved.add(save(obj));
+		}
+		return saved;
+	}
+
+	/**
+	 * @see ComparingObjectDeployHandler#updateRequired(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public boolean updateRequired(T incoming, T existing) {
+		return differs(incoming, existing, null);
+	}
+
+	/**
+	 * Checks whether the incoming object differs from the existing object, ignoring the id which is kept when the
+	 * existing object is overwritten
+	 * @param incoming the incoming object
+	 * @param existing the existing object
+	 * @param excludeFields the names of fields to be excluded
+	 * @return true if any field differs
+	 */
+	protected boolean differs(T incoming, T existing, Set<String> excludeFields) {
+		return ObjectUtils.differs(incoming, existing, ObjectUtils.excludingIdentifier(incoming.getClass(), excludeFields));
+	}
+
 	/**
 	 * @see ObjectDeployHandler#overwrite(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
 	 */
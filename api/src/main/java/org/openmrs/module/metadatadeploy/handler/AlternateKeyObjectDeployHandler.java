@@ -0,0 +1,47 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.handler;
+
+import org.openmrs.OpenmrsObject;
+
+/**
+ * Optional extension of the object deployment handler interface for handlers whose alternate match is on the values of
+ * a fixed set of properties, e.g. the name. During a bundle installation, alternate matches for these handlers are
+ * found from an index of all existing objects which is built once for all bundles being installed, rather than by
+ * calling {@link #findAlternateMatch(OpenmrsObject)} for each incoming object. The index should match objects in the
+ * same way as that method, and objects with any null value have no alternate match.
+ */
+public interface AlternateKeyObjectDeployHandler<T extends OpenmrsObject> extends ObjectDeployHandler<T> {
+
+	/**
+	 * Gets the property paths which make up the alternate key
+	 * @return the property paths
+	 */
+	String[] getAlternateKeyProperties();
+
+	/**
+	 * Gets the values of the alternate key properties of the given object
+	 * @param obj the object
+	 * @return the values in the same order as the properties
+	 */
+	Object[] getAlternateKeyValues(T obj);
+
+	/**
+	 * Gets whether string values are matched case sensitively, as they are by {@link #findAlternateMatch(OpenmrsObject)}
+	 * @return true if case sensitive, false if case insensitive like a name query on MySQL
+	 */
+	boolean isAlternateKeyCaseSensitive();
+}
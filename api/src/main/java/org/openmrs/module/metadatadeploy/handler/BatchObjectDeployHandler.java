@@ -0,0 +1,50 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.handler;
+
+import org.openmrs.OpenmrsObject;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional extension of the object deployment handler interface for handlers which can fetch and save many objects at
+ * once. {@link AbstractObjectDeployHandler} provides default implementations which fall back to per-object calls, so
+ * handlers need only override the operations they can do more efficiently.
+ */
+public interface BatchObjectDeployHandler<T extends OpenmrsObject> extends ObjectDeployHandler<T> {
+
+	/**
+	 * Fetches all objects with the given primary identifiers
+	 * @param identifiers the identifiers
+	 * @return the map of identifiers to objects (identifiers which don't match an object are omitted)
+	 */
+	Map<String, T> fetchAll(Collection<String> identifiers);
+
+	/**
+	 * Finds alternative existing objects (i.e. not on the primary identifier) for each of the incoming objects
+	 * @param objs the incoming objects
+	 * @return the identity map of incoming objects to existing objects (objects without a match are omitted)
+	 */
+	Map<T, T> findAlternateMatches(Collection<T> objs);
+
+	/**
+	 * Saves the given objects to the database
+	 * @param objs the objects to save
+	 * @return the saved objects in the same order
+	 */
+	List<T> saveAll(Collection<T> objs);
+}
@@ -18,6 +18,7 @@ import org.openmrs.Form;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.FormService;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
@@ -25,7 +26,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
  * Deployment handler for forms
  */
 @Handler(supports = { Form.class })
-public class FormDeployHandler extends AbstractObjectDeployHandler<Form> {
+public class FormDeployHandler extends AbstractObjectDeployHandler<Form> implements AlternateKeyObjectDeployHandler<Form> {
 
 	@Autowired
 	@Qualifier("formService")
@@ -55,6 +56,30 @@ public class FormDeployHandler extends AbstractObjectDeployHandler<Form> {
 		return formService.getForm(incoming.getName(), incoming.getVersion());
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyProperties()
+	 */
+	@Override
+	public String[] getAlternateKeyProperties() {
+		return new String[] { "name", "version" };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyValues(org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public Object[] getAlternateKeyValues(Form obj) {
+		return new Object[] { obj.getName(), obj.getVersion() };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#isAlternateKeyCaseSensitive()
+	 */
+	@Override
+	public boolean isAlternateKeyCaseSensitive() {
+		return false;
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 * @param obj the object to uninstall
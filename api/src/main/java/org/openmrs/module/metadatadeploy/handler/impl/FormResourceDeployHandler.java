@@ -18,9 +18,12 @@ import org.openmrs.FormResource;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.FormService;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.util.Collections;
+
 /**
  * Deployment handler for form resources
  */
@@ -55,6 +58,16 @@ public class FormResourceDeployHandler extends AbstractObjectDeployHandler<FormR
 		return formService.saveFormResource(obj);
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.ComparingObjectDeployHandler#updateRequired(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public boolean updateRequired(FormResource incoming, FormResource existing) {
+		// The value reference of an incoming resource isn't set until it's saved, so compare the values instead
+		return differs(incoming, existing, Collections.singleton("valueReference"))
+				|| !OpenmrsUtil.nullSafeEquals(incoming.getValue(), existing.getValue());
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#overwrite(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
 	 */
@@ -18,21 +18,36 @@ import org.apache.commons.lang3.StringUtils;
 import org.openmrs.GlobalProperty;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.AdministrationService;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
 /**
  * Deployment handler for global properties
  */
 @Handler(supports = { GlobalProperty.class })
-public class GlobalPropertyDeployHandler extends AbstractObjectDeployHandler<GlobalProperty> {
+public class GlobalPropertyDeployHandler extends AbstractObjectDeployHandler<GlobalProperty> implements BatchObjectDeployHandler<GlobalProperty> {
 
 	@Autowired
 	@Qualifier("adminService")
 	private AdministrationService adminService;
 
+	@Autowired
+	private MetadataDeployDAO dao;
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#getIdentifier(org.openmrs.OpenmrsObject)
 	 */
@@ -65,6 +80,53 @@ public class GlobalPropertyDeployHandler extends AbstractObjectDeployHandler<Glo
 		return adminService.getGlobalPropertyByUuid(incoming.getUuid());
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#fetchAll(java.util.Collection)
+	 */
+	@Override
+	public Map<String, GlobalProperty> fetchAll(Collection<String> identifiers) {
+		Map<String, GlobalProperty> existing = new TreeMap<String, GlobalProperty>(String.CASE_INSENSITIVE_ORDER);
+		for (GlobalProperty obj : dao.getObjectsByProperty(GlobalProperty.class, "property", identifiers)) {
+			existing.put(obj.getProperty(), obj);
+		}
+		return existing;
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#findAlternateMatches(java.util.Collection)
+	 */
+	@Override
+	public Map<GlobalProperty, GlobalProperty> findAlternateMatches(Collection<GlobalProperty> objs) {
+		Set<String> keys = new HashSet<String>();
+		for (GlobalProperty obj : objs) {
+			if (obj.getUuid() != null) {
+				keys.add(obj.getUuid());
+			}
+		}
+
+		Map<String, GlobalProperty> existing = new TreeMap<String, GlobalProperty>(String.CASE_INSENSITIVE_ORDER);
+		for (GlobalProperty obj : dao.getObjectsByProperty(GlobalProperty.class, "uuid", keys)) {
+			existing.put(obj.getUuid(), obj);
+		}
+
+		Map<GlobalProperty, GlobalProperty> matches = new IdentityHashMap<GlobalProperty, GlobalProperty>();
+		for (GlobalProperty obj : objs) {
+			GlobalProperty match = obj.getUuid() != null ? existing.get(obj.getUuid()) : null;
+			if (match != null) {
+				matches.put(obj, match);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#saveAll(java.util.Collection)
+	 */
+	@Override
+	public List<GlobalProperty> saveAll(Collection<GlobalProperty> objs) {
+		return adminService.saveGlobalProperties(new ArrayList<GlobalProperty>(objs));
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 * @param obj the object to uninstall
@@ -74,6 +136,23 @@ public class GlobalPropertyDeployHandler extends AbstractObjectDeployHandler<Glo
 		adminService.purgeGlobalProperty(obj);
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.ComparingObjectDeployHandler#updateRequired(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public boolean updateRequired(GlobalProperty incoming, GlobalProperty existing) {
+		if (differs(incoming, existing, Collections.singleton("propertyValue"))) {
+			return true;
+		}
+
+		// Datatypes match so the existing value is kept if the incoming property doesn't have a value
+		if (!hasValue(incoming)) {
+			return false;
+		}
+
+		return !OpenmrsUtil.nullSafeEquals(incoming.getValue(), existing.getValue());
+	}
+
 	/**
 	 * @param incoming
 	 * @param existing
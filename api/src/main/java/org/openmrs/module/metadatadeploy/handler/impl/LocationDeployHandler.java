@@ -17,20 +17,29 @@ package org.openmrs.module.metadatadeploy.handler.impl;
 import org.openmrs.Location;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.LocationService;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * Deployment handler for locations
  */
 @Handler(supports = { Location.class })
-public class LocationDeployHandler extends AbstractObjectDeployHandler<Location> {
+public class LocationDeployHandler extends AbstractObjectDeployHandler<Location> implements BatchObjectDeployHandler<Location> {
 
 	@Autowired
 	@Qualifier("locationService")
 	private LocationService locationService;
 
+	@Autowired
+	private MetadataDeployDAO dao;
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#fetch(String)
 	 */
@@ -47,6 +56,18 @@ public class LocationDeployHandler extends AbstractObjectDeployHandler<Location>
 		return locationService.saveLocation(obj);
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#fetchAll(java.util.Collection)
+	 */
+	@Override
+	public Map<String, Location> fetchAll(Collection<String> identifiers) {
+		Map<String, Location> existing = new TreeMap<String, Location>(String.CASE_INSENSITIVE_ORDER);
+		for (Location obj : dao.getObjectsByProperty(Location.class, "uuid", identifiers)) {
+			existing.put(obj.getUuid(), obj);
+		}
+		return existing;
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 */
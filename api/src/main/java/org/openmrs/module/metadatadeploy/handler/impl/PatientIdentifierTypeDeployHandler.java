@@ -18,6 +18,7 @@ import org.openmrs.PatientIdentifierType;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.PatientService;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
@@ -25,7 +26,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
  * Deployment handler for patient identifier types
  */
 @Handler(supports = { PatientIdentifierType.class })
-public class PatientIdentifierTypeDeployHandler extends AbstractObjectDeployHandler<PatientIdentifierType> {
+public class PatientIdentifierTypeDeployHandler extends AbstractObjectDeployHandler<PatientIdentifierType> implements AlternateKeyObjectDeployHandler<PatientIdentifierType> {
 
 	@Autowired
 	@Qualifier("patientService")
@@ -55,6 +56,30 @@ public class PatientIdentifierTypeDeployHandler extends AbstractObjectDeployHand
 		return patientService.getPatientIdentifierTypeByName(incoming.getName());
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyProperties()
+	 */
+	@Override
+	public String[] getAlternateKeyProperties() {
+		return new String[] { "name" };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyValues(org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public Object[] getAlternateKeyValues(PatientIdentifierType obj) {
+		return new Object[] { obj.getName() };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#isAlternateKeyCaseSensitive()
+	 */
+	@Override
+	public boolean isAlternateKeyCaseSensitive() {
+		return false;
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 * @param obj the object to uninstall
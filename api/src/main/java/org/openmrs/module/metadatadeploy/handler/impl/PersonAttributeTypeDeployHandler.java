@@ -14,19 +14,32 @@
 
 package org.openmrs.module.metadatadeploy.handler.impl;
 
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.openmrs.PersonAttributeType;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.PersonService;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
 /**
  * Deployment handler for person attribute types
  */
 @Handler(supports = { PersonAttributeType.class })
-public class PersonAttributeTypeDeployHandler extends AbstractObjectDeployHandler<PersonAttributeType> {
+public class PersonAttributeTypeDeployHandler extends AbstractObjectDeployHandler<PersonAttributeType> implements BatchObjectDeployHandler<PersonAttributeType>, AlternateKeyObjectDeployHandler<PersonAttributeType> {
 
 	@Autowired
 	@Qualifier("personService")
@@ -35,6 +48,9 @@ public class PersonAttributeTypeDeployHandler extends AbstractObjectDeployHandle
 	@Autowired
 	private SessionFactory sessionFactory;
 
+	@Autowired
+	private MetadataDeployDAO dao;
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#fetch(String)
 	 */
@@ -64,6 +80,82 @@ public class PersonAttributeTypeDeployHandler extends AbstractObjectDeployHandle
 		return personService.getPersonAttributeTypeByName(incoming.getName());
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyProperties()
+	 */
+	@Override
+	public String[] getAlternateKeyProperties() {
+		return new String[] { "name" };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyValues(org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public Object[] getAlternateKeyValues(PersonAttributeType obj) {
+		return new Object[] { obj.getName() };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#isAlternateKeyCaseSensitive()
+	 */
+	@Override
+	public boolean isAlternateKeyCaseSensitive() {
+		return false;
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#fetchAll(java.util.Collection)
+	 */
+	@Override
+	public Map<String, PersonAttributeType> fetchAll(Collection<String> identifiers) {
+		Map<String, PersonAttributeType> existing = new TreeMap<String, PersonAttributeType>(String.CASE_INSENSITIVE_ORDER);
+		for (PersonAttributeType obj : dao.getObjectsByProperty(PersonAttributeType.class, "uuid", identifiers)) {
+			existing.put(obj.getUuid(), obj);
+		}
+		return existing;
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#findAlternateMatches(java.util.Collection)
+	 */
+	@Override
+	public Map<PersonAttributeType, PersonAttributeType> findAlternateMatches(Collection<PersonAttributeType> objs) {
+		Set<String> keys = new HashSet<String>();
+		for (PersonAttributeType obj : objs) {
+			if (obj.getName() != null) {
+				keys.add(obj.getName());
+			}
+		}
+
+		Map<String, PersonAttributeType> existing = new TreeMap<String, PersonAttributeType>(String.CASE_INSENSITIVE_ORDER);
+		for (PersonAttributeType obj : dao.getObjectsByProperty(PersonAttributeType.class, "name", keys)) {
+			existing.put(obj.getName(), obj);
+		}
+
+		Map<PersonAttributeType, PersonAttributeType> matches = new IdentityHashMap<PersonAttributeType, PersonAttributeType>();
+		for (PersonAttributeType obj : objs) {
+			PersonAttributeType match = obj.getName() != null ? existing.get(obj.getName()) : null;
+			if (match != null) {
+				matches.put(obj, match);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#saveAll(java.util.Collection)
+	 */
+	@Override
+	public List<PersonAttributeType> saveAll(Collection<PersonAttributeType> objs) {
+		// See save(...) for why we bypass the person service
+		Session session = sessionFactory.getCurrentSession();
+		for (PersonAttributeType obj : objs) {
+			session.saveOrUpdate(obj);
+		}
+		return new ArrayList<PersonAttributeType>(objs);
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 * @param obj the object to uninstall
@@ -18,22 +18,33 @@ import org.openmrs.Privilege;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.UserService;
 import org.openmrs.module.metadatadeploy.ObjectUtils;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Deployment handler for privileges
  */
 @Handler(supports = { Privilege.class })
-public class PrivilegeDeployHandler extends AbstractObjectDeployHandler<Privilege> {
+public class PrivilegeDeployHandler extends AbstractObjectDeployHandler<Privilege> implements BatchObjectDeployHandler<Privilege> {
 
 	@Autowired
 	@Qualifier("userService")
 	private UserService userService;
 
+	@Autowired
+	private MetadataDeployDAO dao;
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#getIdentifier(org.openmrs.OpenmrsObject)
 	 */
@@ -66,6 +77,45 @@ public class PrivilegeDeployHandler extends AbstractObjectDeployHandler<Privileg
 		return userService.getPrivilegeByUuid(incoming.getUuid());
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#fetchAll(java.util.Collection)
+	 */
+	@Override
+	public Map<String, Privilege> fetchAll(Collection<String> identifiers) {
+		Map<String, Privilege> existing = new TreeMap<String, Privilege>(String.CASE_INSENSITIVE_ORDER);
+		for (Privilege obj : dao.getObjectsByProperty(Privilege.class, "privilege", identifiers)) {
+			existing.put(obj.getPrivilege(), obj);
+		}
+		return existing;
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.BatchObjectDeployHandler#findAlternateMatches(java.util.Collection)
+	 */
+	@Override
+	public Map<Privilege, Privilege> findAlternateMatches(Collection<Privilege> objs) {
+		Set<String> keys = new HashSet<String>();
+		for (Privilege obj : objs) {
+			if (obj.getUuid() != null) {
+				keys.add(obj.getUuid());
+			}
+		}
+
+		Map<String, Privilege> existing = new TreeMap<String, Privilege>(String.CASE_INSENSITIVE_ORDER);
+		for (Privilege obj : dao.getObjectsByProperty(Privilege.class, "uuid", keys)) {
+			existing.put(obj.getUuid(), obj);
+		}
+
+		Map<Privilege, Privilege> matches = new IdentityHashMap<Privilege, Privilege>();
+		for (Privilege obj : objs) {
+			Privilege match = obj.getUuid() != null ? existing.get(obj.getUuid()) : null;
+			if (match != null) {
+				matches.put(obj, match);
+			}
+		}
+		return matches;
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 * @param obj the object to uninstall
@@ -75,6 +125,14 @@ public class PrivilegeDeployHandler extends AbstractObjectDeployHandler<Privileg
 		userService.purgePrivilege(obj);
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.ComparingObjectDeployHandler#updateRequired(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public boolean updateRequired(Privilege incoming, Privilege existing) {
+		return ObjectUtils.differs(incoming, existing, Collections.singleton("uuid"));
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#overwrite(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
 	 */
@@ -21,6 +21,7 @@ import org.openmrs.annotation.Handler;
 import org.openmrs.api.ProgramWorkflowService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.metadatadeploy.handler.AbstractObjectDeployHandler;
+import org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
@@ -30,7 +31,7 @@ import java.util.Date;
  * Deployment handler for programs
  */
 @Handler(supports = { Program.class })
-public class ProgramDeployHandler extends AbstractObjectDeployHandler<Program> {
+public class ProgramDeployHandler extends AbstractObjectDeployHandler<Program> implements AlternateKeyObjectDeployHandler<Program> {
 
 	@Autowired
 	@Qualifier("programWorkflowService")
@@ -66,6 +67,30 @@ public class ProgramDeployHandler extends AbstractObjectDeployHandler<Program> {
 		return null;
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyProperties()
+	 */
+	@Override
+	public String[] getAlternateKeyProperties() {
+		return new String[] { "name" };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#getAlternateKeyValues(org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public Object[] getAlternateKeyValues(Program obj) {
+		return new Object[] { obj.getName() };
+	}
+
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.AlternateKeyObjectDeployHandler#isAlternateKeyCaseSensitive()
+	 */
+	@Override
+	public boolean isAlternateKeyCaseSensitive() {
+		return true;
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#uninstall(org.openmrs.OpenmrsObject, String)
 	 * @param obj the object to uninstall
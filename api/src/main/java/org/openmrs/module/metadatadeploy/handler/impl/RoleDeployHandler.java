@@ -24,6 +24,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Deployment handler for roles
@@ -31,6 +32,11 @@ import java.util.HashSet;
 @Handler(supports = { Role.class })
 public class RoleDeployHandler extends AbstractObjectDeployHandler<Role> {
 
+	/**
+	 * Fields which are never copied from incoming roles
+	 */
+	private static final Set<String> EXCLUDE_FIELDS = new HashSet<String>(Arrays.asList("childRoles", "uuid"));
+
 	@Autowired
 	@Qualifier("userService")
 	private UserService userService;
@@ -76,12 +82,20 @@ public class RoleDeployHandler extends AbstractObjectDeployHandler<Role> {
 		userService.purgeRole(obj);
 	}
 
+	/**
+	 * @see org.openmrs.module.metadatadeploy.handler.ComparingObjectDeployHandler#updateRequired(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
+	 */
+	@Override
+	public boolean updateRequired(Role incoming, Role existing) {
+		return ObjectUtils.differs(incoming, existing, EXCLUDE_FIELDS);
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.handler.ObjectDeployHandler#overwrite(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject)
 	 */
 	@Override
 	public void overwrite(Role incoming, Role existing) {
 		// Do per-field copy of incoming to existing, excluding UUID
-		ObjectUtils.overwrite(incoming, existing, new HashSet<String>(Arrays.asList("childRoles", "uuid")));
+		ObjectUtils.overwrite(incoming, existing, EXCLUDE_FIELDS);
 	}
 }
\ No newline at end of file
@@ -14,20 +14,70 @@
 
 package org.openmrs.module.metadatadeploy.source;
 
-import au.com.bytecode.opencsv.CSVReader;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.openmrs.OpenmrsObject;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 /**
- * Abstract base class for object sources from CSV resources.
+ * Abstract base class for object sources from UTF-8 encoded CSV resources. Values are trimmed and empty values are
+ * converted to nulls before each line is parsed. Resources can be gzip compressed, in which case they are decompressed as
+ * they are read. If the module was built with {@link CsvSnapshotCompiler}, a pre-parsed snapshot of the resource is read
+ * instead, so no CSV parsing is done at all. A snapshot is only used if it was compiled from the current resource.
+ *
+ * By default lines are parsed one at a time as objects are fetched. Large resources can instead be parsed in parallel
+ * by calling {@link #setParallelism(int)}, in which case the resource is split into chunks of whole rows which are
+ * parsed on a pool of worker threads. Objects are still returned in resource order unless {@link #setOrdered(boolean)}
+ * is used to declare that order doesn't matter. In parallel mode {@link #parseLine(String[])} must be thread-safe and
+ * must not access the database, as worker threads have no OpenMRS session.
  */
 public abstract class AbstractCsvResourceSource<T extends OpenmrsObject> implements ObjectSource<T> {
 
-	private CSVReader reader;
+	protected static final Log log = LogFactory.getLog(AbstractCsvResourceSource.class);
+
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	private static final int GZIP_MAGIC = 0x8b1f;
+
+	private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	private RowReader reader;
+
+	private int parallelism = 1;
+
+	private boolean ordered = true;
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	private ThreadPoolExecutor executor;
+
+	private CompletionService<List<T>> completion;
+
+	private LinkedList<Future<List<T>>> pending;
+
+	private Iterator<T> chunk;
+
+	private boolean endOfInput = false;
 
 	/**
 	 * Constructs a new source
@@ -36,8 +86,21 @@ public abstract class AbstractCsvResourceSource<T extends OpenmrsObject> impleme
 	 * @throws IOException if an error occurs
 	 */
 	public AbstractCsvResourceSource(String csvFile, boolean hasHeader) throws IOException {
-		InputStream in = getClass().getClassLoader().getResourceAsStream(csvFile);
-		reader = new CSVReader(new InputStreamReader(in));
+		ClassLoader classLoader = getClass().getClassLoader();
+		URL snapshot = classLoader.getResource(csvFile + CsvSnapshotCompiler.SNAPSHOT_EXTENSION);
+
+		if (snapshot != null) {
+			reader = openSnapshot(classLoader, csvFile, snapshot);
+		}
+
+		if (reader == null) {
+			InputStream in = classLoader.getResourceAsStream(csvFile);
+			if (in == null) {
+				throw new IOException("Unable to find CSV resource " + csvFile);
+			}
+
+			reader = new CsvRowReader(decompress(csvFile, in));
+		}
 
 		// Throw away first line if it's a header
 		if (hasHeader) {
@@ -45,29 +108,119 @@ public abstract class AbstractCsvResourceSource<T extends OpenmrsObject> impleme
 		}
 	}
 
+	/**
+	 * Opens the snapshot of a CSV resource if it was compiled from the current resource. The resource is only read to
+	 * check its length and checksum, which is much cheaper than parsing it.
+	 * @param classLoader the class loader of the resources
+	 * @param csvFile the resource file path
+	 * @param snapshot the snapshot resource URL
+	 * @return the snapshot reader, or null if the snapshot is stale or can't be read
+	 * @throws IOException if an error occurs reading the CSV resource
+	 */
+	protected static RowReader openSnapshot(ClassLoader classLoader, String csvFile, URL snapshot) throws IOException {
+		CsvSnapshotReader snapshotReader;
+		try {
+			snapshotReader = CsvSnapshotReader.open(snapshot);
+		}
+		catch (IOException ex) {
+			log.warn("Ignoring unreadable snapshot of CSV resource " + csvFile + ": " + ex.getMessage());
+			return null;
+		}
+
+		InputStream in = classLoader.getResourceAsStream(csvFile);
+		if (in == null) {
+			// Snapshot has been distributed without its resource
+			return snapshotReader;
+		}
+
+		try {
+			if (snapshotReader.isSnapshotOf(in)) {
+				return snapshotReader;
+			}
+		}
+		finally {
+			in.close();
+		}
+
+		log.warn("Ignoring stale snapshot of CSV resource " + csvFile);
+		return null;
+	}
+
+	/**
+	 * Wraps the given resource stream to decompress it if it's gzip compressed, i.e. if the resource name ends with .gz
+	 * or the stream starts with the gzip magic number
+	 * @param csvFile the resource file path
+	 * @param in the resource stream
+	 * @return the stream to read CSV from
+	 * @throws IOException if an error occurs
+	 */
+	protected static InputStream decompress(String csvFile, InputStream in) throws IOException {
+		if (!csvFile.endsWith(".gz")) {
+			in = new BufferedInputStream(in, CsvRowReader.BUFFER_SIZE);
+			in.mark(2);
+			int magic = in.read() | (in.read() << 8);
+			in.reset();
+
+			if (magic != GZIP_MAGIC) {
+				return in;
+			}
+		}
+
+		return new GZIPInputStream(in, CsvRowReader.BUFFER_SIZE);
+	}
+
+	/**
+	 * Sets the number of threads used to parse lines. Must be called before the first object is fetched.
+	 * @param parallelism the number of threads, where 1 means lines are parsed on the calling thread
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets whether objects must be returned in resource order when parsing in parallel. If not, chunks are returned as
+	 * soon as they are parsed.
+	 * @param ordered true to preserve resource order (the default)
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Sets the number of rows in each chunk when parsing in parallel
+	 * @param chunkSize the number of rows
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+		this.chunkSize = chunkSize;
+	}
+
 	/**
 	 * @see ObjectSource#fetchNext()
 	 */
 	@Override
 	public T fetchNext() throws Exception {
+		if (parallelism > 1) {
+			return fetchNextParsed();
+		}
+
+		// Values are already trimmed, with blank or empty values replaced by nulls
 		String[] line = reader.readNext();
 		if (line == null) {
 			close();
 			return null;
 		}
 
-		// Trim values and replace blank or empty values with nulls
-		for (int c = 0; c < line.length; ++c) {
-			String val = line[c].trim();
-
-			line[c] = StringUtils.isNotEmpty(val) ? val : null;
-		}
-
 		return parseLine(line);
 	}
 
 	/**
-	 * Parses a CSV line into an object
+	 * Parses a CSV line into an object. The line array may be reused for the next line.
 	 * @param line the line
 	 * @return the object
 	 */
@@ -78,6 +231,187 @@ public abstract class AbstractCsvResourceSource<T extends OpenmrsObject> impleme
 	 * @throws IOException if an error occurs
 	 */
 	protected void close() throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
 		reader.close();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Fetches the next object parsed by the worker threads
+	 * @return the object or null if there are no more
+	 * @throws Exception if reading or parsing fails
+	 */
+	protected T fetchNextParsed() throws Exception {
+		if (executor == null) {
+			startWorkers();
+		}
+
+		while (chunk == null || !chunk.hasNext()) {
+			submitChunks();
+
+			if (pending.isEmpty()) {
+				close();
+				return null;
+			}
+
+			chunk = takeChunk().iterator();
+		}
+
+		return chunk.next();
+	}
+
+	/**
+	 * Creates the worker thread pool. Idle threads time out, so the pool doesn't outlive a source which isn't read to
+	 * the end.
+	 */
+	protected void startWorkers() {
+		executor = new ThreadPoolExecutor(parallelism, parallelism, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "metadatadeploy-csv-" + threadNumber.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+
+		completion = new ExecutorCompletionService<List<T>>(executor);
+		pending = new LinkedList<Future<List<T>>>();
+	}
+
+	/**
+	 * Reads and submits chunks until enough are in flight to keep all worker threads busy, or the end of the resource
+	 * is reached
+	 * @throws IOException if an error occurs
+	 */
+	protected void submitChunks() throws IOException {
+		while (!endOfInput && pending.size() < parallelism * 2) {
+			ChunkTask task = readChunk();
+
+			if (task != null) {
+				// Ordered chunks are taken directly from their futures so don't go through the completion queue
+				pending.add(ordered ? executor.submit(task) : completion.submit(task));
+			}
+		}
+	}
+
+	/**
+	 * Reads the next chunk of rows. Rows from CSV are kept as text so that tokenizing happens on the worker thread,
+	 * whereas rows from a snapshot are already tokenized.
+	 * @return the task to parse the chunk, or null if there are no more rows
+	 * @throws IOException if an error occurs
+	 */
+	protected ChunkTask readChunk() throws IOException {
+		ChunkTask task = null;
+		int rows = 0;
+
+		if (reader instanceof CsvRowReader) {
+			StringBuilder text = new StringBuilder();
+			while (rows < chunkSize && ((CsvRowReader) reader).readRecord(text)) {
+				++rows;
+			}
+			if (rows > 0) {
+				task = new ChunkTask(text.toString(), rows);
+			}
+		}
+		else {
+			List<String[]> lines = new ArrayList<String[]>(chunkSize);
+			String[] line;
+			while (rows < chunkSize && (line = reader.readNext()) != null) {
+				lines.add(line.clone());
+				++rows;
+			}
+			if (rows > 0) {
+				task = new ChunkTask(lines);
+			}
+		}
+
+		if (rows < chunkSize) {
+			endOfInput = true;
+		}
+		return task;
+	}
+
+	/**
+	 * Takes the next parsed chunk, i.e. the oldest if order is preserved, otherwise the first to complete
+	 * @return the parsed objects
+	 * @throws Exception if parsing of the chunk failed
+	 */
+	protected List<T> takeChunk() throws Exception {
+		Future<List<T>> future;
+		if (ordered) {
+			future = pending.removeFirst();
+		}
+		else {
+			future = completion.take();
+			pending.remove(future);
+		}
+
+		try {
+			return future.get();
+		}
+		catch (ExecutionException ex) {
+			close();
+
+			Throwable cause = ex.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * Parses a chunk of rows on a worker thread
+	 */
+	protected class ChunkTask implements Callable<List<T>> {
+
+		private String text;
+
+		private List<String[]> lines;
+
+		private int rows;
+
+		/**
+		 * Creates a new task to tokenize and parse CSV text
+		 * @param text the unparsed rows
+		 * @param rows the number of rows
+		 */
+		public ChunkTask(String text, int rows) {
+			this.text = text;
+			this.rows = rows;
+		}
+
+		/**
+		 * Creates a new task to parse tokenized rows
+		 * @param lines the rows
+		 */
+		public ChunkTask(List<String[]> lines) {
+			this.lines = lines;
+			this.rows = lines.size();
+		}
+
+		/**
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public List<T> call() throws Exception {
+			List<T> objects = new ArrayList<T>(rows);
+
+			if (lines != null) {
+				for (String[] line : lines) {
+					objects.add(parseLine(line));
+				}
+			}
+			else {
+				CsvRowReader chunkReader = new CsvRowReader(new StringReader(text));
+				String[] line;
+				while ((line = chunkReader.readNext()) != null) {
+					objects.add(parseLine(line));
+				}
+			}
+			return objects;
+		}
+	}
+}
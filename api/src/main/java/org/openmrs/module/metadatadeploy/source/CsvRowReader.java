@@ -0,0 +1,335 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reader of CSV rows which parses the same format as opencsv's CSVReader with its default settings, i.e. comma
+ * separated values, double quote characters, doubled quotes or backslashes to escape quotes, and quoted values which can
+ * span multiple lines. Unlike CSVReader, values are trimmed and empty values are returned as nulls, and no strings are
+ * created for empty values.
+ *
+ * Input is read in blocks into a character buffer rather than a character at a time, and lines are copied into a
+ * reusable line buffer. Each row is returned as a new array unless row reuse is enabled.
+ */
+public class CsvRowReader implements RowReader {
+
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final char SEPARATOR = ',';
+
+	private static final char QUOTE = '"';
+
+	private static final char ESCAPE = '\\';
+
+	private final Reader reader;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+
+	private int bufferPosition;
+
+	private int bufferLimit;
+
+	private boolean skipLineFeed = false;
+
+	private char[] line = new char[256];
+
+	private int lineLength;
+
+	private boolean endOfInput = false;
+
+	private final StringBuilder value = new StringBuilder(64);
+
+	private String[] values = new String[16];
+
+	private int valueCount;
+
+	private String[] row;
+
+	private boolean reuseRows = false;
+
+	/**
+	 * Creates a new reader of UTF-8 encoded CSV
+	 * @param in the input stream
+	 */
+	public CsvRowReader(InputStream in) {
+		this(new InputStreamReader(in, UTF8));
+	}
+
+	/**
+	 * Creates a new reader
+	 * @param reader the underlying reader
+	 */
+	public CsvRowReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Sets whether the returned row array is reused if the next row has the same number of values. This avoids an
+	 * allocation per row, but callers mustn't keep a reference to a row after reading the next one.
+	 * @param reuseRows true to reuse row arrays
+	 */
+	public void setReuseRows(boolean reuseRows) {
+		this.reuseRows = reuseRows;
+	}
+
+	/**
+	 * @see RowReader#readNext()
+	 */
+	@Override
+	public String[] readNext() throws IOException {
+		if (!readLine()) {
+			return null;
+		}
+
+		valueCount = 0;
+		value.setLength(0);
+
+		boolean inQuotes = scanLine(false, true);
+
+		// A quoted value continues onto the next line
+		while (inQuotes && readLine()) {
+			value.append('\n');
+			inQuotes = scanLine(true, true);
+		}
+
+		addValue();
+
+		if (!reuseRows || row == null || row.length != valueCount) {
+			row = new String[valueCount];
+		}
+		System.arraycopy(values, 0, row, 0, valueCount);
+		return row;
+	}
+
+	/**
+	 * Reads the unparsed text of the next row, i.e. all of the lines up to the end of the row, each followed by \n.
+	 * Quoted values spanning multiple lines are kept together, so the text can later be parsed by another reader.
+	 * @param out the buffer to append the text to
+	 * @return false if there are no more rows
+	 * @throws IOException if an error occurs
+	 */
+	public boolean readRecord(StringBuilder out) throws IOException {
+		if (!readLine()) {
+			return false;
+		}
+
+		out.append(line, 0, lineLength).append('\n');
+		boolean inQuotes = scanLine(false, false);
+
+		while (inQuotes && readLine()) {
+			out.append(line, 0, lineLength).append('\n');
+			inQuotes = scanLine(true, false);
+		}
+		return true;
+	}
+
+	/**
+	 * Closes the underlying reader
+	 * @throws IOException if an error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Scans the current line, optionally collecting its values
+	 * @param inQuotes whether the line continues a quoted value from the previous line
+	 * @param collect true to collect values, false to only track whether the row continues
+	 * @return whether a quoted value continues onto the next line
+	 */
+	private boolean scanLine(boolean inQuotes, boolean collect) {
+		boolean inField = false;
+
+		for (int i = 0; i < lineLength; ++i) {
+			char c = line[i];
+
+			if (c == ESCAPE) {
+				// As with CSVReader, a backslash which doesn't escape anything is dropped
+				if (isEscapable(i, inQuotes || inField)) {
+					if (collect) {
+						value.append(line[i + 1]);
+					}
+					++i;
+				}
+			}
+			else if (c == QUOTE) {
+				if ((inQuotes || inField) && i + 1 < lineLength && line[i + 1] == QUOTE) {
+					if (collect) {
+						value.append(QUOTE);
+					}
+					++i;
+				}
+				else {
+					// A quote in the middle of an unquoted value is kept, unless preceded only by whitespace
+					if (collect && i > 2 && line[i - 1] != SEPARATOR && i + 1 < lineLength && line[i + 1] != SEPARATOR) {
+						if (value.length() > 0 && isAllWhitespace(value)) {
+							value.setLength(0);
+						}
+						else {
+							value.append(c);
+						}
+					}
+					inQuotes = !inQuotes;
+				}
+				inField = !inField;
+			}
+			else if (c == SEPARATOR && !inQuotes) {
+				if (collect) {
+					addValue();
+				}
+				inField = false;
+			}
+			else {
+				if (collect) {
+					value.append(c);
+				}
+				inField = true;
+			}
+		}
+
+		return inQuotes;
+	}
+
+	/**
+	 * Reads the next physical line into the line buffer, excluding the line terminator (\n, \r or \r\n)
+	 * @return false if there are no more lines
+	 * @throws IOException if an error occurs
+	 */
+	protected boolean readLine() throws IOException {
+		if (endOfInput) {
+			return false;
+		}
+
+		lineLength = 0;
+
+		while (true) {
+			if (bufferPosition == bufferLimit && !fillBuffer()) {
+				endOfInput = true;
+				return lineLength > 0;
+			}
+
+			// Previous line ended with \r, which may have been the first half of \r\n
+			if (skipLineFeed) {
+				skipLineFeed = false;
+				if (buffer[bufferPosition] == '\n') {
+					++bufferPosition;
+					continue;
+				}
+			}
+
+			int start = bufferPosition;
+			while (bufferPosition < bufferLimit) {
+				char c = buffer[bufferPosition];
+				if (c == '\n' || c == '\r') {
+					appendToLine(start, bufferPosition);
+					++bufferPosition;
+					skipLineFeed = c == '\r';
+					return true;
+				}
+				++bufferPosition;
+			}
+			appendToLine(start, bufferPosition);
+		}
+	}
+
+	/**
+	 * Reads the next block of input into the character buffer
+	 * @return false if there is no more input
+	 * @throws IOException if an error occurs
+	 */
+	private boolean fillBuffer() throws IOException {
+		int count;
+		do {
+			count = reader.read(buffer, 0, buffer.length);
+		}
+		while (count == 0);
+
+		bufferPosition = 0;
+		bufferLimit = Math.max(count, 0);
+		return count > 0;
+	}
+
+	/**
+	 * Appends characters from the character buffer to the line buffer
+	 * @param start the start position in the character buffer
+	 * @param end the end position (exclusive)
+	 */
+	private void appendToLine(int start, int end) {
+		int count = end - start;
+		if (lineLength + count > line.length) {
+			line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + count));
+		}
+		System.arraycopy(buffer, start, line, lineLength, count);
+		lineLength += count;
+	}
+
+	/**
+	 * Checks whether the character after the given position can be escaped
+	 * @param i the position of the escape character
+	 * @param inQuotesOrField whether parsing is inside a quoted value or a field
+	 * @return true if next character is a quote or escape character
+	 */
+	private boolean isEscapable(int i, boolean inQuotesOrField) {
+		return inQuotesOrField && i + 1 < lineLength && (line[i + 1] == QUOTE || line[i + 1] == ESCAPE);
+	}
+
+	/**
+	 * Adds the current value to the row, trimmed and as null if empty
+	 */
+	private void addValue() {
+		int start = 0;
+		int end = value.length();
+
+		// Same definition of whitespace as String.trim()
+		while (start < end && value.charAt(start) <= ' ') {
+			++start;
+		}
+		while (end > start && value.charAt(end - 1) <= ' ') {
+			--end;
+		}
+
+		if (valueCount == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
+		}
+		values[valueCount++] = start < end ? value.substring(start, end) : null;
+
+		value.setLength(0);
+	}
+
+	/**
+	 * Checks whether the given characters are all whitespace
+	 * @param chars the characters
+	 * @return true if all whitespace
+	 */
+	private static boolean isAllWhitespace(CharSequence chars) {
+		for (int c = 0; c < chars.length(); ++c) {
+			if (!Character.isWhitespace(chars.charAt(c))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compiles CSV resources into binary snapshots which can be read by {@link CsvSnapshotReader}, so that
+ * {@link AbstractCsvResourceSource} doesn't need to parse CSV at runtime. The snapshot of a resource is written next to
+ * it, with .bin appended to its name. Snapshots record the length and checksum of their resource, and a snapshot which
+ * doesn't match its resource is ignored, so a stale snapshot only costs the time spent checking it.
+ *
+ * Usage: CsvSnapshotCompiler directory resource...
+ *
+ * Resource paths are relative to the directory, and should be the same paths as are passed to the constructors of the
+ * module's CSV sources. A module would usually compile its snapshots after its resources have been copied to its
+ * output directory, e.g.
+ *
+ * <pre>{@code
+ * <plugin>
+ *   <groupId>org.codehaus.mojo</groupId>
+ *   <artifactId>exec-maven-plugin</artifactId>
+ *   <executions>
+ *     <execution>
+ *       <id>compile-csv-snapshots</id>
+ *       <phase>process-classes</phase>
+ *       <goals><goal>java</goal></goals>
+ *       <configuration>
+ *         <mainClass>org.openmrs.module.metadatadeploy.source.CsvSnapshotCompiler</mainClass>
+ *         <arguments>
+ *           <argument>${project.build.outputDirectory}</argument>
+ *           <argument>metadata/locations.csv</argument>
+ *         </arguments>
+ *       </configuration>
+ *     </execution>
+ *   </executions>
+ * </plugin>
+ * }</pre>
+ *
+ * This module's own build compiles a snapshot of one of its test resources in the same way, in the
+ * process-test-classes phase.
+ */
+public class CsvSnapshotCompiler {
+
+	protected static final Log log = LogFactory.getLog(CsvSnapshotCompiler.class);
+
+	public static final String SNAPSHOT_EXTENSION = ".bin";
+
+	/**
+	 * Main entry point
+	 * @param args the directory followed by the resource paths
+	 * @throws IOException if an error occurs
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: CsvSnapshotCompiler directory resource...");
+		}
+
+		File directory = new File(args[0]);
+
+		for (int a = 1; a < args.length; ++a) {
+			compile(directory, args[a]);
+			log.info("Compiled CSV snapshot of " + args[a]);
+		}
+	}
+
+	/**
+	 * Compiles a CSV resource to its snapshot file
+	 * @param directory the base directory
+	 * @param resource the resource path
+	 * @throws IOException if an error occurs
+	 */
+	public static void compile(File directory, String resource) throws IOException {
+		File csvFile = new File(directory, resource);
+		File snapshotFile = new File(directory, resource + SNAPSHOT_EXTENSION);
+
+		CRC32 checksum = new CRC32();
+		long length;
+		InputStream in = new FileInputStream(csvFile);
+		try {
+			length = CsvSnapshotReader.checksum(in, checksum);
+		}
+		finally {
+			in.close();
+		}
+
+		CsvRowReader reader = new CsvRowReader(AbstractCsvResourceSource.decompress(resource, new FileInputStream(csvFile)));
+		reader.setReuseRows(true);
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(snapshotFile), CsvRowReader.BUFFER_SIZE);
+		try {
+			compile(reader, length, checksum.getValue(), out);
+		}
+		finally {
+			reader.close();
+			out.close();
+		}
+	}
+
+	/**
+	 * Compiles all rows from the given reader into a snapshot. The header row, if there is one, is included so that
+	 * sources can skip it as usual.
+	 * @param reader the CSV row reader
+	 * @param sourceLength the length in bytes of the source resource
+	 * @param sourceChecksum the CRC-32 checksum of the source resource
+	 * @param out the snapshot output stream
+	 * @throws IOException if an error occurs
+	 */
+	public static void compile(RowReader reader, long sourceLength, long sourceChecksum, OutputStream out) throws IOException {
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<String> values = new ArrayList<String>();
+		List<int[]> rows = new ArrayList<int[]>();
+		int columnCount = 0;
+
+		String[] row;
+		while ((row = reader.readNext()) != null) {
+			int[] refs = new int[row.length];
+
+			for (int c = 0; c < row.length; ++c) {
+				if (row[c] != null) {
+					Integer index = dictionary.get(row[c]);
+					if (index == null) {
+						index = values.size();
+						dictionary.put(row[c], index);
+						values.add(row[c]);
+					}
+					refs[c] = index + 1;
+				}
+			}
+
+			rows.add(refs);
+			columnCount = Math.max(columnCount, row.length);
+		}
+
+		// Encode each column separately so that their sizes can go in the header
+		ByteArrayOutputStream[] columns = new ByteArrayOutputStream[columnCount];
+		for (int c = 0; c < columnCount; ++c) {
+			columns[c] = new ByteArrayOutputStream();
+			for (int[] refs : rows) {
+				writeVarint(columns[c], c < refs.length ? refs[c] : 0);
+			}
+		}
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(CsvSnapshotReader.MAGIC);
+		data.writeInt(CsvSnapshotReader.VERSION);
+		data.writeLong(sourceLength);
+		data.writeInt((int) sourceChecksum);
+		data.writeInt(rows.size());
+		data.writeInt(columnCount);
+		data.writeInt(values.size());
+		for (ByteArrayOutputStream column : columns) {
+			data.writeInt(column.size());
+		}
+
+		for (String value : values) {
+			byte[] bytes = value.getBytes(CsvRowReader.UTF8);
+			writeVarint(data, bytes.length);
+			data.write(bytes);
+		}
+
+		for (int[] refs : rows) {
+			writeVarint(data, refs.length);
+		}
+
+		for (ByteArrayOutputStream column : columns) {
+			column.writeTo(data);
+		}
+
+		data.flush();
+	}
+
+	/**
+	 * Writes an unsigned varint
+	 * @param out the output stream
+	 * @param value the value
+	 * @throws IOException if an error occurs
+	 */
+	private static void writeVarint(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+}
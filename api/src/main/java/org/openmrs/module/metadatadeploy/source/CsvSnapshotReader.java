@@ -0,0 +1,267 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reader of rows from a binary snapshot of a CSV resource, as written by {@link CsvSnapshotCompiler}. A snapshot holds
+ * already tokenized rows, so reading one involves no CSV parsing.
+ *
+ * The format is columnar: a header, a dictionary of the distinct values, the width of each row, then for each column
+ * the dictionary references of its values. The header also records the length and CRC-32 checksum of the source
+ * resource, so that a snapshot which is older than its resource can be detected. The source length is 8 bytes and other
+ * integers in the header are 4 bytes, all big-endian. All other numbers are unsigned varints, and references are 0 for
+ * null or the dictionary index plus one.
+ *
+ * <pre>
+ * magic, version, source length, source checksum, row count, column count, dictionary size, size of each column in bytes
+ * dictionary: for each value, the UTF-8 byte length followed by the bytes
+ * row widths
+ * columns
+ * </pre>
+ *
+ * Each distinct value is decoded once, so reading rows allocates nothing more than the returned row arrays, which can
+ * also be reused by calling {@link #setReuseRows(boolean)}.
+ */
+public class CsvSnapshotReader implements RowReader {
+
+	public static final int MAGIC = 0x4D444353;
+
+	public static final int VERSION = 2;
+
+	private final ByteBuffer buffer;
+
+	private final long sourceLength;
+
+	private final long sourceChecksum;
+
+	private final int rowCount;
+
+	private final String[] dictionary;
+
+	private int widthsPosition;
+
+	private final int[] columnPositions;
+
+	private int rowsRead = 0;
+
+	private String[] row;
+
+	private boolean reuseRows = false;
+
+	/**
+	 * Creates a new reader
+	 * @param buffer the snapshot
+	 * @throws IOException if the buffer isn't a valid snapshot
+	 */
+	public CsvSnapshotReader(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a CSV snapshot");
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported CSV snapshot version " + version);
+		}
+
+		sourceLength = buffer.getLong();
+		sourceChecksum = buffer.getInt() & 0xFFFFFFFFL;
+		rowCount = buffer.getInt();
+		int columnCount = buffer.getInt();
+		int dictionarySize = buffer.getInt();
+
+		int[] columnSizes = new int[columnCount];
+		for (int c = 0; c < columnCount; ++c) {
+			columnSizes[c] = buffer.getInt();
+		}
+
+		dictionary = new String[dictionarySize];
+		byte[] bytes = new byte[256];
+		for (int d = 0; d < dictionarySize; ++d) {
+			int length = readVarint();
+			if (length > bytes.length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			buffer.get(bytes, 0, length);
+			dictionary[d] = new String(bytes, 0, length, CsvRowReader.UTF8);
+		}
+
+		// Skip over the row widths to find where each column starts
+		widthsPosition = buffer.position();
+		for (int r = 0; r < rowCount; ++r) {
+			readVarint();
+		}
+
+		columnPositions = new int[columnCount];
+		int position = buffer.position();
+		for (int c = 0; c < columnCount; ++c) {
+			columnPositions[c] = position;
+			position += columnSizes[c];
+		}
+
+		buffer.position(widthsPosition);
+	}
+
+	/**
+	 * Opens a snapshot resource. Snapshots on the file system are memory-mapped, otherwise (e.g. if they are inside a
+	 * jar) they are read into memory.
+	 * @param url the resource URL
+	 * @return the reader
+	 * @throws IOException if an error occurs
+	 */
+	public static CsvSnapshotReader open(URL url) throws IOException {
+		if ("file".equals(url.getProtocol())) {
+			FileInputStream in;
+			try {
+				in = new FileInputStream(new File(url.toURI()));
+			}
+			catch (URISyntaxException ex) {
+				throw new IOException("Invalid snapshot URL " + url);
+			}
+
+			try {
+				FileChannel channel = in.getChannel();
+				return new CsvSnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+			}
+			finally {
+				// Mapping remains valid after the channel is closed
+				in.close();
+			}
+		}
+
+		InputStream in = url.openStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(CsvRowReader.BUFFER_SIZE);
+			byte[] chunk = new byte[CsvRowReader.BUFFER_SIZE];
+			int count;
+			while ((count = in.read(chunk)) != -1) {
+				out.write(chunk, 0, count);
+			}
+			return new CsvSnapshotReader(ByteBuffer.wrap(out.toByteArray()));
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks whether this snapshot was compiled from the given source, by comparing the length and checksum of its bytes
+	 * with those recorded when the snapshot was compiled
+	 * @param source the source resource stream, which is read to the end but not closed
+	 * @return true if the snapshot matches the source
+	 * @throws IOException if an error occurs
+	 */
+	public boolean isSnapshotOf(InputStream source) throws IOException {
+		CRC32 checksum = new CRC32();
+		long length = checksum(source, checksum);
+		return length == sourceLength && checksum.getValue() == sourceChecksum;
+	}
+
+	/**
+	 * Sets whether the returned row array is reused if the next row has the same number of values. Callers mustn't keep
+	 * a reference to a row after reading the next one if this is enabled.
+	 * @param reuseRows true to reuse row arrays
+	 */
+	public void setReuseRows(boolean reuseRows) {
+		this.reuseRows = reuseRows;
+	}
+
+	/**
+	 * @see RowReader#readNext()
+	 */
+	@Override
+	public String[] readNext() throws IOException {
+		if (rowsRead == rowCount) {
+			return null;
+		}
+
+		buffer.position(widthsPosition);
+		int width = readVarint();
+		widthsPosition = buffer.position();
+
+		if (!reuseRows || row == null || row.length != width) {
+			row = new String[width];
+		}
+
+		// Every column has an entry for every row, so all column positions advance
+		for (int c = 0; c < columnPositions.length; ++c) {
+			buffer.position(columnPositions[c]);
+			int ref = readVarint();
+			columnPositions[c] = buffer.position();
+
+			if (c < width) {
+				row[c] = ref == 0 ? null : dictionary[ref - 1];
+			}
+		}
+
+		++rowsRead;
+		return row;
+	}
+
+	/**
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		rowsRead = rowCount;
+	}
+
+	/**
+	 * Updates a checksum with all of the bytes of a stream
+	 * @param in the input stream, which is read to the end but not closed
+	 * @param checksum the checksum
+	 * @return the number of bytes read
+	 * @throws IOException if an error occurs
+	 */
+	public static long checksum(InputStream in, CRC32 checksum) throws IOException {
+		byte[] chunk = new byte[CsvRowReader.BUFFER_SIZE];
+		long length = 0;
+		int count;
+		while ((count = in.read(chunk)) != -1) {
+			checksum.update(chunk, 0, count);
+			length += count;
+		}
+		return length;
+	}
+
+	/**
+	 * Reads an unsigned varint at the current buffer position
+	 * @return the value
+	 */
+	private int readVarint() {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while (b < 0);
+		return value;
+	}
+}
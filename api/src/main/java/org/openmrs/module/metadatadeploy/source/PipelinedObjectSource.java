@@ -0,0 +1,160 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.OpenmrsObject;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Object source which fetches objects from another source on a separate producer thread, handing them over through a
+ * bounded queue. This lets parsing of the next objects overlap with installation of the previous ones. The producer
+ * blocks when the queue is full, so it can only get so far ahead of the consumer.
+ *
+ * The producer thread has no OpenMRS session, so the underlying source must not access the database, e.g. a CSV source
+ * whose parseLine(...) method looks up existing metadata can't be pipelined.
+ */
+public class PipelinedObjectSource<T extends OpenmrsObject> implements ObjectSource<T>, Closeable {
+
+	protected static final Log log = LogFactory.getLog(PipelinedObjectSource.class);
+
+	/**
+	 * Marks the end of the queue
+	 */
+	private static final Object END = new Object();
+
+	private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	private final ObjectSource<T> source;
+
+	private final BlockingQueue<Object> queue;
+
+	private Thread producer;
+
+	private volatile Throwable error;
+
+	private volatile boolean closed = false;
+
+	private boolean finished = false;
+
+	/**
+	 * Creates a new pipelined source
+	 * @param source the underlying source
+	 * @param capacity the maximum number of fetched objects waiting to be consumed
+	 */
+	public PipelinedObjectSource(ObjectSource<T> source, int capacity) {
+		this.source = source;
+		this.queue = new ArrayBlockingQueue<Object>(capacity);
+	}
+
+	/**
+	 * @see ObjectSource#fetchNext()
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized T fetchNext() throws Exception {
+		if (finished) {
+			return null;
+		}
+		if (closed) {
+			throw new IllegalStateException("Source has been closed");
+		}
+		if (producer == null) {
+			startProducer();
+		}
+
+		Object next = queue.take();
+
+		if (next == END) {
+			finished = true;
+
+			if (error instanceof Exception) {
+				throw (Exception) error;
+			}
+			else if (error instanceof Error) {
+				throw (Error) error;
+			}
+			return null;
+		}
+
+		return (T) next;
+	}
+
+	/**
+	 * Closes this source, stopping the producer thread if it's still running. This should be called if the consumer
+	 * stops fetching before the end of the source.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+
+		if (producer != null) {
+			producer.interrupt();
+		}
+		queue.clear();
+	}
+
+	/**
+	 * Starts the producer thread
+	 */
+	protected void startProducer() {
+		producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		}, "metadatadeploy-source-" + threadNumber.getAndIncrement());
+
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Fetches all objects from the underlying source into the queue, followed by the end marker
+	 */
+	protected void produce() {
+		try {
+			T obj;
+			while ((obj = source.fetchNext()) != null) {
+				queue.put(obj);
+			}
+		}
+		catch (InterruptedException ex) {
+			// Source has been closed
+			return;
+		}
+		catch (Throwable t) {
+			if (closed) {
+				return;
+			}
+
+			log.debug("Pipelined source failed", t);
+			error = t;
+		}
+
+		try {
+			queue.put(END);
+		}
+		catch (InterruptedException ex) {
+			// Source has been closed
+		}
+	}
+}
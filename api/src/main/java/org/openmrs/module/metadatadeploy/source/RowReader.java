@@ -0,0 +1,32 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Interface for a reader of tabular rows, e.g. from a CSV resource
+ */
+public interface RowReader extends Closeable {
+
+	/**
+	 * Reads the next row. A new array is returned for each row unless the implementation has been configured otherwise.
+	 * @return the trimmed values, with empty values as nulls, or null if there are no more rows
+	 * @throws IOException if an error occurs
+	 */
+	String[] readNext() throws IOException;
+}
@@ -0,0 +1,211 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsMetadata;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
+import org.openmrs.module.metadatadeploy.source.ObjectSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synchronization runner which commits every chunk of source objects in its own transaction, recording a checkpoint
+ * after each. If a synchronization fails, running it again with the same name resumes after the last committed chunk.
+ * Existing objects not found in the source are only retired after a complete pass of the source, after which the
+ * checkpoint is deleted.
+ *
+ * Chunks can only be committed independently if this is run outside of an existing transaction, e.g. not from
+ * within a bundle's install method. As the session is cleared after each chunk, this requires an indexed
+ * synchronization. If it is run inside an existing transaction, chunks join that transaction instead, so no checkpoints
+ * are saved and the session isn't cleared, as neither the chunks nor the caller's objects have been committed. An
+ * existing checkpoint is still resumed from, as its chunks were committed by an earlier run.
+ */
+public class ChunkedSynchronizationRunner<T extends OpenmrsMetadata> extends MetadataSynchronizationRunner<T> {
+
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	protected String name;
+
+	protected int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	protected SyncCheckpointStore checkpointStore;
+
+	protected PlatformTransactionManager transactionManager;
+
+	/**
+	 * Creates a new chunked synchronization process
+	 * @param name the unique name of this synchronization, used to store its checkpoint
+	 * @param source the object source
+	 * @param sync the synchronization
+	 */
+	public ChunkedSynchronizationRunner(String name, ObjectSource<T> source, IndexedObjectSynchronization<T> sync) {
+		super(source, sync);
+		this.name = name;
+	}
+
+	/**
+	 * Sets the number of source objects to commit in each transaction
+	 * @param chunkSize the number of objects
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the checkpoint store. Defaults to files in the application data directory.
+	 * @param checkpointStore the checkpoint store
+	 */
+	public void setCheckpointStore(SyncCheckpointStore checkpointStore) {
+		this.checkpointStore = checkpointStore;
+	}
+
+	/**
+	 * Sets the transaction manager. Defaults to the registered transaction manager.
+	 * @param transactionManager the transaction manager
+	 */
+	public void setTransactionManager(PlatformTransactionManager transactionManager) {
+		this.transactionManager = transactionManager;
+	}
+
+	/**
+	 * @see MetadataSynchronizationRunner#run()
+	 */
+	@Override
+	public SyncResult<T> run() {
+		final MetadataDeployService deployService = Context.getService(MetadataDeployService.class);
+
+		if (checkpointStore == null) {
+			checkpointStore = new FileSyncCheckpointStore();
+		}
+		if (transactionManager == null) {
+			transactionManager = Context.getRegisteredComponents(PlatformTransactionManager.class).get(0);
+		}
+
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+		boolean independentChunks = !TransactionSynchronizationManager.isActualTransactionActive();
+		if (!independentChunks) {
+			log.warn("Synchronization '" + name + "' is running inside an existing transaction so won't save checkpoints");
+		}
+
+		try {
+			SyncCheckpoint checkpoint = checkpointStore.load(name);
+			if (checkpoint == null) {
+				checkpoint = new SyncCheckpoint();
+			}
+			else {
+				log.info("Resuming synchronization '" + name + "' after " + checkpoint.getPosition() + " objects");
+			}
+
+			initializeIndex(deployService);
+
+			// Objects committed before a previous failure have already been synchronized
+			for (Map.Entry<Object, SyncIndexEntry> entry : keyIndex.entrySet()) {
+				if (checkpoint.isSynced(entry.getKey())) {
+					entry.getValue().setSynced(true);
+				}
+			}
+
+			skip(checkpoint.getPosition());
+
+			List<T> chunk;
+			while (!(chunk = fetchChunk()).isEmpty()) {
+				final List<T> incoming = chunk;
+
+				List<Object> syncKeys = transactionTemplate.execute(new TransactionCallback<List<Object>>() {
+					@Override
+					public List<Object> doInTransaction(TransactionStatus status) {
+						List<Object> keys = new ArrayList<Object>(incoming.size());
+						for (T obj : incoming) {
+							keys.add(synchronizeNext(deployService, obj));
+						}
+						return keys;
+					}
+				});
+
+				if (independentChunks) {
+					checkpoint.setPosition(checkpoint.getPosition() + incoming.size());
+					for (Object syncKey : syncKeys) {
+						checkpoint.addSyncedKey(syncKey);
+					}
+					checkpointStore.save(name, checkpoint);
+
+					// Committed objects are no longer needed in the session
+					Context.flushSession();
+					Context.clearSession();
+				}
+			}
+
+			transactionTemplate.execute(new TransactionCallback<Object>() {
+				@Override
+				public Object doInTransaction(TransactionStatus status) {
+					retireIndexedNotInSource(deployService);
+					return null;
+				}
+			});
+
+			checkpointStore.delete(name);
+		}
+		catch (APIException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			throw new APIException("Synchronization '" + name + "' failed", ex);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Skips source objects which were committed by a previous run
+	 * @param count the number of objects to skip
+	 * @throws Exception if an error occurs
+	 */
+	protected void skip(long count) throws Exception {
+		for (long skipped = 0; skipped < count; ++skipped) {
+			if (source.fetchNext() == null) {
+				throw new APIException("Source has fewer objects than the checkpoint of synchronization '" + name + "'");
+			}
+		}
+	}
+
+	/**
+	 * Fetches the next chunk of source objects. This is done outside of a transaction so that a failing source can't
+	 * roll back anything.
+	 * @return the objects (empty at the end of the source)
+	 * @throws Exception if an error occurs
+	 */
+	protected List<T> fetchChunk() throws Exception {
+		List<T> chunk = new ArrayList<T>(chunkSize);
+		T next;
+		while (chunk.size() < chunkSize && (next = source.fetchNext()) != null) {
+			chunk.add(next);
+		}
+		return chunk;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsMetadata;
+
+import java.util.List;
+
+/**
+ * Synchronization result which counts created, updated and retired objects but only keeps a bounded sample of each,
+ * so that memory use doesn't grow with the size of the synchronization. Each object can also be passed on to another
+ * listener, e.g. to stream details to a file. The lists returned by {@link #getCreated()} etc. only contain the
+ * sampled objects.
+ */
+public class CountingSyncResult<T extends OpenmrsMetadata> extends SyncResult<T> {
+
+	private int sampleSize;
+
+	private SyncListener<? super T> listener;
+
+	private int createdCount = 0;
+
+	private int updatedCount = 0;
+
+	private int retiredCount = 0;
+
+	/**
+	 * Creates a new result
+	 * @param sampleSize the maximum number of objects to keep for each outcome (may be zero)
+	 */
+	public CountingSyncResult(int sampleSize) {
+		this(sampleSize, null);
+	}
+
+	/**
+	 * Creates a new result
+	 * @param sampleSize the maximum number of objects to keep for each outcome (may be zero)
+	 * @param listener the listener to pass each object on to (may be null)
+	 */
+	public CountingSyncResult(int sampleSize, SyncListener<? super T> listener) {
+		this.sampleSize = sampleSize;
+		this.listener = listener;
+	}
+
+	/**
+	 * @see SyncResult#getCreatedCount()
+	 */
+	@Override
+	public int getCreatedCount() {
+		return createdCount;
+	}
+
+	/**
+	 * @see SyncResult#getUpdatedCount()
+	 */
+	@Override
+	public int getUpdatedCount() {
+		return updatedCount;
+	}
+
+	/**
+	 * @see SyncResult#getRetiredCount()
+	 */
+	@Override
+	public int getRetiredCount() {
+		return retiredCount;
+	}
+
+	/**
+	 * @see SyncListener#objectSynced(org.openmrs.OpenmrsMetadata, SyncOutcome)
+	 */
+	@Override
+	public void objectSynced(T obj, SyncOutcome outcome) {
+		switch (outcome) {
+			case CREATED:
+				++createdCount;
+				break;
+			case UPDATED:
+				++updatedCount;
+				break;
+			case RETIRED:
+				++retiredCount;
+				break;
+		}
+
+		List<T> sample = getObjects(outcome);
+		if (sample.size() < sampleSize) {
+			sample.add(obj);
+		}
+
+		if (listener != null) {
+			listener.objectSynced(obj, outcome);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.util.OpenmrsUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Stores synchronization checkpoints as files in a directory, by default in the application data directory. Each file
+ * is a log of records, each holding a position followed by the keys synced since the previous record, so saving a
+ * checkpoint after each chunk only appends that chunk's keys. A record which was only partly written before a crash is
+ * ignored when loading, and the next save then replaces the whole file atomically.
+ */
+public class FileSyncCheckpointStore implements SyncCheckpointStore {
+
+	public static final String DEFAULT_DIRECTORY = "metadatadeploy" + File.separator + "sync";
+
+	private File directory;
+
+	/**
+	 * Creates a new store in the default directory
+	 */
+	public FileSyncCheckpointStore() {
+		this(OpenmrsUtil.getDirectoryInApplicationDataDirectory(DEFAULT_DIRECTORY));
+	}
+
+	/**
+	 * Creates a new store in the given directory
+	 * @param directory the directory
+	 */
+	public FileSyncCheckpointStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @see SyncCheckpointStore#load(String)
+	 */
+	@Override
+	public SyncCheckpoint load(String name) throws IOException {
+		File file = getFile(name);
+		if (!file.exists()) {
+			return null;
+		}
+
+		SyncCheckpoint checkpoint = new SyncCheckpoint();
+		boolean complete = true;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			while (in.available() > 0) {
+				long position = in.readLong();
+
+				int keyCount = in.readInt();
+				String[] keys = new String[keyCount];
+				for (int k = 0; k < keyCount; ++k) {
+					keys[k] = in.readUTF();
+				}
+
+				// Only applied once the whole record has been read
+				checkpoint.setPosition(position);
+				for (String key : keys) {
+					checkpoint.addSyncedKey(key);
+				}
+			}
+		}
+		catch (EOFException ex) {
+			complete = false;
+		}
+		finally {
+			in.close();
+		}
+
+		// Appending after an incomplete record would corrupt the log, so it must be rewritten
+		checkpoint.setSaved(complete);
+		return checkpoint;
+	}
+
+	/**
+	 * @see SyncCheckpointStore#save(String, SyncCheckpoint)
+	 */
+	@Override
+	public void save(String name, SyncCheckpoint checkpoint) throws IOException {
+		File file = getFile(name);
+
+		if (checkpoint.isSaved() && file.exists()) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			try {
+				writeRecord(out, checkpoint.getPosition(), checkpoint.getUnsavedKeys());
+			}
+			finally {
+				out.close();
+			}
+		}
+		else {
+			File temp = new File(directory, file.getName() + ".tmp");
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				writeRecord(out, checkpoint.getPosition(), checkpoint.getSyncedKeys());
+			}
+			finally {
+				out.close();
+			}
+
+			// Renaming over an existing file fails on some platforms
+			if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+				throw new IOException("Unable to replace checkpoint file " + file);
+			}
+		}
+
+		checkpoint.setSaved(true);
+	}
+
+	/**
+	 * Writes a record to a checkpoint file
+	 * @param out the output stream
+	 * @param position the position
+	 * @param keys the sync keys
+	 * @throws IOException if an error occurs
+	 */
+	protected static void writeRecord(DataOutputStream out, long position, Collection<String> keys) throws IOException {
+		out.writeLong(position);
+		out.writeInt(keys.size());
+		for (String key : keys) {
+			out.writeUTF(key);
+		}
+	}
+
+	/**
+	 * @see SyncCheckpointStore#delete(String)
+	 */
+	@Override
+	public void delete(String name) throws IOException {
+		File file = getFile(name);
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Unable to delete checkpoint file " + file);
+		}
+	}
+
+	/**
+	 * Gets the checkpoint file for the given synchronization
+	 * @param name the synchronization name
+	 * @return the file
+	 */
+	protected File getFile(String name) {
+		return new File(directory, name + ".checkpoint");
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsMetadata;
+
+/**
+ * Synchronization which can describe existing objects by a few projected property values, so that a synchronization
+ * runner can build an index of existing objects without loading them. Full objects are then only loaded when the index
+ * shows that they might need updated or retired.
+ */
+public interface IndexedObjectSynchronization<T extends OpenmrsMetadata> extends ObjectSynchronization<T> {
+
+	/**
+	 * Gets the class of the synchronized objects
+	 * @return the class
+	 */
+	Class<T> getObjectClass();
+
+	/**
+	 * Gets the paths of the properties to project from existing objects. These must include everything needed to
+	 * derive the sync key, and everything compared by {@link #updateRequired}. Associations should be
+	 * projected by their primary key, e.g. "parentLocation.id", to avoid loading the associated objects.
+	 * @return the property paths
+	 */
+	String[] getIndexProperties();
+
+	/**
+	 * Gets the values of the index properties of an object, in the same order as {@link #getIndexProperties()}
+	 * @param obj the object
+	 * @return the values
+	 */
+	Object[] getIndexValues(T obj);
+
+	/**
+	 * Gets the synchronization key of an existing object from its projected index values
+	 * @param values the values, in the same order as {@link #getIndexProperties()}
+	 * @return the synchronization key
+	 */
+	Object getIndexSyncKey(Object[] values);
+}
@@ -0,0 +1,233 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsMetadata;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
+import org.openmrs.module.metadatadeploy.source.ObjectSource;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Synchronization runner which merges a source sorted by sync key with existing objects read in sync key order, so
+ * that neither side is held in memory. Existing objects are read as projections a page at a time, and are only loaded
+ * if they might need updated or retired. Existing objects to retire are remembered by primary key and retired after a
+ * complete pass of the source.
+ *
+ * Fails if the source isn't sorted by sync key, or if the database orders sync keys differently.
+ */
+public class MergeSynchronizationRunner<T extends OpenmrsMetadata> extends MetadataSynchronizationRunner<T> {
+
+	protected SortedObjectSynchronization<T> sortedSync;
+
+	private String[] properties;
+
+	private List<Object[]> page;
+
+	private int pageIndex;
+
+	private boolean exhausted = false;
+
+	private Object lastExistingKey;
+
+	// Primary keys of existing objects to retire
+	private int[] retireIds = new int[16];
+
+	private int retireCount = 0;
+
+	/**
+	 * Creates a new merge synchronization process
+	 * @param source the object source, sorted by sync key
+	 * @param sync the synchronization
+	 */
+	public MergeSynchronizationRunner(ObjectSource<T> source, SortedObjectSynchronization<T> sync) {
+		super(source, sync);
+		this.sortedSync = sync;
+
+		// Projected rows are the primary key, the retired flag, the sync key and then the index values
+		String[] indexProperties = sync.getIndexProperties();
+		properties = new String[indexProperties.length + 2];
+		properties[0] = "retired";
+		properties[1] = sync.getSyncKeyProperty();
+		System.arraycopy(indexProperties, 0, properties, 2, indexProperties.length);
+	}
+
+	/**
+	 * @see MetadataSynchronizationRunner#run()
+	 */
+	@Override
+	public SyncResult<T> run() {
+		MetadataDeployService deployService = Context.getService(MetadataDeployService.class);
+
+		try {
+			Object lastKey = null;
+			Object[] existing = nextExisting(deployService);
+			T incoming;
+
+			while ((incoming = source.fetchNext()) != null) {
+				Object syncKey = sync.getObjectSyncKey(incoming);
+				if (syncKey == null) {
+					throw new APIException("Incoming object '" + incoming.getName() + "' has no sync key");
+				}
+				if (lastKey != null && compareKeys(syncKey, lastKey) <= 0) {
+					throw new APIException("Source is not sorted by sync key: " + syncKey + " follows " + lastKey);
+				}
+				lastKey = syncKey;
+
+				// Existing objects before this key aren't in the source
+				while (existing != null && compareKeys(existing[2], syncKey) < 0) {
+					markNotInSource(existing);
+					existing = nextExisting(deployService);
+				}
+
+				if (existing != null && compareKeys(existing[2], syncKey) == 0) {
+					updateExisting(deployService, syncKey, incoming, existing);
+					existing = nextExisting(deployService);
+				}
+				else {
+					deployService.saveObject(incoming);
+
+					log.info("Created new object '" + incoming.getName() + "' with sync key " + syncKey);
+					result.objectSynced(incoming, SyncOutcome.CREATED);
+				}
+			}
+
+			while (existing != null) {
+				markNotInSource(existing);
+				existing = nextExisting(deployService);
+			}
+		}
+		catch (APIException ex) {
+			throw ex;
+		}
+		catch (Exception ex) {
+			// Existing objects can't be retired after an incomplete pass of the source
+			throw new APIException("Synchronization failed", ex);
+		}
+
+		retireNotInSource(deployService);
+
+		return result;
+	}
+
+	/**
+	 * Updates an existing object from the incoming object with the same sync key. The existing object is only loaded if
+	 * its index values or retired flag differ from those of the incoming object.
+	 * @param syncKey the sync key
+	 * @param incoming the incoming object
+	 * @param existing the projected existing object
+	 */
+	protected void updateExisting(MetadataDeployService deployService, Object syncKey, T incoming, Object[] existing) {
+		long existingHash = SyncIndexEntry.contentHash(Arrays.copyOfRange(existing, 3, existing.length));
+		long incomingHash = SyncIndexEntry.contentHash(sortedSync.getIndexValues(incoming));
+
+		// Index values don't include the retired flag, so that has to be compared separately
+		if (incomingHash != existingHash || incoming.isRetired() != Boolean.TRUE.equals(existing[1])) {
+			T existingObj = deployService.fetchObjectById(sortedSync.getObjectClass(), (Integer) existing[0]);
+
+			// Only if incoming object differs
+			if (updateRequired(incoming, existingObj)) {
+				deployService.overwriteObject(incoming, existingObj);
+
+				log.info("Updated existing object '" + existingObj.getName() + "' with sync key " + syncKey);
+				result.objectSynced(existingObj, SyncOutcome.UPDATED);
+			}
+		}
+	}
+
+	/**
+	 * Remembers an existing object which wasn't found in the source so that it can be retired later
+	 * @param existing the projected existing object
+	 */
+	protected void markNotInSource(Object[] existing) {
+		if (Boolean.TRUE.equals(existing[1])) {
+			return;
+		}
+
+		if (retireCount == retireIds.length) {
+			retireIds = Arrays.copyOf(retireIds, retireCount * 2);
+		}
+		retireIds[retireCount++] = (Integer) existing[0];
+	}
+
+	/**
+	 * Retires existing objects not found in the source
+	 */
+	protected void retireNotInSource(MetadataDeployService deployService) {
+		for (int r = 0; r < retireCount; ++r) {
+			T notSynced = deployService.fetchObjectById(sortedSync.getObjectClass(), retireIds[r]);
+			deployService.uninstallObject(notSynced, "Not found in sync source");
+
+			log.info("Retired existing object '" + notSynced.getName() + "'");
+			result.objectSynced(notSynced, SyncOutcome.RETIRED);
+		}
+	}
+
+	/**
+	 * Gets the next projected existing object in sync key order, fetching the next page if necessary. Existing objects
+	 * with duplicate sync keys are skipped.
+	 * @return the projected object or null if there are no more
+	 */
+	protected Object[] nextExisting(MetadataDeployService deployService) {
+		while (true) {
+			if (page == null || pageIndex == page.size()) {
+				// A short page means there are no more rows. Querying again could return objects created since.
+				if (exhausted) {
+					return null;
+				}
+
+				page = deployService.fetchObjectProperties(sortedSync.getObjectClass(), properties, sortedSync.getSyncKeyProperty(), lastExistingKey, INDEX_PAGE_SIZE);
+				pageIndex = 0;
+				exhausted = page.size() < INDEX_PAGE_SIZE;
+
+				if (page.isEmpty()) {
+					return null;
+				}
+			}
+
+			Object[] row = page.get(pageIndex++);
+			Object syncKey = row[2];
+
+			if (lastExistingKey != null) {
+				int order = compareKeys(syncKey, lastExistingKey);
+				if (order < 0) {
+					throw new APIException("Database doesn't order sync keys as expected: " + syncKey + " follows " + lastExistingKey);
+				}
+				else if (order == 0) {
+					log.warn("Ignoring object #" + row[0] + " with duplicate sync key " + syncKey);
+					continue;
+				}
+			}
+
+			lastExistingKey = syncKey;
+			return row;
+		}
+	}
+
+	/**
+	 * Compares two sync keys
+	 * @param key1 the first key
+	 * @param key2 the second key
+	 * @return the comparison result
+	 */
+	@SuppressWarnings("unchecked")
+	protected static int compareKeys(Object key1, Object key2) {
+		return ((Comparable<Object>) key1).compareTo(key2);
+	}
+}
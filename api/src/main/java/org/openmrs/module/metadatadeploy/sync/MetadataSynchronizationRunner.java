@@ -17,12 +17,16 @@ package org.openmrs.module.metadatadeploy.sync;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.OpenmrsMetadata;
+import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
 import org.openmrs.module.metadatadeploy.source.ObjectSource;
+import org.openmrs.util.OpenmrsUtil;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -33,6 +37,11 @@ public class MetadataSynchronizationRunner<T extends OpenmrsMetadata> {
 
 	protected static final Log log = LogFactory.getLog(MetadataSynchronizationRunner.class);
 
+	/**
+	 * Number of existing objects to index per query
+	 */
+	public static final int INDEX_PAGE_SIZE = 1000;
+
 	protected ObjectSource<T> source;
 
 	protected ObjectSynchronization<T> sync;
@@ -46,6 +55,9 @@ public class MetadataSynchronizationRunner<T extends OpenmrsMetadata> {
 	// a set because object equality is based on UUIDs and those can change during a sync
 	protected Map<Integer, T> notSyncedObjects = new HashMap<Integer, T>();
 
+	// Index of sync keys to projected existing objects, used instead of the above if the synchronization is indexed
+	protected Map<Object, SyncIndexEntry> keyIndex;
+
 	/**
 	 * Creates a new synchronization process
 	 * @param source the object source
@@ -57,34 +69,68 @@ public class MetadataSynchronizationRunner<T extends OpenmrsMetadata> {
 	}
 
 	/**
-	 * Performs the synchronization
+	 * Sets the result which is notified of each created, updated and retired object. Defaults to a result which keeps
+	 * every such object, so large synchronizations should use a {@link CountingSyncResult}.
+	 * @param result the result
+	 */
+	public void setResult(SyncResult<T> result) {
+		this.result = result;
+	}
+
+	/**
+	 * Performs the synchronization. Existing objects not found in the source are only retired if the whole source was
+	 * synchronized successfully.
+	 * @throws APIException if the synchronization fails
 	 */
 	public SyncResult<T> run() {
 		MetadataDeployService deployService = Context.getService(MetadataDeployService.class);
 
-		initializeCache();
+		if (sync instanceof IndexedObjectSynchronization) {
+			initializeIndex(deployService);
+		}
+		else {
+			initializeCache();
+		}
 
 		try {
 			T next;
 
 			while ((next = source.fetchNext()) != null) {
-				Object syncKey = sync.getObjectSyncKey(next);
-
-				if (syncKey == null) {
-					throw new RuntimeException("Incoming object '" + next.getName() + "' has no sync key");
-				} else {
-					synchronizeObject(deployService, syncKey, next);
-				}
+				synchronizeNext(deployService, next);
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			// Existing objects can't be retired after an incomplete pass of the source
+			throw new APIException("Synchronization failed", e);
 		}
 
-		retireExistingNotInSource(deployService);
+		if (keyIndex != null) {
+			retireIndexedNotInSource(deployService);
+		}
+		else {
+			retireExistingNotInSource(deployService);
+		}
 
 		return result;
 	}
 
+	/**
+	 * Synchronizes the next incoming object
+	 * @param incoming the object
+	 * @return the sync key
+	 */
+	protected Object synchronizeNext(MetadataDeployService deployService, T incoming) {
+		Object syncKey = sync.getObjectSyncKey(incoming);
+
+		if (syncKey == null) {
+			throw new APIException("Incoming object '" + incoming.getName() + "' has no sync key");
+		} else if (keyIndex != null) {
+			synchronizeIndexedObject(deployService, syncKey, incoming);
+		} else {
+			synchronizeObject(deployService, syncKey, incoming);
+		}
+		return syncKey;
+	}
+
 	/**
 	 * Initializes the key -> object cache
 	 */
@@ -110,6 +156,49 @@ public class MetadataSynchronizationRunner<T extends OpenmrsMetadata> {
 		log.info("Loaded " + keyCache.size() + " existing objects with sync keys");
 	}
 
+	/**
+	 * Initializes the key -> index entry map by paging through projections of the existing objects, so that no
+	 * existing objects are loaded
+	 */
+	protected void initializeIndex(MetadataDeployService deployService) {
+		IndexedObjectSynchronization<T> indexedSync = (IndexedObjectSynchronization<T>) sync;
+
+		// Projected rows are the primary key, the retired flag and then the index values
+		String[] indexProperties = indexedSync.getIndexProperties();
+		String[] properties = new String[indexProperties.length + 1];
+		properties[0] = "retired";
+		System.arraycopy(indexProperties, 0, properties, 1, indexProperties.length);
+
+		keyIndex = new HashMap<Object, SyncIndexEntry>();
+		Integer lastId = null;
+		List<Object[]> rows;
+
+		do {
+			rows = deployService.fetchObjectProperties(indexedSync.getObjectClass(), properties, lastId, INDEX_PAGE_SIZE);
+
+			for (Object[] row : rows) {
+				Integer id = (Integer) row[0];
+				Object[] values = Arrays.copyOfRange(row, 2, row.length);
+				Object syncKey = indexedSync.getIndexSyncKey(values);
+
+				if (syncKey == null) {
+					log.warn("Ignoring object #" + id + " with no sync key");
+				}
+				else if (keyIndex.containsKey(syncKey)) {
+					log.warn("Ignoring object #" + id + " with duplicate sync key " + syncKey);
+				}
+				else {
+					keyIndex.put(syncKey, new SyncIndexEntry(id, SyncIndexEntry.contentHash(values), Boolean.TRUE.equals(row[1])));
+				}
+
+				lastId = id;
+			}
+		}
+		while (rows.size() == INDEX_PAGE_SIZE);
+
+		log.info("Indexed " + keyIndex.size() + " existing objects with sync keys");
+	}
+
 	/**
 	 * Synchronizes an object
 	 * @param syncKey the sync key
@@ -125,21 +214,73 @@ public class MetadataSynchronizationRunner<T extends OpenmrsMetadata> {
 			keyCache.put(syncKey, incoming);
 
 			log.info("Created new object '" + incoming.getName() + "' with sync key " + syncKey);
-			result.getCreated().add(incoming);
+			result.objectSynced(incoming, SyncOutcome.CREATED);
 		}
 		else {
 			// Only if incoming object differs
-			if (sync.updateRequired(incoming, existing)) {
+			if (updateRequired(incoming, existing)) {
 				deployService.overwriteObject(incoming, existing);
 
 				log.info("Updated existing object '" + existing.getName() + "' with sync key " + syncKey);
-				result.getUpdated().add(existing);
+				result.objectSynced(existing, SyncOutcome.UPDATED);
 			}
 
 			notSyncedObjects.remove(existing.getId());
 		}
 	}
 
+	/**
+	 * Synchronizes an object using the index. The existing object is only loaded if its index values or retired flag
+	 * differ from those of the incoming object.
+	 * @param syncKey the sync key
+	 * @param incoming the object
+	 */
+	protected void synchronizeIndexedObject(MetadataDeployService deployService, Object syncKey, T incoming) {
+		IndexedObjectSynchronization<T> indexedSync = (IndexedObjectSynchronization<T>) sync;
+		SyncIndexEntry entry = keyIndex.get(syncKey);
+		long incomingHash = SyncIndexEntry.contentHash(indexedSync.getIndexValues(incoming));
+
+		if (entry == null) {
+			// Save incoming as new
+			deployService.saveObject(incoming);
+
+			SyncIndexEntry created = new SyncIndexEntry(incoming.getId(), incomingHash, incoming.isRetired());
+			created.setSynced(true);
+			keyIndex.put(syncKey, created);
+
+			log.info("Created new object '" + incoming.getName() + "' with sync key " + syncKey);
+			result.objectSynced(incoming, SyncOutcome.CREATED);
+		}
+		else {
+			// Index values don't include the retired flag, so that has to be compared separately
+			if (incomingHash != entry.getHash() || incoming.isRetired() != entry.isRetired()) {
+				T existing = deployService.fetchObjectById(indexedSync.getObjectClass(), entry.getId());
+
+				// Only if incoming object differs
+				if (updateRequired(incoming, existing)) {
+					deployService.overwriteObject(incoming, existing);
+
+					log.info("Updated existing object '" + existing.getName() + "' with sync key " + syncKey);
+					result.objectSynced(existing, SyncOutcome.UPDATED);
+				}
+			}
+
+			entry.setSynced(true);
+		}
+	}
+
+	/**
+	 * Checks whether an existing object should be overwritten by the incoming object with the same sync key. An object
+	 * with a different retired flag is always updated, so that a retired object which is back in the source is restored
+	 * even if the synchronization doesn't compare the retired flag itself.
+	 * @param incoming the incoming object
+	 * @param existing the existing object
+	 * @return true if the existing object should be overwritten
+	 */
+	protected boolean updateRequired(T incoming, T existing) {
+		return !OpenmrsUtil.nullSafeEquals(incoming.isRetired(), existing.isRetired()) || sync.updateRequired(incoming, existing);
+	}
+
 	/**
 	 * Retires existing objects not found in the source
 	 */
@@ -150,7 +291,24 @@ public class MetadataSynchronizationRunner<T extends OpenmrsMetadata> {
 				deployService.uninstallObject(notSynced, "Not found in sync source");
 
 				log.info("Retired existing object '" + notSynced.getName() + "'");
-				result.getRetired().add(notSynced);
+				result.objectSynced(notSynced, SyncOutcome.RETIRED);
+			}
+		}
+	}
+
+	/**
+	 * Retires indexed existing objects not found in the source, loading only those which need retired
+	 */
+	protected void retireIndexedNotInSource(MetadataDeployService deployService) {
+		IndexedObjectSynchronization<T> indexedSync = (IndexedObjectSynchronization<T>) sync;
+
+		for (SyncIndexEntry entry : keyIndex.values()) {
+			if (!entry.isSynced() && !entry.isRetired()) {
+				T notSynced = deployService.fetchObjectById(indexedSync.getObjectClass(), entry.getId());
+				deployService.uninstallObject(notSynced, "Not found in sync source");
+
+				log.info("Retired existing object '" + notSynced.getName() + "'");
+				result.objectSynced(notSynced, SyncOutcome.RETIRED);
 			}
 		}
 	}
@@ -0,0 +1,32 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsMetadata;
+
+/**
+ * Indexed synchronization whose sync key is the value of a single property, so that existing objects can be read in
+ * sync key order. Sync keys must be {@link Comparable}, and the database must order them the same way, e.g. a case
+ * insensitive collation won't match the ordering of mixed case strings.
+ */
+public interface SortedObjectSynchronization<T extends OpenmrsMetadata> extends IndexedObjectSynchronization<T> {
+
+	/**
+	 * Gets the path of the property whose value is the sync key
+	 * @return the property path, e.g. "uuid"
+	 */
+	String getSyncKeyProperty();
+}
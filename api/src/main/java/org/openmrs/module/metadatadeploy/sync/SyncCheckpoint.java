@@ -0,0 +1,109 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checkpoint of a chunked synchronization, recording how far through the source it has committed. Sync keys are
+ * recorded by their string form. Keys added since the checkpoint was last saved or loaded are tracked, so that stores
+ * can save just those rather than every key after each chunk.
+ */
+public class SyncCheckpoint {
+
+	private long position = 0;
+
+	private Set<String> syncedKeys = new HashSet<String>();
+
+	private List<String> unsavedKeys = new ArrayList<String>();
+
+	private boolean saved = false;
+
+	/**
+	 * Gets the number of source objects which have been committed
+	 * @return the number of objects
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Sets the number of source objects which have been committed
+	 * @param position the number of objects
+	 */
+	public void setPosition(long position) {
+		this.position = position;
+	}
+
+	/**
+	 * Gets the sync keys of the source objects which have been committed
+	 * @return the sync keys
+	 */
+	public Set<String> getSyncedKeys() {
+		return Collections.unmodifiableSet(syncedKeys);
+	}
+
+	/**
+	 * Gets the sync keys which have been added since this checkpoint was last saved or loaded
+	 * @return the sync keys
+	 */
+	public List<String> getUnsavedKeys() {
+		return Collections.unmodifiableList(unsavedKeys);
+	}
+
+	/**
+	 * Gets whether this checkpoint has been saved or loaded, so that a store only needs to save its unsaved keys
+	 * @return true if saved
+	 */
+	public boolean isSaved() {
+		return saved;
+	}
+
+	/**
+	 * Records that this checkpoint has been saved or loaded
+	 * @param saved true if saved, false if the store needs to save all keys next time
+	 */
+	public void setSaved(boolean saved) {
+		this.saved = saved;
+		if (saved) {
+			unsavedKeys.clear();
+		}
+	}
+
+	/**
+	 * Checks whether the object with the given sync key has been committed
+	 * @param syncKey the sync key
+	 * @return true if committed
+	 */
+	public boolean isSynced(Object syncKey) {
+		return syncedKeys.contains(String.valueOf(syncKey));
+	}
+
+	/**
+	 * Records that the object with the given sync key has been committed
+	 * @param syncKey the sync key
+	 */
+	public void addSyncedKey(Object syncKey) {
+		String key = String.valueOf(syncKey);
+		if (syncedKeys.add(key)) {
+			unsavedKeys.add(key);
+		}
+	}
+}
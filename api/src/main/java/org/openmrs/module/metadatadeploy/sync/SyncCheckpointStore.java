@@ -0,0 +1,48 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import java.io.IOException;
+
+/**
+ * Storage for the checkpoints of chunked synchronizations
+ */
+public interface SyncCheckpointStore {
+
+	/**
+	 * Loads a checkpoint
+	 * @param name the synchronization name
+	 * @return the checkpoint or null if there isn't one
+	 * @throws IOException if an error occurs
+	 */
+	SyncCheckpoint load(String name) throws IOException;
+
+	/**
+	 * Saves a checkpoint, replacing any previous checkpoint. Stores may save only the unsaved keys of a checkpoint which
+	 * has already been saved or loaded.
+	 * @param name the synchronization name
+	 * @param checkpoint the checkpoint
+	 * @throws IOException if an error occurs
+	 */
+	void save(String name, SyncCheckpoint checkpoint) throws IOException;
+
+	/**
+	 * Deletes a checkpoint
+	 * @param name the synchronization name
+	 * @throws IOException if an error occurs
+	 */
+	void delete(String name) throws IOException;
+}
@@ -0,0 +1,135 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsObject;
+
+import java.util.Date;
+
+/**
+ * Index entry for an existing object, holding just enough to decide whether the object needs loaded
+ */
+public class SyncIndexEntry {
+
+	private final Integer id;
+
+	private final long hash;
+
+	private final boolean retired;
+
+	private boolean synced = false;
+
+	/**
+	 * Creates a new entry
+	 * @param id the object's primary key
+	 * @param hash the hash of the object's index values
+	 * @param retired whether the object is retired
+	 */
+	public SyncIndexEntry(Integer id, long hash, boolean retired) {
+		this.id = id;
+		this.hash = hash;
+		this.retired = retired;
+	}
+
+	/**
+	 * Gets the object's primary key
+	 * @return the primary key
+	 */
+	public Integer getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the hash of the object's index values
+	 * @return the hash
+	 */
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * Gets whether the object is retired
+	 * @return true if retired
+	 */
+	public boolean isRetired() {
+		return retired;
+	}
+
+	/**
+	 * Gets whether an incoming object has been synchronized with this object
+	 * @return true if synchronized
+	 */
+	public boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * Sets whether an incoming object has been synchronized with this object
+	 * @param synced true if synchronized
+	 */
+	public void setSynced(boolean synced) {
+		this.synced = synced;
+	}
+
+	/**
+	 * Calculates a 64-bit hash of index values. Values which are equal when projected from the database and when read
+	 * from an incoming object have the same hash, e.g. dates are hashed by their time, and objects by their primary key.
+	 * @param values the values
+	 * @return the hash
+	 */
+	public static long contentHash(Object[] values) {
+		long hash = 1;
+		for (Object value : values) {
+			hash = 31 * hash + valueHash(value);
+		}
+		return hash;
+	}
+
+	/**
+	 * Calculates a 64-bit hash of a single value
+	 * @param value the value
+	 * @return the hash
+	 */
+	protected static long valueHash(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		else if (value instanceof String) {
+			// FNV-1a, as String.hashCode() is only 32-bit
+			long hash = 0xcbf29ce484222325L;
+			String str = (String) value;
+			for (int c = 0; c < str.length(); ++c) {
+				hash ^= str.charAt(c);
+				hash *= 0x100000001b3L;
+			}
+			return hash;
+		}
+		else if (value instanceof Date) {
+			return ((Date) value).getTime();
+		}
+		else if (value instanceof Double || value instanceof Float) {
+			return Double.doubleToLongBits(((Number) value).doubleValue());
+		}
+		else if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		else if (value instanceof OpenmrsObject) {
+			Integer id = ((OpenmrsObject) value).getId();
+			return id != null ? id : 0;
+		}
+		return value.hashCode();
+	}
+}
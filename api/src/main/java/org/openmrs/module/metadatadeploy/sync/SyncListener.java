@@ -0,0 +1,33 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.openmrs.OpenmrsMetadata;
+
+/**
+ * Listener which is notified as each object is created, updated or retired by a synchronization
+ * @param <T> the object class
+ */
+public interface SyncListener<T extends OpenmrsMetadata> {
+
+	/**
+	 * Called after an object has been synchronized. The object may be detached later if the session is cleared, so
+	 * listeners shouldn't keep references to it.
+	 * @param obj the created, updated or retired object
+	 * @param outcome the outcome
+	 */
+	void objectSynced(T obj, SyncOutcome outcome);
+}
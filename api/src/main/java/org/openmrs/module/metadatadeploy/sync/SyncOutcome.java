@@ -0,0 +1,37 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+/**
+ * The outcome of synchronizing a single object
+ */
+public enum SyncOutcome {
+
+	/**
+	 * No existing object had the incoming object's sync key so the incoming object was saved
+	 */
+	CREATED,
+
+	/**
+	 * An existing object was overwritten by the incoming object
+	 */
+	UPDATED,
+
+	/**
+	 * An existing object wasn't found in the source so was retired
+	 */
+	RETIRED
+}
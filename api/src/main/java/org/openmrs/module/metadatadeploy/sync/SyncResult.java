@@ -22,7 +22,7 @@ import java.util.List;
 /**
  * Result of a synchronization describing the objects that were created, updated and retired
  */
-public class SyncResult<T extends OpenmrsMetadata> {
+public class SyncResult<T extends OpenmrsMetadata> implements SyncListener<T> {
 
 	protected List<T> created = new ArrayList<T>();
 	protected List<T> updated = new ArrayList<T>();
@@ -51,4 +51,52 @@ public class SyncResult<T extends OpenmrsMetadata> {
 	public List<T> getRetired() {
 		return retired;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Gets the number of created objects
+	 * @return the number of objects
+	 */
+	public int getCreatedCount() {
+		return created.size();
+	}
+
+	/**
+	 * Gets the number of updated objects
+	 * @return the number of objects
+	 */
+	public int getUpdatedCount() {
+		return updated.size();
+	}
+
+	/**
+	 * Gets the number of retired objects
+	 * @return the number of objects
+	 */
+	public int getRetiredCount() {
+		return retired.size();
+	}
+
+	/**
+	 * @see SyncListener#objectSynced(org.openmrs.OpenmrsMetadata, SyncOutcome)
+	 */
+	@Override
+	public void objectSynced(T obj, SyncOutcome outcome) {
+		getObjects(outcome).add(obj);
+	}
+
+	/**
+	 * Gets the list of objects for the given outcome
+	 * @param outcome the outcome
+	 * @return the objects
+	 */
+	protected List<T> getObjects(SyncOutcome outcome) {
+		switch (outcome) {
+			case CREATED:
+				return created;
+			case UPDATED:
+				return updated;
+			default:
+				return retired;
+		}
+	}
+}
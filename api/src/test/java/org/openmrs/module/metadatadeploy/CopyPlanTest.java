@@ -0,0 +1,152 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link CopyPlan}
+ */
+public class CopyPlanTest {
+
+	/**
+	 * @see CopyPlan#forClass(Class, java.util.Set)
+	 */
+	@Test
+	public void forClass_shouldCachePlansByClassAndExcludedFields() {
+		CopyPlan plan1 = CopyPlan.forClass(TestClass2.class, null);
+		CopyPlan plan2 = CopyPlan.forClass(TestClass2.class, Collections.singleton("stringValue"));
+
+		Assert.assertThat(CopyPlan.forClass(TestClass2.class, null), sameInstance(plan1));
+		Assert.assertThat(CopyPlan.forClass(TestClass2.class, Collections.<String>emptySet()), sameInstance(plan1));
+		Assert.assertThat(CopyPlan.forClass(TestClass2.class, Collections.singleton("stringValue")), sameInstance(plan2));
+		Assert.assertThat(plan2, not(sameInstance(plan1)));
+	}
+
+	/**
+	 * @see CopyPlan#clearCache()
+	 */
+	@Test
+	public void clearCache_shouldDiscardAllCachedPlans() {
+		CopyPlan plan = CopyPlan.forClass(TestClass2.class, null);
+		CopyPlan referencePlan = CopyPlan.forReferences(TestClass3.class, TestClass2.class);
+
+		CopyPlan.clearCache();
+
+		Assert.assertThat(CopyPlan.forClass(TestClass2.class, null), not(sameInstance(plan)));
+		Assert.assertThat(CopyPlan.forReferences(TestClass3.class, TestClass2.class), not(sameInstance(referencePlan)));
+	}
+
+	/**
+	 * @see CopyPlan#forClass(Class, java.util.Set)
+	 */
+	@Test
+	public void forClass_shouldIncludeInheritedNonStaticNonTransientFields() {
+		Assert.assertThat(fieldNames(CopyPlan.forClass(TestClass2.class, null)), contains("stringValue", "listValue", "intValue"));
+		Assert.assertThat(fieldNames(CopyPlan.forClass(TestClass2.class, Collections.singleton("stringValue"))), contains("listValue", "intValue"));
+	}
+
+	/**
+	 * @see CopyPlan#forReferences(Class, Class)
+	 */
+	@Test
+	public void forReferences_shouldIncludeOnlyFieldsWhichCanReferenceClass() {
+		CopyPlan plan = CopyPlan.forReferences(TestClass3.class, TestClass2.class);
+
+		Assert.assertThat(fieldNames(plan), contains("owner", "anyValue"));
+		Assert.assertThat(CopyPlan.forReferences(TestClass3.class, TestClass2.class), sameInstance(plan));
+
+		// Check only the untyped field for an unrelated class
+		Assert.assertThat(fieldNames(CopyPlan.forReferences(TestClass3.class, Integer.class)), contains("anyValue"));
+	}
+
+	/**
+	 * @see CopyPlan#isCollection(int)
+	 */
+	@Test
+	public void isCollection_shouldReturnTrueForCollectionFields() {
+		CopyPlan plan = CopyPlan.forClass(TestClass2.class, null);
+
+		Assert.assertThat(plan.isCollection(0), is(false));
+		Assert.assertThat(plan.isCollection(1), is(true));
+		Assert.assertThat(plan.isCollection(2), is(false));
+	}
+
+	/**
+	 * @see CopyPlan#read(int, Object)
+	 * @see CopyPlan#write(int, Object, Object)
+	 */
+	@Test
+	public void readAndWrite_shouldAccessPrivateFields() {
+		CopyPlan plan = CopyPlan.forClass(TestClass2.class, null);
+		TestClass2 obj = new TestClass2();
+
+		plan.write(0, obj, "test");
+		plan.write(2, obj, 123);
+
+		Assert.assertThat(plan.read(0, obj), is((Object) "test"));
+		Assert.assertThat(plan.read(2, obj), is((Object) 123));
+	}
+
+	/**
+	 * Gets the names of the fields in a plan
+	 * @param plan the plan
+	 * @return the field names
+	 */
+	private static List<String> fieldNames(CopyPlan plan) {
+		List<String> names = new ArrayList<String>();
+		for (int f = 0; f < plan.size(); ++f) {
+			names.add(plan.getField(f).getName());
+		}
+		return names;
+	}
+
+	/**
+	 * Class for testing
+	 */
+	public static class TestClass1 {
+
+		private static String staticValue;
+		private String stringValue;
+		private List<String> listValue;
+	}
+
+	/**
+	 * Class for testing
+	 */
+	public static class TestClass2 extends TestClass1 {
+
+		private transient String transientValue;
+		private int intValue;
+	}
+
+	/**
+	 * Class for testing
+	 */
+	public static class TestClass3 {
+
+		private TestClass1 owner;
+		private String stringValue;
+		private Object anyValue;
+	}
+}
@@ -14,6 +14,7 @@
 
 package org.openmrs.module.metadatadeploy;
 
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Concept;
@@ -34,6 +35,7 @@ import org.openmrs.VisitAttributeType;
 import org.openmrs.VisitType;
 import org.openmrs.api.context.Context;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import static org.hamcrest.Matchers.*;
 
@@ -44,6 +46,9 @@ public class MetadataUtilsTest extends BaseModuleContextSensitiveTest {
 
 	private static final String NONEXISTENT_UUID = "xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx"; // Valid syntactically
 
+	@Autowired
+	private SessionFactory sessionFactory;
+
 	@Test
 	public void integration() {
 		new MetadataUtils();
@@ -83,6 +88,23 @@ public class MetadataUtilsTest extends BaseModuleContextSensitiveTest {
 		Assert.assertThat(MetadataUtils.possible(VisitType.class, NONEXISTENT_UUID), nullValue());
 	}
 
+	/**
+	 * @see MetadataUtils#possible(Class, String)
+	 */
+	@Test
+	public void possible_shouldFetchCachedObjectsWithoutSql() {
+		VisitType initial = MetadataUtils.possible(VisitType.class, "c0c579b0-8e59-401d-8a4a-976a0b183519");
+
+		QueryCounter counter = new QueryCounter(sessionFactory);
+		try {
+			Assert.assertThat(MetadataUtils.possible(VisitType.class, "c0c579b0-8e59-401d-8a4a-976a0b183519"), is(initial));
+			Assert.assertThat(counter.getStatementCount(), is(0l));
+		}
+		finally {
+			counter.stop();
+		}
+	}
+
 	/**
 	 * @see MetadataUtils#getConcept(String)
 	 */
@@ -105,7 +127,9 @@ public class MetadataUtilsTest extends BaseModuleContextSensitiveTest {
 	@Test
 	public void getConcept_shouldFetchByMapping() {
 		Concept cd4 = Context.getConceptService().getConcept(5497);
-		Assert.assertThat(MetadataUtils.getConcept("SSTRM:CD41003"), is(cd4));
+		Concept fetched = MetadataUtils.getConcept("SSTRM:CD41003");
+		Assert.assertThat(fetched, is(cd4));
+		Assert.assertThat(fetched, is(instanceOf(ConceptNumeric.class)));
 	}
 
 	/**
@@ -22,10 +22,16 @@ import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
 import org.openmrs.Privilege;
 import org.openmrs.Role;
+import org.openmrs.User;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 
 import static org.hamcrest.Matchers.*;
@@ -139,6 +145,188 @@ public class ObjectUtilsTest {
 		Assert.assertThat(target.getCollectionValues(), contains(owned2));
 	}
 
+	/**
+	 * @see ObjectUtils#mergeCollection(java.util.Collection, java.util.Collection)
+	 */
+	@Test
+	public void mergeCollection_shouldNotModifyTargetIfItemsAreUnchanged() {
+		TestClass2 item1 = new TestClass2();
+		TestClass2 item2 = new TestClass2();
+
+		ModificationCountingSet<TestClass2> target = new ModificationCountingSet<TestClass2>(Arrays.asList(item1, item2));
+
+		ObjectUtils.mergeCollection(new HashSet<TestClass2>(Arrays.asList(item2, item1)), target);
+
+		Assert.assertThat(target.modifications, is(0));
+		Assert.assertThat(target, containsInAnyOrder(item1, item2));
+	}
+
+	/**
+	 * @see ObjectUtils#mergeCollection(java.util.Collection, java.util.Collection)
+	 */
+	@Test
+	public void mergeCollection_shouldOnlyRemoveMissingItemsAndAddNewItems() {
+		TestClass2 item1 = new TestClass2();
+		TestClass2 item2 = new TestClass2();
+		TestClass2 item3 = new TestClass2();
+
+		ModificationCountingSet<TestClass2> target = new ModificationCountingSet<TestClass2>(Arrays.asList(item1, item2));
+
+		ObjectUtils.mergeCollection(Arrays.asList(item2, item3), target);
+
+		Assert.assertThat(target.modifications, is(2));
+		Assert.assertThat(target, containsInAnyOrder(item2, item3));
+	}
+
+	/**
+	 * @see ObjectUtils#mergeCollection(java.util.Collection, java.util.Collection)
+	 */
+	@Test
+	public void mergeCollection_shouldReplaceItemsWithSameUuidButDifferentInstance() {
+		TestClass2 existing = new TestClass2();
+		TestClass2 incoming = new TestClass2();
+		incoming.setUuid(existing.getUuid());
+
+		ModificationCountingSet<TestClass2> target = new ModificationCountingSet<TestClass2>(Arrays.asList(existing));
+
+		ObjectUtils.mergeCollection(Arrays.asList(incoming), target);
+
+		Assert.assertThat(target, hasSize(1));
+		Assert.assertThat(target.iterator().next(), sameInstance(incoming));
+	}
+
+	/**
+	 * @see ObjectUtils#mergeCollection(java.util.Collection, java.util.Collection)
+	 */
+	@Test
+	public void mergeCollection_shouldDoNothingIfSourceIsTarget() {
+		TestClass2 item1 = new TestClass2();
+		List<TestClass2> collection = new ArrayList<TestClass2>(Arrays.asList(item1));
+
+		ObjectUtils.mergeCollection(collection, collection);
+
+		Assert.assertThat(collection, contains(item1));
+	}
+
+	/**
+	 * @see ObjectUtils#differs(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)
+	 */
+	@Test
+	public void differs_shouldReturnFalseIfAllFieldValuesAreEqual() {
+		TestClass2 prop = new TestClass2();
+		TestClass2 owned = new TestClass2();
+
+		TestClass1 target = new TestClass1(1, "test", 123.0, prop);
+		TestClass1 source = new TestClass1(1, "test", 123.0, prop);
+		target.setUuid(source.getUuid());
+		target.addCollectionValue(owned);
+		source.addCollectionValue(owned);
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(false));
+	}
+
+	/**
+	 * @see ObjectUtils#differs(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)
+	 */
+	@Test
+	public void differs_shouldReturnTrueIfAnyFieldValueDiffers() {
+		TestClass1 target = new TestClass1(1, "abc", 123.0, null);
+		TestClass1 source = new TestClass1(1, "xyz", 123.0, null);
+		target.setUuid(source.getUuid());
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(true));
+
+		// Check different collection contents
+		source.setStringValue("abc");
+		source.addCollectionValue(new TestClass2());
+		target.addCollectionValue(new TestClass2());
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(true));
+	}
+
+	/**
+	 * @see ObjectUtils#differs(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)
+	 */
+	@Test
+	public void differs_shouldIgnoreExcludedFields() {
+		TestClass1 target = new TestClass1(1, "abc", 123.0, null);
+		TestClass1 source = new TestClass1(1, "xyz", 123.0, null);
+
+		Assert.assertThat(ObjectUtils.differs(source, target, new HashSet<String>(Arrays.asList("stringValue", "uuid"))), is(false));
+	}
+
+	/**
+	 * @see ObjectUtils#differs(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)
+	 */
+	@Test
+	public void differs_shouldIgnoreAuditFieldsAndCompareDatesByTime() {
+		Location target = new Location();
+		Location source = new Location();
+		target.setUuid(source.getUuid());
+		target.setCreator(new User());
+		target.setDateCreated(new Date());
+
+		Date retired = new Date();
+		source.setDateRetired(retired);
+		target.setDateRetired(new Timestamp(retired.getTime()));
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(false));
+	}
+
+	/**
+	 * @see ObjectUtils#differs(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)
+	 */
+	@Test
+	public void differs_shouldConsiderNullAndEmptyCollectionsEqual() {
+		TestClass1 target = new TestClass1(1, "test", 123.0, null);
+		TestClass1 source = new TestClass1(1, "test", 123.0, null);
+		target.setUuid(source.getUuid());
+
+		TestClass2 owned = new TestClass2();
+		target.addCollectionValue(owned);
+		target.getCollectionValues().remove(owned);
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(false));
+	}
+
+	/**
+	 * @see ObjectUtils#differs(org.openmrs.OpenmrsObject, org.openmrs.OpenmrsObject, java.util.Set)
+	 */
+	@Test
+	public void differs_shouldCompareFieldsOfCollectionItemsWithSameUuid() {
+		TestClass1 target = new TestClass1(1, "test", 123.0, null);
+		TestClass1 source = new TestClass1(1, "test", 123.0, null);
+		target.setUuid(source.getUuid());
+
+		TestClass2 targetItem = new TestClass2();
+		targetItem.setId(5);
+		targetItem.setValue("abc");
+		target.addCollectionValue(targetItem);
+
+		TestClass2 sourceItem = new TestClass2();
+		sourceItem.setUuid(targetItem.getUuid());
+		sourceItem.setValue("xyz");
+		source.addCollectionValue(sourceItem);
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(true));
+
+		// Item ids are ignored
+		sourceItem.setValue("abc");
+
+		Assert.assertThat(ObjectUtils.differs(source, target, null), is(false));
+		Assert.assertThat(sourceItem.getId(), nullValue());
+	}
+
+	/**
+	 * @see ObjectUtils#getIdentifierFields(Class)
+	 */
+	@Test
+	public void getIdentifierFields_shouldGetFieldsWhichHoldTheId() {
+		Assert.assertThat(ObjectUtils.getIdentifierFields(TestClass1.class), contains("id"));
+		Assert.assertThat(ObjectUtils.getIdentifierFields(Location.class), contains("locationId"));
+		Assert.assertThat(ObjectUtils.getIdentifierFields(GlobalProperty.class), empty());
+	}
+
 	/**
 	 * @see org.openmrs.module.metadatadeploy.ObjectUtils#usesId(org.openmrs.OpenmrsObject)
 	 */
@@ -189,6 +377,10 @@ public class ObjectUtilsTest {
 			return stringValue;
 		}
 
+		public void setStringValue(String stringValue) {
+			this.stringValue = stringValue;
+		}
+
 		public double getDoubleValue() {
 			return doubleValue;
 		}
@@ -211,12 +403,54 @@ public class ObjectUtilsTest {
 		}
 	}
 
+	/**
+	 * Set which counts calls that modify it
+	 */
+	public static class ModificationCountingSet<E> extends HashSet<E> {
+
+		int modifications = 0;
+
+		public ModificationCountingSet(Collection<E> items) {
+			super(items);
+		}
+
+		@Override
+		public boolean add(E e) {
+			++modifications;
+			return super.add(e);
+		}
+
+		@Override
+		public Iterator<E> iterator() {
+			final Iterator<E> iterator = super.iterator();
+			return new Iterator<E>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public E next() {
+					return iterator.next();
+				}
+
+				@Override
+				public void remove() {
+					++modifications;
+					iterator.remove();
+				}
+			};
+		}
+	}
+
 	public static class TestClass2 extends BaseOpenmrsObject {
 
 		private Integer id;
 
 		private TestClass1 owner;
 
+		private String value;
+
 		public Integer getId() {
 			return id;
 		}
@@ -232,5 +466,13 @@ public class ObjectUtilsTest {
 		public void setOwner(TestClass1 owner) {
 			this.owner = owner;
 		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public void setValue(String value) {
+			this.value = value;
+		}
 	}
 }
\ No newline at end of file
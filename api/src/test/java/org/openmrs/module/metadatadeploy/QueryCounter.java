@@ -0,0 +1,100 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Test helper which counts the statements issued by Hibernate, using its statistics
+ */
+public class QueryCounter {
+
+	private final Statistics statistics;
+
+	/**
+	 * Creates a new counter, enabling statistics on the given session factory
+	 * @param sessionFactory the session factory
+	 */
+	public QueryCounter(SessionFactory sessionFactory) {
+		this.statistics = sessionFactory.getStatistics();
+		this.statistics.setStatisticsEnabled(true);
+		reset();
+	}
+
+	/**
+	 * Resets all counts to zero
+	 */
+	public void reset() {
+		statistics.clear();
+	}
+
+	/**
+	 * Gets the number of statements prepared since the last reset
+	 * @return the number of statements
+	 */
+	public long getStatementCount() {
+		return statistics.getPrepareStatementCount();
+	}
+
+	/**
+	 * Gets the number of HQL and criteria queries executed since the last reset. Loads by primary key aren't counted.
+	 * @return the number of queries
+	 */
+	public long getQueryCount() {
+		return statistics.getQueryExecutionCount();
+	}
+
+	/**
+	 * Gets the number of entities loaded since the last reset
+	 * @return the number of entities
+	 */
+	public long getEntityLoadCount() {
+		return statistics.getEntityLoadCount();
+	}
+
+	/**
+	 * Gets the number of entities of the given class loaded since the last reset
+	 * @param clazz the entity class
+	 * @return the number of entities
+	 */
+	public long getEntityLoadCount(Class<?> clazz) {
+		return statistics.getEntityStatistics(clazz.getName()).getLoadCount();
+	}
+
+	/**
+	 * Gets the number of entity inserts, updates and deletes since the last reset
+	 * @return the number of entity writes
+	 */
+	public long getEntityWriteCount() {
+		return statistics.getEntityInsertCount() + statistics.getEntityUpdateCount() + statistics.getEntityDeleteCount();
+	}
+
+	/**
+	 * Gets the number of collection updates, removes and recreates since the last reset
+	 * @return the number of collection writes
+	 */
+	public long getCollectionWriteCount() {
+		return statistics.getCollectionUpdateCount() + statistics.getCollectionRemoveCount() + statistics.getCollectionRecreateCount();
+	}
+
+	/**
+	 * Disables statistics collection
+	 */
+	public void stop() {
+		statistics.setStatisticsEnabled(false);
+	}
+}
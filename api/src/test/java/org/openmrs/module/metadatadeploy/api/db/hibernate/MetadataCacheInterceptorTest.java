@@ -0,0 +1,185 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.api.db.hibernate;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.Location;
+import org.openmrs.Privilege;
+import org.openmrs.module.metadatadeploy.api.ConceptMappingIndex;
+import org.openmrs.module.metadatadeploy.api.MetadataCache;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link MetadataCacheInterceptor}
+ */
+public class MetadataCacheInterceptorTest {
+
+	private MetadataCache cache;
+
+	private MetadataCacheInterceptor interceptor;
+
+	@Before
+	public void setup() {
+		cache = new MetadataCache();
+		cache.put(Location.class, "location-uuid", 1);
+		cache.put(Location.class, "Location Name", 1);
+		cache.put(Location.class, "other-location-uuid", 2);
+		cache.put(Concept.class, "concept-uuid", 1);
+
+		interceptor = new MetadataCacheInterceptor();
+		interceptor.setCache(cache);
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#transactionCompleted(boolean)
+	 */
+	@Test
+	public void transactionCompleted_shouldEvictEntriesForChangedObjectsOnCommit() {
+		interceptor.onFlushDirty(new Location(1), 1, null, null, null, null);
+		interceptor.onDelete(new ConceptNumeric(1), 1, null, null, null);
+
+		// Nothing evicted until the transaction completes
+		Assert.assertThat(cache.size(), is(4));
+
+		interceptor.transactionCompleted(true);
+
+		Assert.assertThat(cache.get(Location.class, "location-uuid"), nullValue());
+		Assert.assertThat(cache.get(Location.class, "Location Name"), nullValue());
+		Assert.assertThat(cache.get(Concept.class, "concept-uuid"), nullValue());
+		Assert.assertThat(cache.get(Location.class, "other-location-uuid"), is((Object) 2));
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#transactionCompleted(boolean)
+	 */
+	@Test
+	public void transactionCompleted_shouldDiscardChangesOnRollback() {
+		interceptor.onFlushDirty(new Location(1), 1, null, null, null, null);
+		interceptor.transactionCompleted(false);
+		interceptor.transactionCompleted(true);
+
+		Assert.assertThat(cache.size(), is(4));
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#transactionCompleted(boolean)
+	 */
+	@Test
+	public void transactionCompleted_shouldEvictMissingEntriesForCreatedClassesOnCommit() {
+		cache.putMissing(Location.class, "legacy-uuid");
+		cache.putMissing(Concept.class, "legacy-uuid");
+
+		interceptor.onSave(new Location(), null, null, null, null);
+		interceptor.transactionCompleted(true);
+
+		Assert.assertThat(cache.isMissing(Location.class, "legacy-uuid"), is(false));
+		Assert.assertThat(cache.isMissing(Concept.class, "legacy-uuid"), is(true));
+		Assert.assertThat(cache.size(), is(4));
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#evictMissing(Object)
+	 */
+	@Test
+	public void evictMissing_shouldEvictMissingEntriesBeforeCommit() {
+		cache.putMissing(Location.class, "legacy-uuid");
+		interceptor.onSave(new Location(), null, null, null, null);
+		Assert.assertThat(cache.isMissing(Location.class, "legacy-uuid"), is(false));
+
+		cache.putMissing(Location.class, "legacy-uuid");
+		interceptor.onFlushDirty(new Location(1), 1, null, null, null, null);
+		Assert.assertThat(cache.isMissing(Location.class, "legacy-uuid"), is(false));
+
+		// Entries recorded by other transactions in the meantime are evicted again on commit
+		cache.putMissing(Location.class, "legacy-uuid");
+		interceptor.transactionCompleted(true);
+		Assert.assertThat(cache.isMissing(Location.class, "legacy-uuid"), is(false));
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#recordChange(Object, java.io.Serializable)
+	 */
+	@Test
+	public void recordChange_shouldRecordConceptChangesBeforeConceptIndexIsLoaded() {
+		final Set<Integer> staleConcepts = new HashSet<Integer>();
+		interceptor.setConceptIndex(new ConceptMappingIndex() {
+			@Override
+			public synchronized void markStale(Collection<Integer> conceptIds) {
+				staleConcepts.addAll(conceptIds);
+			}
+		});
+
+		// Index is loaded by another transaction after this change but before it commits
+		interceptor.onFlushDirty(new Concept(5), 5, null, null, null, null);
+		interceptor.transactionCompleted(true);
+
+		Assert.assertThat(staleConcepts, contains(5));
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#recordChange(Object, java.io.Serializable)
+	 */
+	@Test
+	public void recordChange_shouldStopTransactionUsingConceptIndexUntilCompleted() {
+		TestConceptIndex conceptIndex = new TestConceptIndex();
+		interceptor.setConceptIndex(conceptIndex);
+
+		interceptor.onFlushDirty(new Location(1), 1, null, null, null, null);
+		Assert.assertThat(conceptIndex.hasUncommittedChanges(), is(false));
+
+		interceptor.onFlushDirty(new Concept(5), 5, null, null, null, null);
+		Assert.assertThat(conceptIndex.hasUncommittedChanges(), is(true));
+
+		interceptor.transactionCompleted(false);
+		Assert.assertThat(conceptIndex.hasUncommittedChanges(), is(false));
+	}
+
+	/**
+	 * @see MetadataCacheInterceptor#recordChange(Object, java.io.Serializable)
+	 */
+	@Test
+	public void recordChange_shouldIgnoreClassesWithNoCacheEntries() {
+		interceptor.recordChange(new Privilege(), 1);
+		interceptor.transactionCompleted(true);
+
+		Assert.assertThat(cache.size(), is(4));
+		Assert.assertThat(cache.covers(Privilege.class), is(false));
+		Assert.assertThat(cache.covers(ConceptNumeric.class), is(true));
+	}
+
+	/**
+	 * Concept mapping index which exposes whether the current transaction has uncommitted changes
+	 */
+	protected static class TestConceptIndex extends ConceptMappingIndex {
+
+		/**
+		 * @see ConceptMappingIndex#hasUncommittedChanges()
+		 */
+		@Override
+		public boolean hasUncommittedChanges() {
+			return super.hasUncommittedChanges();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.metadatadeploy.api.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.api.APIException;
+import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
+import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
+import org.openmrs.module.metadatadeploy.bundle.Requires;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link BundleGraph}
+ */
+public class BundleGraphTest {
+
+	/**
+	 * @see BundleGraph#BundleGraph(java.util.Collection)
+	 */
+	@Test
+	public void shouldOrderBundlesAfterTheirRequirements() {
+		MetadataBundle a = new BundleA(), b = new BundleB(), c = new BundleC(), d = new BundleD();
+
+		BundleGraph graph = new BundleGraph(Arrays.asList(d, c, b, a));
+		List<MetadataBundle> ordered = graph.getBundles();
+
+		Assert.assertThat(ordered, hasSize(4));
+		Assert.assertThat(ordered.indexOf(a), lessThan(ordered.indexOf(b)));
+		Assert.assertThat(ordered.indexOf(a), lessThan(ordered.indexOf(c)));
+		Assert.assertThat(ordered.indexOf(b), lessThan(ordered.indexOf(d)));
+		Assert.assertThat(ordered.indexOf(c), lessThan(ordered.indexOf(d)));
+
+		Assert.assertThat(graph.getRequirements(d), containsInAnyOrder(b, c));
+		Assert.assertThat(graph.getDependents(a), containsInAnyOrder(b, c));
+		Assert.assertThat(graph.getDependents(d), empty());
+	}
+
+	/**
+	 * @see BundleGraph#BundleGraph(java.util.Collection)
+	 */
+	@Test(expected = APIException.class)
+	public void shouldThrowExceptionIfRequiredBundleIsMissing() {
+		new BundleGraph(Arrays.<MetadataBundle>asList(new BundleB()));
+	}
+
+	/**
+	 * @see BundleGraph#BundleGraph(java.util.Collection)
+	 */
+	@Test
+	public void shouldThrowExceptionIfRequirementsContainCycle() {
+		try {
+			new BundleGraph(Arrays.<MetadataBundle>asList(new BundleA(), new CyclicBundle1(), new CyclicBundle2()));
+			Assert.fail();
+		}
+		catch (APIException ex) {
+			Assert.assertThat(ex.getMessage(), containsString("CyclicBundle1"));
+			Assert.assertThat(ex.getMessage(), containsString("CyclicBundle2"));
+		}
+	}
+
+	public static class BundleA extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ BundleA.class })
+	public static class BundleB extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ BundleA.class })
+	public static class BundleC extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ BundleB.class, BundleC.class })
+	public static class BundleD extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ BundleA.class, CyclicBundle2.class })
+	public static class CyclicBundle1 extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ CyclicBundle1.class })
+	public static class CyclicBundle2 extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+}
@@ -15,22 +15,37 @@
 package org.openmrs.module.metadatadeploy.api.impl;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.ConceptNumeric;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Location;
+import org.openmrs.OpenmrsObject;
 import org.openmrs.Patient;
+import org.openmrs.PatientIdentifierType;
 import org.openmrs.Privilege;
 import org.openmrs.Program;
 import org.openmrs.Role;
+import org.openmrs.User;
 import org.openmrs.VisitType;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.metadatadeploy.MetadataDeployConstants;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.metadatadeploy.MissingMetadataException;
+import org.openmrs.module.metadatadeploy.QueryCounter;
+import org.openmrs.module.metadatadeploy.api.ConceptMappingIndex;
+import org.openmrs.module.metadatadeploy.api.FlushPolicy;
+import org.openmrs.module.metadatadeploy.api.MetadataCache;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
+import org.openmrs.module.metadatadeploy.api.db.MetadataDeployDAO;
 import org.openmrs.module.metadatadeploy.bundle.AbstractMetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.MetadataBundle;
 import org.openmrs.module.metadatadeploy.bundle.Requires;
+import org.openmrs.module.metadatadeploy.bundle.Version;
 import org.openmrs.module.metadatadeploy.handler.impl.ProgramDeployHandler;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.aop.framework.Advised;
@@ -38,7 +53,13 @@ import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.*;
@@ -51,6 +72,12 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 	@Autowired
 	private MetadataDeployService deployService;
 
+	@Autowired
+	private MetadataDeployDAO dao;
+
+	@Autowired
+	private ConceptMappingIndex conceptIndex;
+
 	@Autowired
 	private TestBundle1 testBundle1;
 
@@ -63,6 +90,18 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 	@Autowired
 	private TestBundle6 testBundle6;
 
+	@Autowired
+	private TestBundle7 testBundle7;
+
+	@Autowired
+	private TestBundle8 testBundle8;
+
+	@Autowired
+	private FlushingBundle flushingBundle;
+
+	@Autowired
+	private SessionFactory sessionFactory;
+
 	/**
 	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
 	 */
@@ -100,6 +139,157 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle6));
 	}
 
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
+	 */
+	@Test
+	public void installBundles_shouldSkipVersionedBundlesWhichAreAlreadyInstalled() {
+		testBundle8.installCount = 0;
+
+		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle8));
+		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle8));
+
+		Assert.assertThat(testBundle8.installCount, is(1));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
+	 */
+	@Test(expected = APIException.class)
+	public void installBundles_shouldThrowAPIExceptionIfDeclaredResourceDoesNotExist() {
+		deployService.installBundles(Arrays.<MetadataBundle>asList(new MissingResourceBundle()));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
+	 */
+	@Test
+	public void installBundles_shouldAlwaysInstallUnversionedBundles() {
+		testBundle1.installCount = 0;
+		testBundle7.installCount = 0;
+
+		// TestBundle7 is versioned but requires TestBundle1 which isn't, so is re-installed every time
+		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle1, testBundle7));
+		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle1, testBundle7));
+
+		Assert.assertThat(testBundle1.installCount, is(2));
+		Assert.assertThat(testBundle7.installCount, is(2));
+
+		// Only the versioned bundle is recorded in the ledger
+		Assert.assertThat(dao.getInstalledBundle(TestBundle1.class.getName()), nullValue());
+		Assert.assertThat(dao.getInstalledBundle(TestBundle7.class.getName()), notNullValue());
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
+	 */
+	@Test
+	public void installBundles_shouldReinstallAllBundlesIfForced() {
+		testBundle8.installCount = 0;
+
+		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle8));
+
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(MetadataDeployConstants.GP_FORCE_BUNDLE_REINSTALL, "true"));
+
+		deployService.installBundles(Arrays.<MetadataBundle>asList(testBundle8));
+
+		Assert.assertThat(testBundle8.installCount, is(2));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
+	 */
+	@Test
+	public void installBundles_shouldFlushAndClearSessionAccordingToBundleFlushPolicy() {
+		flushingBundle.setFlushPolicy(FlushPolicy.flushAndClearEvery(2));
+
+		deployService.installBundles(Arrays.<MetadataBundle>asList(flushingBundle));
+
+		// Check earlier objects were detached by the session being cleared
+		Assert.assertThat(sessionFactory.getCurrentSession().contains(flushingBundle.installed.get(0)), is(false));
+
+		// Check references to detached objects were resolved
+		for (int l = 1; l < 5; ++l) {
+			Location location = MetadataUtils.existing(Location.class, uuid("flush-location" + l));
+			Assert.assertThat(location.getParentLocation().getUuid(), is(uuid("flush-location" + (l - 1))));
+		}
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection)
+	 */
+	@Test(expected = APIException.class)
+	public void installBundles_shouldThrowAPIExceptionIfRequirementsContainCycle() {
+		deployService.installBundles(Arrays.<MetadataBundle>asList(new CyclicBundle1(), new CyclicBundle2()));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection, int)
+	 */
+	@Test
+	public void installBundles_shouldInstallBundlesInParallelAfterTheirRequirements() {
+		List<Class<?>> installOrder = Collections.synchronizedList(new ArrayList<Class<?>>());
+
+		List<MetadataBundle> bundles = Arrays.<MetadataBundle>asList(
+				new ParallelBundle3(installOrder),
+				new ParallelBundle2(installOrder),
+				new ParallelBundle1(installOrder)
+		);
+
+		deployService.installBundles(bundles, 2);
+
+		Assert.assertThat(installOrder, hasSize(3));
+		Assert.assertThat(installOrder.get(0), is((Object) ParallelBundle1.class));
+		Assert.assertThat(installOrder.get(1), is((Object) ParallelBundle2.class));
+		Assert.assertThat(installOrder.get(2), is((Object) ParallelBundle3.class));
+
+		// Workers commit their own transactions, so check they didn't write anything which the test can't roll back
+		Assert.assertThat(dao.getInstalledBundle(ParallelBundle1.class.getName()), nullValue());
+		Assert.assertThat(dao.getInstalledBundle(ParallelBundle3.class.getName()), nullValue());
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection, int)
+	 */
+	@Test
+	public void installBundles_shouldInstallIndependentBundlesConcurrently() {
+		CountDownLatch latch = new CountDownLatch(2);
+		OverlappingBundle1 bundle1 = new OverlappingBundle1(latch);
+		OverlappingBundle2 bundle2 = new OverlappingBundle2(latch);
+
+		deployService.installBundles(Arrays.<MetadataBundle>asList(bundle1, bundle2), 2);
+
+		// Each bundle waits for the other to start, which only happens if they are installed at the same time
+		Assert.assertThat(bundle1.overlapped, is(true));
+		Assert.assertThat(bundle2.overlapped, is(true));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection, int)
+	 */
+	@Test
+	public void installBundles_shouldInstallParallelBundlesWithTheirOwnUserContexts() {
+		List<Class<?>> installOrder = Collections.synchronizedList(new ArrayList<Class<?>>());
+		ParallelBundle1 bundle1 = new ParallelBundle1(installOrder);
+		ParallelBundle2 bundle2 = new ParallelBundle2(installOrder);
+
+		deployService.installBundles(Arrays.<MetadataBundle>asList(bundle1, bundle2), 2);
+
+		Assert.assertThat(bundle1.userContext, not(sameInstance(Context.getUserContext())));
+		Assert.assertThat(bundle2.userContext, not(sameInstance(Context.getUserContext())));
+		Assert.assertThat(bundle2.userContext, not(sameInstance(bundle1.userContext)));
+		Assert.assertThat(bundle1.user, is(Context.getAuthenticatedUser()));
+		Assert.assertThat(bundle2.user, is(Context.getAuthenticatedUser()));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installBundles(java.util.Collection, int)
+	 */
+	@Test(expected = APIException.class)
+	public void installBundles_shouldThrowAPIExceptionIfParallelBundleThrowsAnyException() {
+		deployService.installBundles(Arrays.<MetadataBundle>asList(new TestBundle6()), 2);
+	}
+
 	/**
 	 * @see MetadataDeployServiceImpl#installPackage(String, ClassLoader, String)
 	 */
@@ -166,6 +356,141 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 		deployService.installObject(location);
 	}
 
+	/**
+	 * @see MetadataDeployServiceImpl#installObject(org.openmrs.OpenmrsObject)
+	 */
+	@Test
+	public void installObject_shouldNotSaveExistingObjectIfNothingChanged() throws Exception {
+		VisitType created = deployService.installObject(visitType("Name", "Testing", uuid("visit-type1")));
+
+		Context.flushSession();
+
+		// Install identical object
+		VisitType unchanged = deployService.installObject(visitType("Name", "Testing", uuid("visit-type1")));
+
+		Context.flushSession();
+
+		Assert.assertThat(unchanged, sameInstance(created));
+		Assert.assertThat(unchanged.getDateChanged(), nullValue());
+		Assert.assertThat(unchanged.getChangedBy(), nullValue());
+
+		// Install object with a changed field
+		VisitType updated = deployService.installObject(visitType("Name", "Updated desc", uuid("visit-type1")));
+
+		Assert.assertThat(updated, sameInstance(created));
+		Assert.assertThat(updated.getDescription(), is("Updated desc"));
+
+		// Check everything can be persisted
+		Context.flushSession();
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installObject(org.openmrs.OpenmrsObject)
+	 */
+	@Test
+	public void installObject_shouldFindAlternateMatchesFromIndexDuringBundleInstallation() throws Exception {
+		InstallContext context = InstallContext.begin(FlushPolicy.END_OF_BUNDLE);
+		try {
+			PatientIdentifierType created = deployService.installObject(patientIdentifierType("Test ID", "Testing", null, null, null, null, false, uuid("pit1")));
+
+			AlternateKeyIndex index = context.getAlternateKeyIndex(PatientIdentifierType.class);
+			Assert.assertThat(index, notNullValue());
+			Assert.assertThat(index.get(new Object[] { "Test ID" }), is((Object) created.getId()));
+
+			// Install object with a different UUID but the same name
+			PatientIdentifierType updated = deployService.installObject(patientIdentifierType("TEST ID", "Updated", null, null, null, null, false, uuid("pit2")));
+
+			Assert.assertThat(updated, sameInstance(created));
+			Assert.assertThat(updated.getUuid(), is(uuid("pit2")));
+			Assert.assertThat(index.get(new Object[] { "Test ID" }), is((Object) created.getId()));
+
+			// Check everything can be persisted
+			Context.flushSession();
+		}
+		finally {
+			InstallContext.end();
+		}
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installObject(org.openmrs.OpenmrsObject)
+	 */
+	@Test
+	public void installObject_shouldShareAlternateKeyIndexBetweenBundlesInstalledTogether() throws Exception {
+		ConcurrentMap<Class<?>, AlternateKeyIndex> alternateKeyIndexes = InstallContext.createAlternateKeyIndexes();
+
+		InstallContext.begin(FlushPolicy.END_OF_BUNDLE, alternateKeyIndexes);
+		PatientIdentifierType created;
+		try {
+			created = deployService.installObject(patientIdentifierType("Test ID", "Testing", null, null, null, null, false, uuid("pit1")));
+		}
+		finally {
+			InstallContext.end();
+		}
+
+		AlternateKeyIndex index = alternateKeyIndexes.get(PatientIdentifierType.class);
+		Assert.assertThat(index, notNullValue());
+
+		InstallContext context = InstallContext.begin(FlushPolicy.END_OF_BUNDLE, alternateKeyIndexes);
+		try {
+			Assert.assertThat(context.getAlternateKeyIndex(PatientIdentifierType.class), sameInstance(index));
+
+			PatientIdentifierType updated = deployService.installObject(patientIdentifierType("Test ID", "Updated", null, null, null, null, false, uuid("pit2")));
+			Assert.assertThat(updated, sameInstance(created));
+		}
+		finally {
+			InstallContext.end();
+		}
+
+		// Check everything can be persisted
+		Context.flushSession();
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installObjects(java.util.Collection)
+	 */
+	@Test
+	public void installObjects_shouldInstallAllObjects() throws Exception {
+		Location existing = MetadataUtils.existing(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"); // Xanadu
+
+		List<OpenmrsObject> installed = deployService.installObjects(Arrays.<OpenmrsObject>asList(
+				location("New location", "Testing", uuid("location1")),
+				privilege("Test Privilege 1", "Testing"),
+				location("Updated name", "Updated desc", "9356400c-a5a2-4532-8f2b-2361b3446eb8"),
+				privilege("Test Privilege 1", "New description")
+		));
+
+		Assert.assertThat(installed, hasSize(4));
+
+		Location created = MetadataUtils.existing(Location.class, uuid("location1"));
+		Assert.assertThat(installed.get(0), is((OpenmrsObject) created));
+		Assert.assertThat(created.getName(), is("New location"));
+
+		Assert.assertThat(installed.get(2), is((OpenmrsObject) existing));
+		Assert.assertThat(existing.getName(), is("Updated name"));
+
+		// Both privileges have the same identifier so second should overwrite the first
+		Privilege privilege = MetadataUtils.existing(Privilege.class, "Test Privilege 1");
+		Assert.assertThat(installed.get(1), is((OpenmrsObject) privilege));
+		Assert.assertThat(installed.get(3), is((OpenmrsObject) privilege));
+		Assert.assertThat(privilege.getDescription(), is("New description"));
+
+		// Check everything can be persisted
+		Context.flushSession();
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#installObjects(java.util.Collection)
+	 */
+	@Test(expected = APIException.class)
+	public void installObjects_shouldThrowAPIExceptionForObjectWithoutIdentifier() throws Exception {
+		Location location = new Location();
+		location.setName("Name");
+		location.setUuid(null);
+
+		deployService.installObjects(Arrays.asList(location));
+	}
+
 	/**
 	 * @see MetadataDeployServiceImpl#fetchObject(Class, String)
 	 */
@@ -175,6 +500,173 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 		Assert.assertThat(deployService.fetchObject(Program.class, "da4a0391-ba62-4fad-ad66-1e3722d16380"), is(Context.getProgramWorkflowService().getProgram(1)));
 	}
 
+	/**
+	 * @see MetadataDeployServiceImpl#fetchObject(Class, String)
+	 */
+	@Test
+	public void fetchObject_shouldCacheAndVerifyPrimaryKeys() throws Exception {
+		MetadataCache cache = deployService.getCache();
+		cache.clear();
+		long hits = cache.getHitCount(), misses = cache.getMissCount();
+
+		Location xanadu = deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8");
+		Assert.assertThat(deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), is(xanadu));
+		Assert.assertThat(cache.getMissCount() - misses, is(1l));
+		Assert.assertThat(cache.getHitCount() - hits, is(1l));
+
+		// Identifier changed outside of this module so cached key no longer matches
+		xanadu.setUuid("0bc7bd26-5ec5-45f6-a4ff-7f8b1d9dbf5c");
+		Assert.assertThat(deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), nullValue());
+		Assert.assertThat(cache.getHitCount() - hits, is(1l));
+
+		// Saving through the service should evict the entry
+		deployService.fetchObject(Location.class, "0bc7bd26-5ec5-45f6-a4ff-7f8b1d9dbf5c");
+		int size = cache.size();
+		deployService.saveObject(xanadu);
+		Assert.assertThat(cache.size(), is(size - 1));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#fetchObject(Class, String)
+	 */
+	@Test
+	public void fetchObject_shouldReplaceHandlerQueryWithPrimaryKeyLookup() throws Exception {
+		MetadataCache cache = deployService.getCache();
+		cache.clear();
+
+		Context.flushSession();
+		Context.clearSession();
+
+		QueryCounter counter = new QueryCounter(sessionFactory);
+		try {
+			Location xanadu = deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8");
+			Assert.assertThat(counter.getQueryCount(), greaterThan(0l));
+
+			// Cached key of an object already in the session needs no SQL at all
+			counter.reset();
+			Assert.assertThat(deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), is(xanadu));
+			Assert.assertThat(counter.getStatementCount(), is(0l));
+
+			// Otherwise the object is loaded by primary key rather than by the handler's query
+			Context.clearSession();
+			counter.reset();
+			Assert.assertThat(deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), notNullValue());
+			Assert.assertThat(counter.getQueryCount(), is(0l));
+			Assert.assertThat(counter.getEntityLoadCount(Location.class), is(1l));
+		}
+		finally {
+			counter.stop();
+		}
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#fetchObject(Class, String)
+	 */
+	@Test
+	public void fetchObject_shouldCacheMissingIdentifiersUntilInstalled() throws Exception {
+		MetadataCache cache = deployService.getCache();
+		cache.clear();
+		long avoided = cache.getAvoidedMissCount();
+
+		Assert.assertThat(deployService.fetchObject(Location.class, uuid("legacy-location")), nullValue());
+		Assert.assertThat(deployService.fetchObject(Location.class, uuid("legacy-location")), nullValue());
+		Assert.assertThat(cache.getAvoidedMissCount() - avoided, is(1l));
+
+		// Installing an object with that identifier should evict the missing entry
+		Location installed = deployService.installObject(location("Legacy", "Testing", uuid("legacy-location")));
+
+		Assert.assertThat(deployService.fetchObject(Location.class, uuid("legacy-location")), is(installed));
+		Assert.assertThat(cache.getAvoidedMissCount() - avoided, is(1l));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#fetchObject(Class, String)
+	 */
+	@Test
+	public void fetchObject_shouldFindObjectCreatedThroughCoreServicesInSameTransaction() throws Exception {
+		deployService.getCache().clear();
+
+		Assert.assertThat(deployService.fetchObject(Location.class, uuid("legacy-location")), nullValue());
+
+		Location created = Context.getLocationService().saveLocation(location("Legacy", "Testing", uuid("legacy-location")));
+		Context.flushSession();
+
+		Assert.assertThat(deployService.fetchObject(Location.class, uuid("legacy-location")), is(created));
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#fetchCachedObject(Class, String)
+	 */
+	@Test
+	public void fetchCachedObject_shouldOnlyFetchObjectsWhichNeedNoSql() throws Exception {
+		MetadataCache cache = deployService.getCache();
+		cache.clear();
+
+		Context.flushSession();
+		Context.clearSession();
+
+		QueryCounter counter = new QueryCounter(sessionFactory);
+		try {
+			// No cached key
+			Assert.assertThat(deployService.fetchCachedObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), nullValue());
+			Assert.assertThat(counter.getStatementCount(), is(0l));
+
+			Location xanadu = deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8");
+
+			// Cached key of an object already in the session
+			counter.reset();
+			long hits = cache.getHitCount();
+			Assert.assertThat(deployService.fetchCachedObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), is(xanadu));
+			Assert.assertThat(cache.getHitCount() - hits, is(1l));
+			Assert.assertThat(counter.getStatementCount(), is(0l));
+
+			// Object not in the session is only returned if it's in the second-level cache
+			Context.clearSession();
+			counter.reset();
+			deployService.fetchCachedObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8");
+			Assert.assertThat(counter.getStatementCount(), is(0l));
+
+			// Identifier changed outside of this module
+			xanadu = deployService.fetchObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8");
+			xanadu.setUuid("0bc7bd26-5ec5-45f6-a4ff-7f8b1d9dbf5c");
+			Assert.assertThat(deployService.fetchCachedObject(Location.class, "9356400c-a5a2-4532-8f2b-2361b3446eb8"), nullValue());
+		}
+		finally {
+			counter.stop();
+		}
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#fetchConceptByMapping(String, String)
+	 */
+	@Test
+	public void fetchConceptByMapping_shouldFetchTypedConceptByMapping() throws Exception {
+		Concept cd4 = Context.getConceptService().getConcept(5497);
+
+		Concept fetched = deployService.fetchConceptByMapping("SSTRM", "cd41003");
+		Assert.assertThat(fetched, is(cd4));
+		Assert.assertThat(fetched, is(instanceOf(ConceptNumeric.class)));
+
+		Assert.assertThat(deployService.fetchConceptByMapping("SSTRM", "XXXXXX"), nullValue());
+	}
+
+	/**
+	 * @see MetadataDeployServiceImpl#fetchConceptByMapping(String, String)
+	 */
+	@Test
+	public void fetchConceptByMapping_shouldNotLoadIndexInTransactionWithConceptChanges() throws Exception {
+		conceptIndex.clear();
+
+		Concept cd4 = Context.getConceptService().getConcept(5497);
+		cd4.setVersion("2.0");
+		Context.getConceptService().saveConcept(cd4);
+		Context.flushSession();
+
+		// Answered without the index, which could otherwise be loaded with changes which are then rolled back
+		Assert.assertThat(deployService.fetchConceptByMapping("SSTRM", "cd41003"), is(cd4));
+		Assert.assertThat(conceptIndex.getSourceCount(), is(0));
+	}
+
 	/**
 	 * @see MetadataDeployServiceImpl#saveObject(org.openmrs.OpenmrsObject)
 	 */
@@ -231,8 +723,12 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 
 	@Component
 	public static class TestBundle1 extends AbstractMetadataBundle {
+		int installCount = 0;
+
 		@Override
 		public void install() {
+			installCount++;
+
 			install(privilege("Test Privilege 1", "Testing"));
 
 			install(role("Test Role 1", "Testing", null, idSet("Test Privilege 1")));
@@ -279,6 +775,28 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 		public void install() { }
 	}
 
+	/**
+	 * Installs a chain of locations, each of which references the previously installed location
+	 */
+	@Component
+	public static class FlushingBundle extends AbstractMetadataBundle {
+
+		List<Location> installed = new ArrayList<Location>();
+
+		@Override
+		public void install() {
+			installed.clear();
+
+			Location parent = null;
+			for (int l = 0; l < 5; ++l) {
+				Location location = location("Flush location " + l, "Testing", uuid("flush-location" + l));
+				location.setParentLocation(parent);
+				parent = install(location);
+				installed.add(parent);
+			}
+		}
+	}
+
 	/**
 	 * Throws an NPE on install
 	 */
@@ -290,6 +808,136 @@ public class MetadataDeployServiceImplTest extends BaseModuleContextSensitiveTes
 		}
 	}
 
+	/**
+	 * Versioned bundle which requires an unversioned bundle
+	 */
+	@Component
+	@Version(1)
+	@Requires({ TestBundle1.class })
+	public static class TestBundle7 extends AbstractMetadataBundle {
+		int installCount = 0;
+
+		@Override
+		public void install() {
+			installCount++;
+		}
+	}
+
+	/**
+	 * Versioned bundle with no requirements
+	 */
+	@Component
+	@Version(1)
+	public static class TestBundle8 extends AbstractMetadataBundle {
+		int installCount = 0;
+
+		@Override
+		public void install() {
+			installCount++;
+		}
+	}
+
+	/**
+	 * Versioned bundle which declares a resource that doesn't exist
+	 */
+	@Version(value = 1, resources = { "nonexistent.csv" })
+	public static class MissingResourceBundle extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ CyclicBundle2.class })
+	public static class CyclicBundle1 extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	@Requires({ CyclicBundle1.class })
+	public static class CyclicBundle2 extends AbstractMetadataBundle {
+		@Override
+		public void install() { }
+	}
+
+	/**
+	 * Base class for bundles which record the order in which they are installed. These are unversioned so that worker
+	 * transactions don't commit ledger entries which wouldn't be rolled back after each test.
+	 */
+	public static abstract class OrderRecordingBundle extends AbstractMetadataBundle {
+		private List<Class<?>> installOrder;
+
+		UserContext userContext;
+
+		User user;
+
+		public OrderRecordingBundle(List<Class<?>> installOrder) {
+			this.installOrder = installOrder;
+		}
+
+		@Override
+		public void install() {
+			installOrder.add(getClass());
+			userContext = Context.getUserContext();
+			user = Context.getAuthenticatedUser();
+		}
+	}
+
+	public static class ParallelBundle1 extends OrderRecordingBundle {
+		public ParallelBundle1(List<Class<?>> installOrder) {
+			super(installOrder);
+		}
+	}
+
+	@Requires({ ParallelBundle1.class })
+	public static class ParallelBundle2 extends OrderRecordingBundle {
+		public ParallelBundle2(List<Class<?>> installOrder) {
+			super(installOrder);
+		}
+	}
+
+	@Requires({ ParallelBundle1.class, ParallelBundle2.class })
+	public static class ParallelBundle3 extends OrderRecordingBundle {
+		public ParallelBundle3(List<Class<?>> installOrder) {
+			super(installOrder);
+		}
+	}
+
+	/**
+	 * Base class for bundles which wait for each other to start installing. Like the other bundles installed in parallel,
+	 * these are unversioned so that worker transactions don't commit ledger entries.
+	 */
+	public static abstract class OverlappingBundle extends AbstractMetadataBundle {
+		private CountDownLatch latch;
+
+		volatile boolean overlapped;
+
+		public OverlappingBundle(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void install() {
+			latch.countDown();
+			try {
+				overlapped = latch.await(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public static class OverlappingBundle1 extends OverlappingBundle {
+		public OverlappingBundle1(CountDownLatch latch) {
+			super(latch);
+		}
+	}
+
+	public static class OverlappingBundle2 extends OverlappingBundle {
+		public OverlappingBundle2(CountDownLatch latch) {
+			super(latch);
+		}
+	}
+
 	/**
 	 * Converts a simple identifier to a valid UUID (at least by our standards)
 	 * @return the UUID
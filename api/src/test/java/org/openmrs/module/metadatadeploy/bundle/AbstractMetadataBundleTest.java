@@ -23,6 +23,9 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
 import org.openmrs.module.metadatadeploy.MissingMetadataException;
+import org.openmrs.module.metadatadeploy.api.InstallCallback;
+import org.openmrs.module.metadatadeploy.api.InstallCounts;
+import org.openmrs.module.metadatadeploy.api.InstallOutcome;
 import org.openmrs.module.metadatadeploy.source.ObjectSource;
 import org.openmrs.module.metadatadeploy.sync.ObjectSynchronization;
 import org.openmrs.module.metadatadeploy.sync.SyncResult;
@@ -30,6 +33,8 @@ import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -60,6 +65,21 @@ public class AbstractMetadataBundleTest extends BaseModuleContextSensitiveTest {
 		Assert.assertThat(MetadataUtils.possible(VisitType.class, "3371a4d4-f66f-4454-a86d-92c7b3da990c"), notNullValue());
 	}
 
+	/**
+	 * @see AbstractMetadataBundle#install(java.util.Collection)
+	 */
+	@Test
+	public void install_shouldInstallAllObjectsInCollection() {
+		List<EncounterType> installed = emptyBundle.install(Arrays.asList(new EncounterType("name1", "desc1"), new EncounterType("name2", "desc2")));
+
+		EncounterType type1 = Context.getEncounterService().getEncounterType("name1");
+		EncounterType type2 = Context.getEncounterService().getEncounterType("name2");
+
+		Assert.assertThat(type1, notNullValue());
+		Assert.assertThat(type2, notNullValue());
+		Assert.assertThat(installed, contains(type1, type2));
+	}
+
 	/**
 	 * @see AbstractMetadataBundle#install(org.openmrs.module.metadatadeploy.source.ObjectSource)
 	 */
@@ -76,6 +96,34 @@ public class AbstractMetadataBundleTest extends BaseModuleContextSensitiveTest {
 		Assert.assertThat(installed, contains(type1, type2));
 	}
 
+	/**
+	 * @see AbstractMetadataBundle#install(org.openmrs.module.metadatadeploy.source.ObjectSource, org.openmrs.module.metadatadeploy.api.InstallCallback)
+	 */
+	@Test
+	public void install_shouldStreamObjectsFromSourceAndCountOutcomes() {
+		InstallCounts counts = emptyBundle.install(new TestEncounterTypeSource(), null);
+
+		Assert.assertThat(counts.getCreated(), is(2));
+		Assert.assertThat(counts.getTotal(), is(2));
+
+		// Re-install with new UUIDs so existing encounter types are matched by name and updated
+		final List<EncounterType> notified = new ArrayList<EncounterType>();
+		counts = emptyBundle.install(new TestEncounterTypeSource(), new InstallCallback<EncounterType>() {
+			@Override
+			public void objectInstalled(EncounterType installed, InstallOutcome outcome) {
+				Assert.assertThat(outcome, is(InstallOutcome.UPDATED));
+				notified.add(installed);
+			}
+		});
+
+		EncounterType type1 = Context.getEncounterService().getEncounterType("name1");
+		EncounterType type2 = Context.getEncounterService().getEncounterType("name2");
+
+		Assert.assertThat(counts.getUpdated(), is(2));
+		Assert.assertThat(counts.getTotal(), is(2));
+		Assert.assertThat(notified, contains(type1, type2));
+	}
+
 	/**
 	 * @see AbstractMetadataBundle#install(org.openmrs.module.metadatadeploy.source.ObjectSource)
 	 */
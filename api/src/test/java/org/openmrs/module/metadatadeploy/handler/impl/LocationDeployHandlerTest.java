@@ -14,10 +14,14 @@
 
 package org.openmrs.module.metadatadeploy.handler.impl;
 
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Location;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.module.metadatadeploy.QueryCounter;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -31,9 +35,16 @@ import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.location
  */
 public class LocationDeployHandlerTest extends BaseModuleContextSensitiveTest {
 
+	private static final int XANADU_ID = 2;
+
+	private static final String XANADU_UUID = "9356400c-a5a2-4532-8f2b-2361b3446eb8";
+
 	@Autowired
 	private MetadataDeployService deployService;
 
+	@Autowired
+	private SessionFactory sessionFactory;
+
 	@Test
 	public void integration() {
 		// Check installing new
@@ -70,4 +81,36 @@ public class LocationDeployHandlerTest extends BaseModuleContextSensitiveTest {
 		// Check everything can be persisted
 		Context.flushSession();
 	}
+
+	/**
+	 * Tests that re-installing an unchanged location doesn't write anything or initialize its parent
+	 */
+	@Test
+	public void integration_shouldNotWriteOrInitializeProxiesIfUnchanged() {
+		Location child = location("Child name", "Child desc", "obj-uuid");
+		child.setParentLocation(MetadataUtils.existing(Location.class, XANADU_UUID));
+		deployService.installObject(child);
+
+		Context.flushSession();
+		Context.clearSession();
+
+		// Get the parent as an uninitialized proxy
+		Location parent = (Location) sessionFactory.getCurrentSession().load(Location.class, XANADU_ID);
+
+		QueryCounter counter = new QueryCounter(sessionFactory);
+		try {
+			Location incoming = location("Child name", "Child desc", "obj-uuid");
+			incoming.setParentLocation(parent);
+			deployService.installObject(incoming);
+
+			Context.flushSession();
+
+			Assert.assertThat(counter.getEntityWriteCount(), is(0l));
+			Assert.assertThat(counter.getCollectionWriteCount(), is(0l));
+			Assert.assertThat(Hibernate.isInitialized(parent), is(false));
+		}
+		finally {
+			counter.stop();
+		}
+	}
 }
\ No newline at end of file
@@ -22,6 +22,10 @@ import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.personAttributeType;
@@ -70,4 +74,31 @@ public class PersonAttributeTypeDeployHandlerTest extends BaseModuleContextSensi
 		// Check everything can be persisted
 		Context.flushSession();
 	}
+
+	/**
+	 * Tests use of handler for batch installation
+	 */
+	@Test
+	public void integration_batch() {
+		PersonAttributeType race = Context.getPersonService().getPersonAttributeTypeByName("Race");
+
+		List<PersonAttributeType> installed = deployService.installObjects(Arrays.asList(
+				personAttributeType("New name", "New desc", String.class, null, false, 1, "obj-uuid"),
+				personAttributeType("Race", "Updated desc", String.class, null, false, 2, "race-uuid")
+		));
+
+		Assert.assertThat(installed, hasSize(2));
+		Assert.assertThat(installed.get(0).getUuid(), is("obj-uuid"));
+
+		// Check existing object was matched by name and overwritten
+		Assert.assertThat(installed.get(1).getId(), is(race.getId()));
+		Assert.assertThat(installed.get(1).getUuid(), is("race-uuid"));
+		Assert.assertThat(installed.get(1).getDescription(), is("Updated desc"));
+
+		// Check everything can be persisted
+		Context.flushSession();
+
+		Assert.assertThat(Context.getPersonService().getPersonAttributeTypeByUuid("obj-uuid").getName(), is("New name"));
+		Assert.assertThat(Context.getPersonService().getPersonAttributeTypeByUuid("race-uuid").getId(), is(race.getId()));
+	}
 }
\ No newline at end of file
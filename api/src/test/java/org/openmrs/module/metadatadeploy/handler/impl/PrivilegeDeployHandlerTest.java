@@ -22,8 +22,13 @@ import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.privilege;
 
 /**
@@ -71,4 +76,24 @@ public class PrivilegeDeployHandlerTest extends BaseModuleContextSensitiveTest {
 		// Check everything can be persisted
 		Context.flushSession();
 	}
+
+	/**
+	 * Tests use of handler for batch installation
+	 */
+	@Test
+	public void integration_batch() {
+		List<Privilege> installed = deployService.installObjects(Arrays.asList(
+				privilege("Privilege1", "New desc"),
+				privilege("Privilege2", "New desc"),
+				privilege("Privilege1", "Updated desc")
+		));
+
+		Assert.assertThat(installed, hasSize(3));
+		Assert.assertThat(installed.get(2), sameInstance(installed.get(0)));
+
+		Context.flushSession();
+
+		Assert.assertThat(Context.getUserService().getPrivilege("Privilege1").getDescription(), is("Updated desc"));
+		Assert.assertThat(Context.getUserService().getPrivilege("Privilege2").getDescription(), is("New desc"));
+	}
 }
\ No newline at end of file
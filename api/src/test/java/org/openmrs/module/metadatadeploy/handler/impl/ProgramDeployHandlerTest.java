@@ -22,11 +22,14 @@ import org.openmrs.ProgramWorkflow;
 import org.openmrs.ProgramWorkflowState;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.module.metadatadeploy.api.FlushPolicy;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
+import org.openmrs.module.metadatadeploy.api.impl.InstallContext;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.program;
 
@@ -104,4 +107,33 @@ public class ProgramDeployHandlerTest extends BaseModuleContextSensitiveTest {
 		// Check everything can be persisted
 		Context.flushSession();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @see ProgramDeployHandler#findAlternateMatch(org.openmrs.Program)
+	 */
+	@Test
+	public void findAlternateMatch_shouldMatchNamesCaseSensitively() {
+		final String HIV_PROGRAM_UUID = "0a9afe04-088b-44ca-9291-0a8c3b5c96fa";
+
+		Program existing = deployService.installObject(program("Test Program", "Testing", HIV_PROGRAM_UUID, "obj1-uuid"));
+
+		Program installed = deployService.installObject(program("TEST PROGRAM", "Testing", HIV_PROGRAM_UUID, "obj2-uuid"));
+		Assert.assertThat(installed.getId(), is(not(existing.getId())));
+
+		// Check the alternate key index used during bundle installation agrees
+		InstallContext.begin(FlushPolicy.END_OF_BUNDLE);
+		try {
+			installed = deployService.installObject(program("test program", "Testing", HIV_PROGRAM_UUID, "obj3-uuid"));
+			Assert.assertThat(installed.getId(), is(not(existing.getId())));
+
+			installed = deployService.installObject(program("Test Program", "Testing", HIV_PROGRAM_UUID, "obj4-uuid"));
+			Assert.assertThat(installed.getId(), is(existing.getId()));
+		}
+		finally {
+			InstallContext.end();
+		}
+
+		// Check everything can be persisted
+		Context.flushSession();
+	}
+}
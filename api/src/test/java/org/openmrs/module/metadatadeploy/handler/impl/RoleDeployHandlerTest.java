@@ -22,6 +22,7 @@ import org.openmrs.Privilege;
 import org.openmrs.Role;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.metadatadeploy.MetadataUtils;
+import org.openmrs.module.metadatadeploy.QueryCounter;
 import org.openmrs.module.metadatadeploy.api.MetadataDeployService;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.TestUtil;
@@ -142,4 +143,31 @@ public class RoleDeployHandlerTest extends BaseModuleContextSensitiveTest {
 
 		Assert.assertThat(role2.getInheritedRoles(), contains(role1));
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Tests that re-installing an unchanged role doesn't write the role or its collections
+	 */
+	@Test
+	public void integration_shouldNotWriteIfUnchanged() throws Exception {
+		deployService.installObject(privilege("Privilege1", "Testing"));
+		deployService.installObject(privilege("Privilege2", "Testing"));
+		deployService.installObject(role("Role1", "Testing", null, null));
+		deployService.installObject(role("Role2", "Testing", idSet("Role1"), idSet("Privilege1", "Privilege2")));
+
+		Context.flushSession();
+		Context.clearSession();
+
+		QueryCounter counter = new QueryCounter(sessionFactory);
+		try {
+			deployService.installObject(role("Role2", "Testing", idSet("Role1"), idSet("Privilege1", "Privilege2")));
+
+			Context.flushSession();
+
+			Assert.assertThat(counter.getEntityWriteCount(), is(0l));
+			Assert.assertThat(counter.getCollectionWriteCount(), is(0l));
+		}
+		finally {
+			counter.stop();
+		}
+	}
+}
@@ -18,7 +18,14 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Location;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import static org.hamcrest.Matchers.*;
 
@@ -46,13 +53,89 @@ public class AbstractCsvResourceSourceTest {
 		Assert.assertThat(csvSource.fetchNext(), nullValue());
 	}
 
+	@Test
+	public void integration_parallelOrdered() throws Exception {
+		AbstractCsvResourceSource<Location> csvSource = new TestCsvSource();
+		csvSource.setParallelism(2);
+		csvSource.setChunkSize(1);
+
+		Assert.assertThat(fetchNames(csvSource), contains("Location #1", "Location #2", "Location #3"));
+		Assert.assertThat(csvSource.fetchNext(), nullValue());
+	}
+
+	@Test
+	public void integration_parallelUnordered() throws Exception {
+		AbstractCsvResourceSource<Location> csvSource = new TestCsvSource();
+		csvSource.setParallelism(3);
+		csvSource.setChunkSize(2);
+		csvSource.setOrdered(false);
+
+		Assert.assertThat(fetchNames(csvSource), containsInAnyOrder("Location #1", "Location #2", "Location #3"));
+	}
+
+	@Test
+	public void integration_gzipped() throws Exception {
+		AbstractCsvResourceSource<Location> csvSource = new TestCsvSource("test-location-source.csv.gz");
+
+		Assert.assertThat(fetchNames(csvSource), contains("Location #1", "Location #2", "Location #3"));
+	}
+
+	@Test
+	public void integration_snapshotCompiledByBuild() throws Exception {
+		String csvFile = "test-snapshot-location-source.csv";
+
+		// Snapshot is compiled by the compile-test-csv-snapshots execution in the build
+		URL snapshot = getClass().getClassLoader().getResource(csvFile + CsvSnapshotCompiler.SNAPSHOT_EXTENSION);
+		Assert.assertThat(snapshot, notNullValue());
+		Assert.assertThat(CsvSnapshotReader.open(snapshot).isSnapshotOf(getClass().getClassLoader().getResourceAsStream(csvFile)), is(true));
+
+		AbstractCsvResourceSource<Location> csvSource = new TestCsvSource(csvFile);
+
+		Assert.assertThat(fetchNames(csvSource), contains("Location #1", "Location #2", "Location #3"));
+	}
+
+	/**
+	 * @see AbstractCsvResourceSource#decompress(String, java.io.InputStream)
+	 */
+	@Test
+	public void decompress_shouldDetectGzipByMagicNumber() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+		gzip.write("a,b".getBytes("UTF-8"));
+		gzip.close();
+
+		InputStream compressed = AbstractCsvResourceSource.decompress("test.csv", new ByteArrayInputStream(bytes.toByteArray()));
+		Assert.assertThat(new CsvRowReader(compressed).readNext(), arrayContaining("a", "b"));
+
+		InputStream plain = AbstractCsvResourceSource.decompress("test.csv", new ByteArrayInputStream("a,b".getBytes("UTF-8")));
+		Assert.assertThat(new CsvRowReader(plain).readNext(), arrayContaining("a", "b"));
+	}
+
+	/**
+	 * Fetches all objects from the given source
+	 * @param source the source
+	 * @return the location names
+	 */
+	protected static List<String> fetchNames(ObjectSource<Location> source) throws Exception {
+		List<String> names = new ArrayList<String>();
+		Location location;
+		while ((location = source.fetchNext()) != null) {
+			names.add(location.getName());
+		}
+		return names;
+	}
+
 	/**
 	 * Implementation for testing
 	 */
 	protected class TestCsvSource extends AbstractCsvResourceSource<Location> {
 
 		public TestCsvSource() throws IOException {
-			super("test-location-source.csv", true);
+			this("test-location-source.csv");
+		}
+
+		public TestCsvSource(String csvFile) throws IOException {
+			super(csvFile, true);
 		}
 
 		@Override
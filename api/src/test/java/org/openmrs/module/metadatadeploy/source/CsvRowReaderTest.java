@@ -0,0 +1,161 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link CsvRowReader}
+ */
+public class CsvRowReaderTest {
+
+	/**
+	 * @see CsvRowReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldTrimValuesAndReturnEmptyValuesAsNulls() throws Exception {
+		CsvRowReader reader = new CsvRowReader(new StringReader("  x  ,, \ny,z"));
+
+		Assert.assertThat(reader.readNext(), arrayContaining("x", null, null));
+		Assert.assertThat(reader.readNext(), arrayContaining("y", "z"));
+		Assert.assertThat(reader.readNext(), nullValue());
+	}
+
+	/**
+	 * @see CsvRowReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldParseQuotedAndEscapedValues() throws Exception {
+		CsvRowReader reader = new CsvRowReader(new StringReader(
+				"a,\"b,c\",d\r\n" +
+				"\"he said \"\"hi\"\"\",x\r\n" +
+				"\"a \\\"q\\\" b\",y\n" +
+				"a,bc\"d\"ef,g\n"
+		));
+
+		Assert.assertThat(reader.readNext(), arrayContaining("a", "b,c", "d"));
+		Assert.assertThat(reader.readNext(), arrayContaining("he said \"hi\"", "x"));
+		Assert.assertThat(reader.readNext(), arrayContaining("a \"q\" b", "y"));
+		Assert.assertThat(reader.readNext(), arrayContaining("a", "bc\"d\"ef", "g"));
+		Assert.assertThat(reader.readNext(), nullValue());
+	}
+
+	/**
+	 * @see CsvRowReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldParseQuotedValuesSpanningMultipleLines() throws Exception {
+		CsvRowReader reader = new CsvRowReader(new StringReader("\"line1\r\nline2\",z\nnext"));
+
+		Assert.assertThat(reader.readNext(), arrayContaining("line1\nline2", "z"));
+		Assert.assertThat(reader.readNext(), arrayContaining("next"));
+		Assert.assertThat(reader.readNext(), nullValue());
+	}
+
+	/**
+	 * @see CsvRowReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldHandleLineBreaksSplitAcrossReads() throws Exception {
+		// Reader which returns one character per read, so \r\n is always split between reads
+		Reader oneCharReader = new FilterReader(new StringReader("a,b\r\nc\r\rd\n")) {
+			@Override
+			public int read(char[] chars, int offset, int length) throws IOException {
+				return super.read(chars, offset, Math.min(length, 1));
+			}
+		};
+		CsvRowReader reader = new CsvRowReader(oneCharReader);
+
+		Assert.assertThat(reader.readNext(), arrayContaining("a", "b"));
+		Assert.assertThat(reader.readNext(), arrayContaining("c"));
+		Assert.assertThat(reader.readNext(), arrayContaining((String) null));
+		Assert.assertThat(reader.readNext(), arrayContaining("d"));
+		Assert.assertThat(reader.readNext(), nullValue());
+	}
+
+	/**
+	 * @see CsvRowReader#CsvRowReader(java.io.InputStream)
+	 */
+	@Test
+	public void readNext_shouldDecodeInputAsUTF8() throws Exception {
+		byte[] bytes = "Kisumu,Homa Bay \u00e9\u00e8".getBytes("UTF-8");
+		CsvRowReader reader = new CsvRowReader(new ByteArrayInputStream(bytes));
+
+		Assert.assertThat(reader.readNext(), arrayContaining("Kisumu", "Homa Bay \u00e9\u00e8"));
+	}
+
+	/**
+	 * @see CsvRowReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldReturnNewRowArrays() throws Exception {
+		CsvRowReader reader = new CsvRowReader(new StringReader("a,b\nc,d"));
+
+		String[] row1 = reader.readNext();
+		String[] row2 = reader.readNext();
+
+		Assert.assertThat(row2, not(sameInstance(row1)));
+		Assert.assertThat(row1, arrayContaining("a", "b"));
+		Assert.assertThat(row2, arrayContaining("c", "d"));
+	}
+
+	/**
+	 * @see CsvRowReader#setReuseRows(boolean)
+	 */
+	@Test
+	public void setReuseRows_shouldReuseRowArrayForRowsWithSameLength() throws Exception {
+		CsvRowReader reader = new CsvRowReader(new StringReader("a,b\nc,d\ne"));
+		reader.setReuseRows(true);
+
+		String[] row1 = reader.readNext();
+		String[] row2 = reader.readNext();
+		String[] row3 = reader.readNext();
+
+		Assert.assertThat(row2, sameInstance(row1));
+		Assert.assertThat(row2, arrayContaining("c", "d"));
+		Assert.assertThat(row3, arrayContaining("e"));
+	}
+
+	/**
+	 * @see CsvRowReader#readRecord(StringBuilder)
+	 */
+	@Test
+	public void readRecord_shouldReadWholeRowsIncludingQuotedLineBreaks() throws Exception {
+		CsvRowReader reader = new CsvRowReader(new StringReader("a,\"b\r\n\"\"c\"\"\",d\r\ne,\"f \\\" g\"\n"));
+
+		StringBuilder text = new StringBuilder();
+		Assert.assertThat(reader.readRecord(text), is(true));
+		Assert.assertThat(text.toString(), is("a,\"b\n\"\"c\"\"\",d\n"));
+
+		text.setLength(0);
+		Assert.assertThat(reader.readRecord(text), is(true));
+		Assert.assertThat(text.toString(), is("e,\"f \\\" g\"\n"));
+
+		Assert.assertThat(reader.readRecord(text), is(false));
+
+		CsvRowReader textReader = new CsvRowReader(new StringReader(text.toString()));
+		Assert.assertThat(textReader.readNext(), arrayContaining("e", "f \" g"));
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link CsvSnapshotReader} and {@link CsvSnapshotCompiler}
+ */
+public class CsvSnapshotReaderTest {
+
+	/**
+	 * @see CsvSnapshotReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldReadSameRowsAsCompiledFromCsv() throws Exception {
+		String csv = "Name,Desc\nA,x,u1\n  B,,u2\nC  ,x,u3,extra\n\"multi\nline\",\u00e9\n";
+
+		CsvSnapshotReader reader = new CsvSnapshotReader(compile(csv));
+
+		Assert.assertThat(reader.readNext(), arrayContaining("Name", "Desc"));
+		Assert.assertThat(reader.readNext(), arrayContaining("A", "x", "u1"));
+		Assert.assertThat(reader.readNext(), arrayContaining("B", null, "u2"));
+		Assert.assertThat(reader.readNext(), arrayContaining("C", "x", "u3", "extra"));
+		Assert.assertThat(reader.readNext(), arrayContaining("multi\nline", "\u00e9"));
+		Assert.assertThat(reader.readNext(), nullValue());
+	}
+
+	/**
+	 * @see CsvSnapshotReader#readNext()
+	 */
+	@Test
+	public void readNext_shouldShareDictionaryValuesBetweenRows() throws Exception {
+		CsvSnapshotReader reader = new CsvSnapshotReader(compile("a,b\nb,a\n"));
+
+		String first = reader.readNext()[1];
+		String second = reader.readNext()[0];
+
+		Assert.assertThat(second, sameInstance(first));
+	}
+
+	/**
+	 * @see CsvSnapshotReader#isSnapshotOf(java.io.InputStream)
+	 */
+	@Test
+	public void isSnapshotOf_shouldReturnFalseIfSourceHasChanged() throws Exception {
+		CsvSnapshotReader reader = new CsvSnapshotReader(compile("a,b\nc,d\n"));
+
+		Assert.assertThat(reader.isSnapshotOf(new ByteArrayInputStream("a,b\nc,d\n".getBytes("UTF-8"))), is(true));
+		Assert.assertThat(reader.isSnapshotOf(new ByteArrayInputStream("a,b\nc,e\n".getBytes("UTF-8"))), is(false));
+		Assert.assertThat(reader.isSnapshotOf(new ByteArrayInputStream("a,b\nc,d\ne\n".getBytes("UTF-8"))), is(false));
+	}
+
+	/**
+	 * @see CsvSnapshotReader#setReuseRows(boolean)
+	 */
+	@Test
+	public void setReuseRows_shouldReuseRowArrayForRowsWithSameLength() throws Exception {
+		CsvSnapshotReader reader = new CsvSnapshotReader(compile("a,b\nc,d\n"));
+
+		Assert.assertThat(reader.readNext(), not(sameInstance(reader.readNext())));
+
+		reader = new CsvSnapshotReader(compile("a,b\nc,d\n"));
+		reader.setReuseRows(true);
+
+		Assert.assertThat(reader.readNext(), sameInstance(reader.readNext()));
+	}
+
+	/**
+	 * @see CsvSnapshotReader#CsvSnapshotReader(java.nio.ByteBuffer)
+	 */
+	@Test(expected = IOException.class)
+	public void CsvSnapshotReader_shouldFailIfNotASnapshot() throws Exception {
+		new CsvSnapshotReader(ByteBuffer.wrap("Name,Desc\nA,x\n".getBytes("UTF-8")));
+	}
+
+	/**
+	 * Compiles the given CSV into a snapshot
+	 * @param csv the CSV
+	 * @return the snapshot
+	 */
+	protected static ByteBuffer compile(String csv) throws IOException {
+		byte[] bytes = csv.getBytes("UTF-8");
+		CRC32 checksum = new CRC32();
+		checksum.update(bytes);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CsvSnapshotCompiler.compile(new CsvRowReader(new StringReader(csv)), bytes.length, checksum.getValue(), out);
+		return ByteBuffer.wrap(out.toByteArray());
+	}
+}
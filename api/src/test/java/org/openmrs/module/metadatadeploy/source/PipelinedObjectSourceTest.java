@@ -0,0 +1,125 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.source;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link PipelinedObjectSource}
+ */
+public class PipelinedObjectSourceTest {
+
+	/**
+	 * @see PipelinedObjectSource#fetchNext()
+	 */
+	@Test
+	public void fetchNext_shouldFetchAllObjectsInOrder() throws Exception {
+		PipelinedObjectSource<Location> source = new PipelinedObjectSource<Location>(new CountingSource(100, -1), 10);
+
+		List<String> names = new ArrayList<String>();
+		Location location;
+		while ((location = source.fetchNext()) != null) {
+			names.add(location.getName());
+		}
+
+		Assert.assertThat(names, hasSize(100));
+		Assert.assertThat(names.get(0), is("Location 0"));
+		Assert.assertThat(names.get(99), is("Location 99"));
+
+		// Check fetching after the end still returns null
+		Assert.assertThat(source.fetchNext(), nullValue());
+	}
+
+	/**
+	 * @see PipelinedObjectSource#fetchNext()
+	 */
+	@Test
+	public void fetchNext_shouldRethrowExceptionFromUnderlyingSource() throws Exception {
+		PipelinedObjectSource<Location> source = new PipelinedObjectSource<Location>(new CountingSource(100, 3), 10);
+
+		// Check objects fetched before the exception are still delivered
+		Assert.assertThat(source.fetchNext().getName(), is("Location 0"));
+		Assert.assertThat(source.fetchNext().getName(), is("Location 1"));
+		Assert.assertThat(source.fetchNext().getName(), is("Location 2"));
+
+		try {
+			source.fetchNext();
+			Assert.fail();
+		}
+		catch (IllegalArgumentException ex) {
+			Assert.assertThat(ex.getMessage(), is("Broken row 3"));
+		}
+	}
+
+	/**
+	 * @see PipelinedObjectSource#fetchNext()
+	 */
+	@Test
+	public void fetchNext_shouldNotFetchMoreThanCapacityAhead() throws Exception {
+		CountingSource underlying = new CountingSource(100, -1);
+		PipelinedObjectSource<Location> source = new PipelinedObjectSource<Location>(underlying, 5);
+
+		source.fetchNext();
+
+		// Give the producer time to fill the queue
+		Thread.sleep(200);
+
+		// 1 consumed, 5 queued and 1 waiting to be queued
+		Assert.assertThat(underlying.fetched.get(), lessThanOrEqualTo(7));
+
+		source.close();
+	}
+
+	/**
+	 * Source which creates a given number of locations, optionally throwing an exception at a given row
+	 */
+	public static class CountingSource implements ObjectSource<Location> {
+
+		private final int count;
+
+		private final int brokenRow;
+
+		AtomicInteger fetched = new AtomicInteger();
+
+		public CountingSource(int count, int brokenRow) {
+			this.count = count;
+			this.brokenRow = brokenRow;
+		}
+
+		@Override
+		public Location fetchNext() throws Exception {
+			int row = fetched.getAndIncrement();
+			if (row == brokenRow) {
+				throw new IllegalArgumentException("Broken row " + row);
+			}
+			if (row >= count) {
+				return null;
+			}
+
+			Location location = new Location();
+			location.setName("Location " + row);
+			return location;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.hibernate.SessionFactory;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.APIException;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.metadatadeploy.source.AbstractCsvResourceSource;
+import org.openmrs.module.metadatadeploy.source.ObjectSource;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Tests for {@link ChunkedSynchronizationRunner}
+ */
+public class ChunkedSynchronizationRunnerTest extends BaseModuleContextSensitiveTest {
+
+	private static final String XANADU_UUID = "9356400c-a5a2-4532-8f2b-2361b3446eb8";
+
+	@Autowired
+	private LocationService locationService;
+
+	@Autowired
+	private SessionFactory sessionFactory;
+
+	/**
+	 * @see ChunkedSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldResumeAfterCheckpointAndOnlyRetireAfterCompletePass() throws Exception {
+		TestCheckpointStore store = new TestCheckpointStore();
+
+		ChunkedSynchronizationRunner<Location> runner1 = createRunner(new FailingSource(new TestCsvSource(), 2), store);
+		try {
+			runner1.run();
+			Assert.fail("Expected synchronization to fail");
+		}
+		catch (APIException ex) {
+			// Expected
+		}
+
+		// Nothing was retired after an incomplete pass
+		Assert.assertThat(locationService.getLocationByUuid(XANADU_UUID).isRetired(), is(false));
+
+		// Tests run inside a transaction, so record the checkpoint that the first run would have saved if it had run
+		// outside of one
+		SyncCheckpoint checkpoint = new SyncCheckpoint();
+		checkpoint.setPosition(2);
+		checkpoint.addSyncedKey("51DA0E0A-CD4B-4D48-9422-7555623662BB");
+		checkpoint.addSyncedKey("C271874A-DACE-480A-8D55-840A96ADA70F");
+		store.save("locations", checkpoint);
+
+		// Objects before the checkpoint position shouldn't be synchronized again
+		Location location1 = locationService.getLocationByUuid("51DA0E0A-CD4B-4D48-9422-7555623662BB");
+		location1.setName("Changed since checkpoint");
+		locationService.saveLocation(location1);
+
+		ChunkedSynchronizationRunner<Location> runner2 = createRunner(new TestCsvSource(), store);
+		SyncResult<Location> result = runner2.run();
+
+		Assert.assertThat(result.getCreated(), hasSize(1)); // Only the location not committed by the first run
+		Assert.assertThat(result.getCreated().get(0).getName(), is("Location #3"));
+		Assert.assertThat(result.getUpdated(), hasSize(0));
+		Assert.assertThat(result.getRetired(), hasSize(2)); // Retired 'Unknown Location' and 'Xanadu'
+		Assert.assertThat(location1.getName(), is("Changed since checkpoint"));
+		Assert.assertThat(store.load("locations"), nullValue());
+	}
+
+	/**
+	 * @see ChunkedSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldNotSaveCheckpointsOrClearSessionInsideExistingTransaction() throws Exception {
+		TestCheckpointStore store = new TestCheckpointStore();
+		Location xanadu = locationService.getLocationByUuid(XANADU_UUID);
+
+		ChunkedSynchronizationRunner<Location> runner = createRunner(new FailingSource(new TestCsvSource(), 2), store);
+		try {
+			runner.run();
+			Assert.fail("Expected synchronization to fail");
+		}
+		catch (APIException ex) {
+			// Expected
+		}
+
+		// Chunks haven't been committed so can't be checkpointed
+		Assert.assertThat(store.load("locations"), nullValue());
+		Assert.assertThat(sessionFactory.getCurrentSession().contains(xanadu), is(true));
+	}
+
+	/**
+	 * @see FileSyncCheckpointStore#save(String, SyncCheckpoint)
+	 */
+	@Test
+	public void FileSyncCheckpointStore_shouldSaveLoadAndDeleteCheckpoints() throws Exception {
+		FileSyncCheckpointStore store = new FileSyncCheckpointStore(OpenmrsUtil.getDirectoryInApplicationDataDirectory("test"));
+
+		SyncCheckpoint checkpoint = new SyncCheckpoint();
+		checkpoint.setPosition(123);
+		checkpoint.addSyncedKey("abc");
+		checkpoint.addSyncedKey(456);
+		store.save("test-sync", checkpoint);
+
+		SyncCheckpoint loaded = store.load("test-sync");
+		Assert.assertThat(loaded.getPosition(), is(123l));
+		Assert.assertThat(loaded.isSynced("abc"), is(true));
+		Assert.assertThat(loaded.isSynced(456), is(true));
+
+		store.delete("test-sync");
+		Assert.assertThat(store.load("test-sync"), nullValue());
+	}
+
+	/**
+	 * @see FileSyncCheckpointStore#save(String, SyncCheckpoint)
+	 */
+	@Test
+	public void FileSyncCheckpointStore_shouldAppendOnlyUnsavedKeys() throws Exception {
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory("test");
+		FileSyncCheckpointStore store = new FileSyncCheckpointStore(directory);
+		File file = new File(directory, "test-sync.checkpoint");
+
+		SyncCheckpoint checkpoint = new SyncCheckpoint();
+		checkpoint.setPosition(1);
+		checkpoint.addSyncedKey("abc");
+		store.save("test-sync", checkpoint);
+		long firstLength = file.length();
+
+		checkpoint.setPosition(2);
+		checkpoint.addSyncedKey("def");
+		store.save("test-sync", checkpoint);
+
+		// Second record only holds the new key
+		Assert.assertThat(checkpoint.getUnsavedKeys(), empty());
+		Assert.assertThat(file.length(), is(2 * firstLength));
+
+		SyncCheckpoint loaded = store.load("test-sync");
+		Assert.assertThat(loaded.getPosition(), is(2l));
+		Assert.assertThat(loaded.getSyncedKeys(), containsInAnyOrder("abc", "def"));
+
+		store.delete("test-sync");
+	}
+
+	/**
+	 * @see FileSyncCheckpointStore#load(String)
+	 */
+	@Test
+	public void FileSyncCheckpointStore_shouldIgnorePartlyWrittenRecord() throws Exception {
+		File directory = OpenmrsUtil.getDirectoryInApplicationDataDirectory("test");
+		FileSyncCheckpointStore store = new FileSyncCheckpointStore(directory);
+
+		SyncCheckpoint checkpoint = new SyncCheckpoint();
+		checkpoint.setPosition(1);
+		checkpoint.addSyncedKey("abc");
+		store.save("test-sync", checkpoint);
+
+		// Simulate a crash part way through appending the next record
+		FileOutputStream out = new FileOutputStream(new File(directory, "test-sync.checkpoint"), true);
+		out.write(new byte[] { 0, 0, 0 });
+		out.close();
+
+		SyncCheckpoint loaded = store.load("test-sync");
+		Assert.assertThat(loaded.getPosition(), is(1l));
+		Assert.assertThat(loaded.getSyncedKeys(), contains("abc"));
+		Assert.assertThat(loaded.isSaved(), is(false));
+
+		// Next save replaces the corrupt log
+		loaded.setPosition(2);
+		loaded.addSyncedKey("def");
+		store.save("test-sync", loaded);
+
+		loaded = store.load("test-sync");
+		Assert.assertThat(loaded.getPosition(), is(2l));
+		Assert.assertThat(loaded.getSyncedKeys(), containsInAnyOrder("abc", "def"));
+
+		store.delete("test-sync");
+	}
+
+	/**
+	 * Creates a runner with a chunk size of one
+	 */
+	protected ChunkedSynchronizationRunner<Location> createRunner(ObjectSource<Location> source, SyncCheckpointStore store) {
+		ChunkedSynchronizationRunner<Location> runner = new ChunkedSynchronizationRunner<Location>("locations", source, new TestIndexedSynchronization());
+		runner.setChunkSize(1);
+		runner.setCheckpointStore(store);
+		return runner;
+	}
+
+	/**
+	 * Source which fails after a number of objects
+	 */
+	protected class FailingSource implements ObjectSource<Location> {
+
+		private ObjectSource<Location> source;
+
+		private int remaining;
+
+		public FailingSource(ObjectSource<Location> source, int failAfter) {
+			this.source = source;
+			this.remaining = failAfter;
+		}
+
+		@Override
+		public Location fetchNext() throws Exception {
+			if (remaining-- == 0) {
+				throw new IOException("Source failure");
+			}
+			return source.fetchNext();
+		}
+	}
+
+	/**
+	 * In-memory checkpoint store for testing
+	 */
+	protected class TestCheckpointStore implements SyncCheckpointStore {
+
+		private Map<String, SyncCheckpoint> checkpoints = new HashMap<String, SyncCheckpoint>();
+
+		@Override
+		public SyncCheckpoint load(String name) {
+			return checkpoints.get(name);
+		}
+
+		@Override
+		public void save(String name, SyncCheckpoint checkpoint) {
+			checkpoints.put(name, checkpoint);
+		}
+
+		@Override
+		public void delete(String name) {
+			checkpoints.remove(name);
+		}
+	}
+
+	/**
+	 * Location source for testing
+	 */
+	protected class TestCsvSource extends AbstractCsvResourceSource<Location> {
+
+		public TestCsvSource() throws IOException {
+			super("test-location-source.csv", true);
+		}
+
+		@Override
+		protected Location parseLine(String[] line) {
+			Location location = new Location();
+			location.setName(line[0]);
+			location.setDescription(line[1]);
+			location.setUuid(line[2]);
+			return location;
+		}
+	}
+
+	/**
+	 * Indexed location UUID based synchronization for testing
+	 */
+	protected class TestIndexedSynchronization implements IndexedObjectSynchronization<Location> {
+
+		@Override
+		public List<Location> fetchAllExisting() {
+			return locationService.getAllLocations(true);
+		}
+
+		@Override
+		public Object getObjectSyncKey(Location obj) {
+			return obj.getUuid();
+		}
+
+		@Override
+		public boolean updateRequired(Location incoming, Location existing) {
+			return !OpenmrsUtil.nullSafeEquals(incoming.getName(), existing.getName())
+					|| !OpenmrsUtil.nullSafeEquals(incoming.getDescription(), existing.getDescription());
+		}
+
+		@Override
+		public Class<Location> getObjectClass() {
+			return Location.class;
+		}
+
+		@Override
+		public String[] getIndexProperties() {
+			return new String[] { "uuid", "name", "description" };
+		}
+
+		@Override
+		public Object[] getIndexValues(Location obj) {
+			return new Object[] { obj.getUuid(), obj.getName(), obj.getDescription() };
+		}
+
+		@Override
+		public Object getIndexSyncKey(Object[] values) {
+			return values[0];
+		}
+	}
+}
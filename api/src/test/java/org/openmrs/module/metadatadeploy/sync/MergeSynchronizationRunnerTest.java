@@ -0,0 +1,181 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.metadatadeploy.sync;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmrs.Location;
+import org.openmrs.api.APIException;
+import org.openmrs.api.LocationService;
+import org.openmrs.module.metadatadeploy.source.ObjectSource;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.util.OpenmrsUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.Matchers.*;
+import static org.openmrs.module.metadatadeploy.bundle.CoreConstructors.location;
+
+/**
+ * Tests for {@link MergeSynchronizationRunner}
+ */
+public class MergeSynchronizationRunnerTest extends BaseModuleContextSensitiveTest {
+
+	private static final String XANADU_UUID = "9356400c-a5a2-4532-8f2b-2361b3446eb8";
+
+	@Autowired
+	private LocationService locationService;
+
+	/**
+	 * @see MergeSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldCreateUpdateAndRetireLikeOtherRunners() throws Exception {
+		ObjectSource<Location> source = new TestListSource(
+				location("Location #1", null, "00000000-0000-0000-0000-000000000001"),
+				location("New Xanadu", "Updated", XANADU_UUID),
+				location("Location #2", null, "ffffffff-0000-0000-0000-000000000001")
+		);
+
+		SyncResult<Location> result = new MergeSynchronizationRunner<Location>(source, new TestSortedSynchronization()).run();
+
+		Assert.assertThat(result.getCreated(), hasSize(2));
+		Assert.assertThat(result.getUpdated(), hasSize(1));
+		Assert.assertThat(result.getRetired(), hasSize(1)); // Retired 'Unknown Location' from standardTestDataset.xml
+
+		Location xanadu = locationService.getLocationByUuid(XANADU_UUID);
+		Assert.assertThat(xanadu.getName(), is("New Xanadu"));
+		Assert.assertThat(xanadu.isRetired(), is(false));
+		Assert.assertThat(result.getRetired().get(0).getName(), is("Unknown Location"));
+
+		// Second sync should find nothing to do
+		source = new TestListSource(
+				location("Location #1", null, "00000000-0000-0000-0000-000000000001"),
+				location("New Xanadu", "Updated", XANADU_UUID),
+				location("Location #2", null, "ffffffff-0000-0000-0000-000000000001")
+		);
+
+		result = new MergeSynchronizationRunner<Location>(source, new TestSortedSynchronization()).run();
+
+		Assert.assertThat(result.getCreated(), hasSize(0));
+		Assert.assertThat(result.getUpdated(), hasSize(0));
+		Assert.assertThat(result.getRetired(), hasSize(0));
+	}
+
+	/**
+	 * @see MergeSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldRestoreRetiredObjectWhichIsBackInSource() throws Exception {
+		Location xanadu = locationService.getLocationByUuid(XANADU_UUID);
+		locationService.retireLocation(xanadu, "Testing");
+
+		ObjectSource<Location> source = new TestListSource(location(xanadu.getName(), xanadu.getDescription(), XANADU_UUID));
+
+		SyncResult<Location> result = new MergeSynchronizationRunner<Location>(source, new TestSortedSynchronization()).run();
+
+		Assert.assertThat(result.getUpdated(), hasSize(1));
+		Assert.assertThat(locationService.getLocationByUuid(XANADU_UUID).isRetired(), is(false));
+	}
+
+	/**
+	 * @see MergeSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldFailWithoutRetiringIfSourceIsNotSorted() throws Exception {
+		ObjectSource<Location> source = new TestListSource(
+				location("Location #2", null, "ffffffff-0000-0000-0000-000000000001"),
+				location("Location #1", null, "00000000-0000-0000-0000-000000000001")
+		);
+
+		try {
+			new MergeSynchronizationRunner<Location>(source, new TestSortedSynchronization()).run();
+			Assert.fail("Expected synchronization to fail");
+		}
+		catch (APIException ex) {
+			// Expected
+		}
+
+		Assert.assertThat(locationService.getLocationByUuid(XANADU_UUID).isRetired(), is(false));
+	}
+
+	/**
+	 * Source backed by a list for testing
+	 */
+	protected class TestListSource implements ObjectSource<Location> {
+
+		private Iterator<Location> iterator;
+
+		public TestListSource(Location... locations) {
+			this.iterator = Arrays.asList(locations).iterator();
+		}
+
+		@Override
+		public Location fetchNext() {
+			return iterator.hasNext() ? iterator.next() : null;
+		}
+	}
+
+	/**
+	 * Sorted location UUID based synchronization for testing
+	 */
+	protected class TestSortedSynchronization implements SortedObjectSynchronization<Location> {
+
+		@Override
+		public List<Location> fetchAllExisting() {
+			return locationService.getAllLocations(true);
+		}
+
+		@Override
+		public Object getObjectSyncKey(Location obj) {
+			return obj.getUuid();
+		}
+
+		@Override
+		public boolean updateRequired(Location incoming, Location existing) {
+			return !OpenmrsUtil.nullSafeEquals(incoming.getName(), existing.getName())
+					|| !OpenmrsUtil.nullSafeEquals(incoming.getDescription(), existing.getDescription());
+		}
+
+		@Override
+		public Class<Location> getObjectClass() {
+			return Location.class;
+		}
+
+		@Override
+		public String getSyncKeyProperty() {
+			return "uuid";
+		}
+
+		@Override
+		public String[] getIndexProperties() {
+			return new String[] { "uuid", "name", "description" };
+		}
+
+		@Override
+		public Object[] getIndexValues(Location obj) {
+			return new Object[] { obj.getUuid(), obj.getName(), obj.getDescription() };
+		}
+
+		@Override
+		public Object getIndexSyncKey(Object[] values) {
+			return values[0];
+		}
+	}
+}
@@ -14,16 +14,22 @@
 
 package org.openmrs.module.metadatadeploy.sync;
 
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Test;
 import org.openmrs.Location;
+import org.openmrs.api.APIException;
 import org.openmrs.api.LocationService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.metadatadeploy.QueryCounter;
 import org.openmrs.module.metadatadeploy.source.AbstractCsvResourceSource;
+import org.openmrs.module.metadatadeploy.source.ObjectSource;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.hamcrest.Matchers.*;
@@ -36,6 +42,9 @@ public class MetadataSynchronizationRunnerTest extends BaseModuleContextSensitiv
 	@Autowired
 	private LocationService locationService;
 
+	@Autowired
+	private SessionFactory sessionFactory;
+
 	@Test
 	public void integration() throws Exception {
 		MetadataSynchronizationRunner<Location> runner1 = new MetadataSynchronizationRunner<Location>(new TestCsvSource(), new TestUuidSynchronization());
@@ -61,6 +70,108 @@ public class MetadataSynchronizationRunnerTest extends BaseModuleContextSensitiv
 		Assert.assertThat(location2.getName(), is("Location #2"));
 	}
 
+	@Test
+	public void integration_indexed() throws Exception {
+		MetadataSynchronizationRunner<Location> runner1 = new MetadataSynchronizationRunner<Location>(new TestCsvSource(), new TestIndexedSynchronization());
+		SyncResult<Location> result1 = runner1.run();
+
+		Assert.assertThat(result1.getCreated(), hasSize(3));
+		Assert.assertThat(result1.getUpdated(), hasSize(0));
+		Assert.assertThat(result1.getRetired(), hasSize(2));
+
+		Location location2 = locationService.getLocationByUuid("C271874A-DACE-480A-8D55-840A96ADA70F");
+		location2.setName("Wrong name");
+		locationService.saveLocation(location2);
+
+		Context.flushSession();
+		Context.clearSession();
+
+		QueryCounter counter = new QueryCounter(sessionFactory);
+		try {
+			MetadataSynchronizationRunner<Location> runner2 = new MetadataSynchronizationRunner<Location>(new TestCsvSource(), new TestIndexedSynchronization());
+			SyncResult<Location> result2 = runner2.run();
+
+			Assert.assertThat(result2.getCreated(), hasSize(0));
+			Assert.assertThat(result2.getUpdated(), hasSize(1));
+			Assert.assertThat(result2.getRetired(), hasSize(0));
+			Assert.assertThat(result2.getUpdated().get(0).getName(), is("Location #2"));
+
+			// Only the modified location should have been loaded
+			Assert.assertThat(counter.getEntityLoadCount(Location.class), is(1l));
+		}
+		finally {
+			counter.stop();
+		}
+	}
+
+	/**
+	 * @see MetadataSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldRestoreRetiredIndexedObjectWhichIsBackInSource() throws Exception {
+		new MetadataSynchronizationRunner<Location>(new TestCsvSource(), new TestIndexedSynchronization()).run();
+
+		Location location2 = locationService.getLocationByUuid("C271874A-DACE-480A-8D55-840A96ADA70F");
+		locationService.retireLocation(location2, "Testing");
+
+		Context.flushSession();
+		Context.clearSession();
+
+		// Retired location is unchanged in the source apart from its retired flag
+		SyncResult<Location> result = new MetadataSynchronizationRunner<Location>(new TestCsvSource(), new TestIndexedSynchronization()).run();
+
+		Assert.assertThat(result.getUpdated(), hasSize(1));
+		Assert.assertThat(locationService.getLocationByUuid("C271874A-DACE-480A-8D55-840A96ADA70F").isRetired(), is(false));
+	}
+
+	@Test
+	public void integration_countingResult() throws Exception {
+		final List<SyncOutcome> outcomes = new ArrayList<SyncOutcome>();
+		SyncListener<Location> listener = new SyncListener<Location>() {
+			@Override
+			public void objectSynced(Location obj, SyncOutcome outcome) {
+				outcomes.add(outcome);
+			}
+		};
+
+		MetadataSynchronizationRunner<Location> runner = new MetadataSynchronizationRunner<Location>(new TestCsvSource(), new TestUuidSynchronization());
+		runner.setResult(new CountingSyncResult<Location>(1, listener));
+		SyncResult<Location> result = runner.run();
+
+		Assert.assertThat(result.getCreatedCount(), is(3));
+		Assert.assertThat(result.getUpdatedCount(), is(0));
+		Assert.assertThat(result.getRetiredCount(), is(2));
+
+		// Only one object of each outcome is kept
+		Assert.assertThat(result.getCreated(), hasSize(1));
+		Assert.assertThat(result.getRetired(), hasSize(1));
+
+		Assert.assertThat(outcomes, contains(SyncOutcome.CREATED, SyncOutcome.CREATED, SyncOutcome.CREATED, SyncOutcome.RETIRED, SyncOutcome.RETIRED));
+	}
+
+	/**
+	 * @see MetadataSynchronizationRunner#run()
+	 */
+	@Test
+	public void run_shouldNotRetireExistingObjectsIfSourceFails() throws Exception {
+		ObjectSource<Location> failingSource = new ObjectSource<Location>() {
+			@Override
+			public Location fetchNext() throws Exception {
+				throw new IOException("Source failure");
+			}
+		};
+
+		try {
+			new MetadataSynchronizationRunner<Location>(failingSource, new TestUuidSynchronization()).run();
+			Assert.fail("Expected synchronization to fail");
+		}
+		catch (APIException ex) {
+			// Expected
+		}
+
+		Assert.assertThat(locationService.getLocationByUuid("9356400c-a5a2-4532-8f2b-2361b3446eb8").isRetired(), is(false)); // Xanadu
+	}
+
 	/**
 	 * Location source for testing
 	 */
@@ -103,4 +214,30 @@ public class MetadataSynchronizationRunnerTest extends BaseModuleContextSensitiv
 			return !objectsMatch;
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Indexed location UUID based synchronization for testing
+	 */
+	protected class TestIndexedSynchronization extends TestUuidSynchronization implements IndexedObjectSynchronization<Location> {
+
+		@Override
+		public Class<Location> getObjectClass() {
+			return Location.class;
+		}
+
+		@Override
+		public String[] getIndexProperties() {
+			return new String[] { "uuid", "name", "description" };
+		}
+
+		@Override
+		public Object[] getIndexValues(Location obj) {
+			return new Object[] { obj.getUuid(), obj.getName(), obj.getDescription() };
+		}
+
+		@Override
+		public Object getIndexSyncKey(Object[] values) {
+			return values[0];
+		}
+	}
+}